@@ -29,6 +29,15 @@ CREATE TABLE `R_RECORD_JOB` (
 `HOSTNAME`  varchar(64) CHARACTER SET utf8 COLLATE utf8_general_ci NULL ,
 `CRON_EXPRESSION`  varchar(16) CHARACTER SET utf8 COLLATE utf8_general_ci NULL  ,
 `ERROR_MSG`  varchar(512) CHARACTER SET utf8 COLLATE utf8_general_ci NULL ,
+`QUEUE_CLASS`  varchar(64) CHARACTER SET utf8 COLLATE utf8_general_ci NULL ,
+`RETRY_COUNT`  int(11) NOT NULL DEFAULT 0 ,
+`RETRY_MAX`  int(11) NULL ,
+`IDEMPOTENT`  int(1) NOT NULL DEFAULT 0 ,
+`OWNER`  varchar(64) CHARACTER SET utf8 COLLATE utf8_general_ci NULL ,
+`LEASE_EXPIRE`  datetime NULL ,
+`VERSION`  int(11) NOT NULL DEFAULT 0 ,
+`SCHEDULE_JITTER`  int(11) NULL ,
+`DEFINITION`  longblob NULL ,
 `CREATE_TIME`  datetime NOT NULL,
 `UPDATE_TIME`  datetime NOT NULL,
 PRIMARY KEY (`ID_JOB`,`UUID`)
@@ -49,4 +58,32 @@ CREATE TABLE `R_RECORD_DEPENDENT` (
 )
 ENGINE=InnoDB
 DEFAULT CHARACTER SET=utf8 COLLATE=utf8_general_ci
+ROW_FORMAT=DYNAMIC;
+
+-- ----------------------------
+-- Table structure for R_RECORD_UPSTREAM
+-- ----------------------------
+DROP TABLE IF EXISTS `R_RECORD_UPSTREAM`;
+CREATE TABLE `R_RECORD_UPSTREAM` (
+`UUID`  varchar(64) NOT NULL ,
+`UPSTREAM_UUID`  varchar(64) NOT NULL ,
+`CREATE_TIME`  datetime NOT NULL,
+PRIMARY KEY (`UUID`,`UPSTREAM_UUID`)
+)
+ENGINE=InnoDB
+DEFAULT CHARACTER SET=utf8 COLLATE=utf8_general_ci
+ROW_FORMAT=DYNAMIC;
+
+-- ----------------------------
+-- Table structure for R_RECORD_MGR_NODE
+-- ----------------------------
+DROP TABLE IF EXISTS `R_RECORD_MGR_NODE`;
+CREATE TABLE `R_RECORD_MGR_NODE` (
+`NODE_ID`  varchar(64) NOT NULL ,
+`HEARTBEAT_TIME`  datetime NOT NULL,
+`CREATE_TIME`  datetime NOT NULL,
+PRIMARY KEY (`NODE_ID`)
+)
+ENGINE=InnoDB
+DEFAULT CHARACTER SET=utf8 COLLATE=utf8_general_ci
 ROW_FORMAT=DYNAMIC;
\ No newline at end of file
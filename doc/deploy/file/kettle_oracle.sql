@@ -25,7 +25,30 @@ CREATE TABLE "R_RECORD_JOB" (
 	"HOSTNAME" VARCHAR2 (64) NULL,
 	"CRON_EXPRESSION" VARCHAR2 (16) NULL,
 	"ERROR_MSG" VARCHAR2 (512) NULL,
+	"QUEUE_CLASS" VARCHAR2 (64) NULL,
+	"RETRY_COUNT" NUMBER (10) DEFAULT 0 NOT NULL,
+	"RETRY_MAX" NUMBER (10) NULL,
+	"IDEMPOTENT" NUMBER (1) DEFAULT 0 NOT NULL,
+	"OWNER" VARCHAR2 (64) NULL,
+	"LEASE_EXPIRE" DATE NULL,
+	"VERSION" NUMBER (10) DEFAULT 0 NOT NULL,
+	"SCHEDULE_JITTER" NUMBER (10) NULL,
+	"DEFINITION" BLOB NULL,
 	"CREATE_TIME" DATE NOT NULL,
 	"UPDATE_TIME" DATE NOT NULL,
 	PRIMARY KEY ("ID_JOB", "UUID")
+);
+
+CREATE TABLE "R_RECORD_UPSTREAM" (
+	"UUID" VARCHAR2 (64) NOT NULL,
+	"UPSTREAM_UUID" VARCHAR2 (64) NOT NULL,
+	"CREATE_TIME" DATE NOT NULL,
+	PRIMARY KEY ("UUID", "UPSTREAM_UUID")
+);
+
+CREATE TABLE "R_RECORD_MGR_NODE" (
+	"NODE_ID" VARCHAR2 (64) NOT NULL,
+	"HEARTBEAT_TIME" DATE NOT NULL,
+	"CREATE_TIME" DATE NOT NULL,
+	PRIMARY KEY ("NODE_ID")
 );
\ No newline at end of file
@@ -41,4 +41,223 @@ public class KettleEnvDefault {
 	 */
 	public static final Integer KETTLE_RECORD_RUNNING_TIMEOUT = null;
 
+	/**
+	 * Record服务模型:PARALLEL,SERIAL,EVENTLOOP
+	 */
+	public static final String KETTLE_RECORD_SERVICE = "PARALLEL";
+
+	/**
+	 * 事件驱动模型的线程数
+	 */
+	public static final int KETTLE_RECORD_EVENT_LOOP_THREADS = 2;
+
+	/**
+	 * 全局派发的远端选择策略:LEAST_LOADED,WEIGHTED_ROUND_ROBIN,POWER_OF_TWO或策略类名;
+	 * 仅EVENTLOOP模型使用,PARALLEL和SERIAL模型由各远端按自身的并发上限领取
+	 */
+	public static final String KETTLE_RECORD_DISPATCH_POLICY = "LEAST_LOADED";
+
+	/**
+	 * 任务池队列类别的默认权重,单个类别用KETTLE_RECORD_QUEUE_WEIGHT_类别名配置
+	 */
+	public static final int KETTLE_RECORD_QUEUE_WEIGHT = 1;
+
+	/**
+	 * 调用方每秒可申请的任务数,小于等于0不限制;单个调用方用KETTLE_RECORD_ADMIT_RATE_调用方配置
+	 */
+	public static final double KETTLE_RECORD_ADMIT_RATE = 0;
+
+	/**
+	 * 调用方可突发申请的任务数;单个调用方用KETTLE_RECORD_ADMIT_BURST_调用方配置
+	 */
+	public static final int KETTLE_RECORD_ADMIT_BURST = 10;
+
+	/**
+	 * 派发失败的最大重试次数;单个队列类别用KETTLE_RECORD_RETRY_MAX_类别名配置
+	 */
+	public static final int KETTLE_RECORD_RETRY_MAX = 3;
+
+	/**
+	 * 首次重试的退避时间(毫秒),之后每次翻倍
+	 */
+	public static final int KETTLE_RECORD_RETRY_BACKOFF = 5000;
+
+	/**
+	 * 重试退避时间的上限(毫秒)
+	 */
+	public static final int KETTLE_RECORD_RETRY_BACKOFF_MAX = 300000;
+
+	/**
+	 * 可重试的异常类型,逗号分隔
+	 */
+	public static final String KETTLE_RECORD_RETRY_EXCEPTIONS = "java.io.IOException";
+
+	/**
+	 * 远端失联的宽限期(秒),超过后运行中的Record幂等则重新派发,否则置为异常
+	 */
+	public static final int KETTLE_REMOTE_FAILOVER_GRACE = 60;
+
+	/**
+	 * 远端状态同步的间隔(秒),每次同步用一次调用获取远端所有Job的状态,运行中Record的状态从中读取
+	 */
+	public static final int KETTLE_REMOTE_STATUS_SYNC_SECONDS = 5;
+
+	/**
+	 * 单个远端状态同步的期限(毫秒),各远端并行同步,超过期限仍未返回的远端按不可用处理;单个远端用KETTLE_REMOTE_PROBE_TIMEOUT_远端名配置;
+	 * null时为该远端的连接超时与读取超时之和,调用本身仍可能成功时不按不可用处理
+	 */
+	public static final Integer KETTLE_REMOTE_PROBE_TIMEOUT = null;
+
+	/**
+	 * 调用远端的连接超时(毫秒);单个远端用KETTLE_REMOTE_HTTP_CONNECT_TIMEOUT_远端名配置
+	 */
+	public static final int KETTLE_REMOTE_HTTP_CONNECT_TIMEOUT = 5000;
+
+	/**
+	 * 调用远端的读取超时(毫秒);单个远端用KETTLE_REMOTE_HTTP_READ_TIMEOUT_远端名配置
+	 */
+	public static final int KETTLE_REMOTE_HTTP_READ_TIMEOUT = 30000;
+
+	/**
+	 * 对单个远端同时进行的请求数上限,也是该远端长连接池的大小;单个远端用KETTLE_REMOTE_HTTP_MAX_IN_FLIGHT_远端名配置
+	 */
+	public static final int KETTLE_REMOTE_HTTP_MAX_IN_FLIGHT = 8;
+
+	/**
+	 * 远端独占派发线程的数量;单个远端用KETTLE_REMOTE_BULKHEAD_THREADS_远端名配置
+	 */
+	public static final int KETTLE_REMOTE_BULKHEAD_THREADS = 1;
+
+	/**
+	 * 远端派发队列的上限,满时拒绝;单个远端用KETTLE_REMOTE_BULKHEAD_QUEUE_远端名配置
+	 */
+	public static final int KETTLE_REMOTE_BULKHEAD_QUEUE = 16;
+
+	/**
+	 * 远端调用连续失败的次数达到该值时熔断
+	 */
+	public static final int KETTLE_REMOTE_BREAKER_FAILURES = 3;
+
+	/**
+	 * 熔断后放行试探调用前的等待时间(秒)
+	 */
+	public static final int KETTLE_REMOTE_BREAKER_OPEN_SECONDS = 10;
+
+	/**
+	 * 试探调用的期限(秒),超过时仍未反馈结果则重新断开,应不短于调用远端的超时
+	 */
+	public static final int KETTLE_REMOTE_BREAKER_TRIAL_SECONDS = 60;
+
+	/**
+	 * 故障检测的怀疑度(phi)阈值,远端无响应的时间按状态同步的间隔分布计算,超过时熔断
+	 */
+	public static final double KETTLE_REMOTE_BREAKER_PHI = 8.0;
+
+	/**
+	 * 故障检测可接受的额外停顿(毫秒),如状态同步被其他远端拖慢;状态同步比预期晚开始超过该值时视为管理端自身停顿,本轮不评估怀疑度
+	 */
+	public static final int KETTLE_REMOTE_BREAKER_PAUSE = 3000;
+
+	/**
+	 * Record本地日志的目录,远端日志的增量按Record追加到该目录
+	 */
+	public static final String KETTLE_RECORD_LOG_DIR = "logs/record";
+
+	/**
+	 * 单个Record本地日志文件的上限(KB),超过时滚动,只保留一份滚动的文件
+	 */
+	public static final int KETTLE_RECORD_LOG_MAX_KB = 5120;
+
+	/**
+	 * 运行中Record拉取远端日志增量的间隔(秒),0只在Record结束时拉取
+	 */
+	public static final int KETTLE_RECORD_LOG_SYNC_SECONDS = 30;
+
+	/**
+	 * Job发送到远端的方式:EXPORT导出Job及其依赖的转换并上传到远端;REFERENCE只发送资源库中的路径,
+	 * 由远端从共享的资源库加载,要求每个远端都挂载同一个资源库并在其repositories.xml中定义
+	 */
+	public static final String KETTLE_RECORD_SEND_MODE = "EXPORT";
+
+	/**
+	 * REFERENCE方式下远端使用的资源库名称,为空时使用本地资源库的名称
+	 */
+	public static final String KETTLE_RECORD_SEND_REPOSITORY = null;
+
+	/**
+	 * REFERENCE方式下远端资源库的用户,文件资源库无需配置
+	 */
+	public static final String KETTLE_RECORD_SEND_REPOSITORY_USER = null;
+
+	/**
+	 * REFERENCE方式下远端资源库的密码,可为Encrypted加密,发送前解密;以表单POST发送,不出现在URL中
+	 */
+	public static final String KETTLE_RECORD_SEND_REPOSITORY_PASSWORD = null;
+
+	/**
+	 * 远端自适应并发上限的最小值;单个远端用KETTLE_REMOTE_LIMIT_MIN_远端名配置
+	 */
+	public static final int KETTLE_REMOTE_LIMIT_MIN = 1;
+
+	/**
+	 * 远端自适应并发上限的最大值,初始值为KETTLE_RECORD_MAX_PER_REMOTE;单个远端用KETTLE_REMOTE_LIMIT_MAX_远端名配置;
+	 * null时为该远端的KETTLE_RECORD_MAX_PER_REMOTE,即上限只降不升
+	 */
+	public static final Integer KETTLE_REMOTE_LIMIT_MAX = null;
+
+	/**
+	 * 异常或过载时并发上限的乘性系数
+	 */
+	public static final double KETTLE_REMOTE_LIMIT_BACKOFF = 0.5;
+
+	/**
+	 * 远端单核负载的上限,超过时降低并发上限
+	 */
+	public static final double KETTLE_REMOTE_LIMIT_LOAD_MAX = 1.5;
+
+	/**
+	 * 远端调用平滑时延与基线之比的上限,超过时降低并发上限
+	 */
+	public static final double KETTLE_REMOTE_LIMIT_LATENCY_RATIO = 2.0;
+
+	/**
+	 * 管理节点的标识,多个节点共用KettleRecordDB时必须唯一且重启后不变;为空时使用主机名,同一主机部署多个节点时必须配置
+	 */
+	public static final String KETTLE_MGR_NODE_ID = null;
+
+	/**
+	 * 节点持有Record的租约时长(秒),每三分之一续约一次,过期的Record由其他节点接管
+	 */
+	public static final int KETTLE_MGR_LEASE_SECONDS = 60;
+
+	/**
+	 * 定时任务的触发模式:LOCAL每个节点都触发;CLUSTER按UUID在存活节点间分片,每个触发只由一个节点执行
+	 */
+	public static final String KETTLE_RECORD_SCHEDULE_MODE = "LOCAL";
+
+	/**
+	 * 定时任务触发的默认打散时间(秒),每个定时任务在该窗口内按UUID固定偏移;0不打散
+	 */
+	public static final int KETTLE_RECORD_SCHEDULE_JITTER = 0;
+
+	/**
+	 * 定时任务每秒最多申请的数量,同时不超过远端的空闲槽位;0不限制
+	 */
+	public static final int KETTLE_RECORD_SCHEDULE_PACE = 0;
+
+	/**
+	 * 定时任务错过触发的处理:FIRE_ONCE,SKIP,CATCH_UP
+	 */
+	public static final String KETTLE_RECORD_SCHEDULE_MISFIRE = "FIRE_ONCE";
+
+	/**
+	 * CATCH_UP时最多补触发的次数
+	 */
+	public static final int KETTLE_RECORD_SCHEDULE_CATCHUP_MAX = 10;
+
+	/**
+	 * CATCH_UP时补触发的间隔(秒),上一次补触发执行结束后开始计算
+	 */
+	public static final int KETTLE_RECORD_SCHEDULE_CATCHUP_INTERVAL = 60;
+
 }
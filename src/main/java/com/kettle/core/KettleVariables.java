@@ -22,6 +22,31 @@ public class KettleVariables {
 	 */
 	public static final String R_RECORD_DEPENDENT = "R_RECORD_DEPENDENT";
 
+	/**
+	 * 上游依赖表的表名
+	 */
+	public static final String R_RECORD_UPSTREAM = "R_RECORD_UPSTREAM";
+
+	/**
+	 * 管理节点表的表名
+	 */
+	public static final String R_MGR_NODE = "R_RECORD_MGR_NODE";
+
+	/**
+	 * 管理节点的标识
+	 */
+	public static final String R_MGR_NODE_ID = "NODE_ID";
+
+	/**
+	 * 管理节点的心跳时间
+	 */
+	public static final String R_MGR_NODE_HEARTBEAT = "HEARTBEAT_TIME";
+
+	/**
+	 * 上游依赖表的上游UUID
+	 */
+	public static final String R_RECORD_UPSTREAM_UUID = "UPSTREAM_UUID";
+
 	/**
 	 * 关系表的主ID
 	 */
@@ -57,6 +82,66 @@ public class KettleVariables {
 	 */
 	public static final String R_RECORD_CRON_EXPRESSION = "CRON_EXPRESSION";
 
+	/**
+	 * 记录的队列类别
+	 */
+	public static final String R_RECORD_QUEUE_CLASS = "QUEUE_CLASS";
+
+	/**
+	 * 记录本次执行已重试的次数
+	 */
+	public static final String R_RECORD_RETRY_COUNT = "RETRY_COUNT";
+
+	/**
+	 * 记录的最大重试次数,为空时使用重试策略
+	 */
+	public static final String R_RECORD_RETRY_MAX = "RETRY_MAX";
+
+	/**
+	 * 记录是否幂等,幂等的Record在远端失联后可重新派发
+	 */
+	public static final String R_RECORD_IDEMPOTENT = "IDEMPOTENT";
+
+	/**
+	 * 记录的持有节点
+	 */
+	public static final String R_RECORD_OWNER = "OWNER";
+
+	/**
+	 * 记录持有租约的到期时间
+	 */
+	public static final String R_RECORD_LEASE_EXPIRE = "LEASE_EXPIRE";
+
+	/**
+	 * 记录的版本,认领时乐观校验
+	 */
+	public static final String R_RECORD_VERSION = "VERSION";
+
+	/**
+	 * 定时任务触发的最大打散时间(秒)
+	 */
+	public static final String R_RECORD_SCHEDULE_JITTER = "SCHEDULE_JITTER";
+
+	/**
+	 * 不保存到资源库的Record的压缩定义(导出包)
+	 */
+	public static final String R_RECORD_DEFINITION = "DEFINITION";
+
+	/**
+	 * 定时任务错过触发时补触发一次
+	 */
+	public static final String SCHEDULE_MISFIRE_FIRE_ONCE = "FIRE_ONCE";
+
+	/**
+	 * 定时任务错过触发时跳过
+	 */
+	public static final String SCHEDULE_MISFIRE_SKIP = "SKIP";
+
+	/**
+	 * 定时任务错过触发时逐个补触发,上一次执行结束后间隔一段时间再补下一次
+	 */
+	public static final String SCHEDULE_MISFIRE_CATCH_UP = "CATCH_UP";
+
 	/**
 	 * 工作记录的元数据ID:唯一
 	 */
@@ -137,6 +222,11 @@ public class KettleVariables {
 	 */
 	public static final String RECORD_STATUS_FINISHED = "FINISHED";
 
+	/**
+	 * 申请结果:未受理,仅用于返回,不持久化
+	 */
+	public static final String RECORD_STATUS_REJECTED = "REJECTED";
+
 	/**
 	 * 远端的运行状态:异常
 	 */
@@ -147,6 +237,51 @@ public class KettleVariables {
 	 */
 	public static final String REMOTE_STATUS_RUNNING = "Online";
 
+	/**
+	 * 远端熔断器:闭合,正常调用
+	 */
+	public static final String BREAKER_CLOSED = "CLOSED";
+
+	/**
+	 * 远端熔断器:断开,调用立即失败,不再派发
+	 */
+	public static final String BREAKER_OPEN = "OPEN";
+
+	/**
+	 * 远端熔断器:半开,放行一次试探调用
+	 */
+	public static final String BREAKER_HALF_OPEN = "HALF_OPEN";
+
+	/**
+	 * 故障转移事件:远端不可用
+	 */
+	public static final String FAILOVER_REMOTE_DOWN = "REMOTE_DOWN";
+
+	/**
+	 * 故障转移事件:远端恢复
+	 */
+	public static final String FAILOVER_REMOTE_UP = "REMOTE_UP";
+
+	/**
+	 * 故障转移事件:未发送的Record转移到其他远端
+	 */
+	public static final String FAILOVER_RECORD_MOVED = "RECORD_MOVED";
+
+	/**
+	 * 故障转移事件:运行中的幂等Record重新派发
+	 */
+	public static final String FAILOVER_RECORD_REDISPATCHED = "RECORD_REDISPATCHED";
+
+	/**
+	 * 故障转移事件:运行中的非幂等Record置为异常
+	 */
+	public static final String FAILOVER_RECORD_ABANDONED = "RECORD_ABANDONED";
+
+	/**
+	 * 默认的队列类别
+	 */
+	public static final String RECORD_QUEUE_CLASS_DEFAULT = "DEFAULT";
+
 	/**
 	 * 历史记录的TYPE:JOB
 	 */
@@ -156,4 +291,9 @@ public class KettleVariables {
 	 * 转换记录的元数据ID:唯一
 	 */
 	public static final String RECORD_TYPE_TRANS = "TRANS";
+
+	/**
+	 * 不保存到资源库的Record的资源ID,其定义以导出包保存在Record中
+	 */
+	public static final String RECORD_JOBID_INLINE = "INLINE";
 }
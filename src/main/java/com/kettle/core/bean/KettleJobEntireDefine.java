@@ -28,6 +28,30 @@ public class KettleJobEntireDefine {
 	 * 依赖的Job
 	 */
 	private List<JobMeta> dependentJobs;
+	/**
+	 * 上游Job的UUID,上游均完成后才执行,任一失败则取消
+	 */
+	private List<String> upstreams;
+	/**
+	 * 队列类别(租户),为空时使用默认类别
+	 */
+	private String queueClass;
+	/**
+	 * 派发失败的最大重试次数,为空时使用队列类别的重试策略
+	 */
+	private Integer retryMax;
+	/**
+	 * 是否幂等,重复执行结果相同时为true,远端失联后可重新派发
+	 */
+	private boolean idempotent;
+	/**
+	 * 定时任务触发的最大打散时间(秒),为空时使用全局配置
+	 */
+	private Integer scheduleJitter;
+	/**
+	 * 是否不保存到资源库,为true时在内存中导出发送到远端,只保存Record及压缩的定义;只能立即执行
+	 */
+	private boolean inline;
 	
 	public String getUuid() {
 		return uuid;
@@ -45,6 +69,46 @@ public class KettleJobEntireDefine {
 		this.mainJob = mainJob;
 	}
 
+	public String getQueueClass() {
+		return queueClass;
+	}
+
+	public void setQueueClass(String queueClass) {
+		this.queueClass = queueClass;
+	}
+
+	public Integer getRetryMax() {
+		return retryMax;
+	}
+
+	public void setRetryMax(Integer retryMax) {
+		this.retryMax = retryMax;
+	}
+
+	public boolean isIdempotent() {
+		return idempotent;
+	}
+
+	public void setIdempotent(boolean idempotent) {
+		this.idempotent = idempotent;
+	}
+
+	public Integer getScheduleJitter() {
+		return scheduleJitter;
+	}
+
+	public void setScheduleJitter(Integer scheduleJitter) {
+		this.scheduleJitter = scheduleJitter;
+	}
+
+	public boolean isInline() {
+		return inline;
+	}
+
+	public void setInline(boolean inline) {
+		this.inline = inline;
+	}
+
 	public List<TransMeta> getDependentTrans() {
 		if (dependentTrans == null) {
 			dependentTrans = new ArrayList<TransMeta>();
@@ -52,6 +116,13 @@ public class KettleJobEntireDefine {
 		return dependentTrans;
 	}
 
+	public List<String> getUpstreams() {
+		if (upstreams == null) {
+			upstreams = new ArrayList<String>();
+		}
+		return upstreams;
+	}
+
 	public List<JobMeta> getDependentJobs() {
 		if (dependentJobs == null) {
 			dependentJobs = new ArrayList<JobMeta>();
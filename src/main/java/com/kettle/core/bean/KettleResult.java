@@ -20,6 +20,11 @@ public class KettleResult {
 	 */
 	private String errMsg;
 
+	/**
+	 * 未被受理时的预计等待时间(毫秒),-1表示无法估算
+	 */
+	private long estimatedWait;
+
 	public String getUuid() {
 		return uuid;
 	}
@@ -43,4 +48,12 @@ public class KettleResult {
 	public void setErrMsg(String errMsg) {
 		this.errMsg = errMsg;
 	}
+
+	public long getEstimatedWait() {
+		return estimatedWait;
+	}
+
+	public void setEstimatedWait(long estimatedWait) {
+		this.estimatedWait = estimatedWait;
+	}
 }
@@ -3,10 +3,14 @@ package com.kettle.core.db;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.database.Database;
@@ -24,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.kettle.core.KettleVariables;
+import com.kettle.core.instance.KettleMgrEnvironment;
 import com.kettle.record.KettleRecord;
 import com.kettle.record.KettleRecordRelation;
 
@@ -40,11 +45,41 @@ public class KettleDBClient {
      */
     private static Logger logger = LoggerFactory.getLogger(KettleDBClient.class);
 
+    /**
+     * 批量保存时每批的行数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * 查询Record的列,与toRecord的下标对应
+     */
+    private static final String RECORD_SELECT = "SELECT " + KettleVariables.R_JOB_RECORD_UUID + ","
+	    + KettleVariables.R_JOB_RECORD_ID_JOB + "," + KettleVariables.R_JOB_RECORD_NAME_JOB + ","
+	    + KettleVariables.R_RECORD_ID_RUN + "," + KettleVariables.R_RECORD_STATUS + ","
+	    + KettleVariables.R_RECORD_HOSTNAME + "," + KettleVariables.R_RECORD_CREATETIME + ","
+	    + KettleVariables.R_RECORD_UPDATETIME + "," + KettleVariables.R_RECORD_ERRORMSG + ","
+	    + KettleVariables.R_RECORD_CRON_EXPRESSION + "," + KettleVariables.R_RECORD_QUEUE_CLASS + ","
+	    + KettleVariables.R_RECORD_RETRY_COUNT + "," + KettleVariables.R_RECORD_RETRY_MAX + ","
+	    + KettleVariables.R_RECORD_IDEMPOTENT + "," + KettleVariables.R_RECORD_OWNER + ","
+	    + KettleVariables.R_RECORD_LEASE_EXPIRE + "," + KettleVariables.R_RECORD_VERSION + ","
+	    + KettleVariables.R_RECORD_SCHEDULE_JITTER + " FROM "
+	    + KettleVariables.R_JOB_RECORD;
+
     /**
      * 数据库元数据
      */
     private final Database database;
 
+    /**
+     * 数据库时间与本地时间之差(毫秒),租约与心跳按数据库时间计算,不受各节点时钟偏差影响
+     */
+    private volatile long clockOffset = 0;
+
+    /**
+     * 是否已校准时间差
+     */
+    private volatile boolean clockSynced = false;
+
     /**
      * @param databaseMeta
      * @throws KettleDatabaseException
@@ -214,6 +249,60 @@ public class KettleDBClient {
 	}
     }
 
+    /**
+     * 批量保存多张表,同一事务,任一失败全部回滚
+     * 
+     * @param tables
+     *            表名到数据,按顺序保存
+     * @throws KettleException
+     */
+    private synchronized void insertTablesBatch(Map<String, List<RowMetaAndData>> tables) throws KettleException {
+	connect();
+	try {
+	    database.setAutoCommit(false);
+	    PreparedStatement ps;
+	    for (Map.Entry<String, List<RowMetaAndData>> entry : tables.entrySet()) {
+		if (entry.getValue().isEmpty()) {
+		    continue;
+		}
+		ps = database.prepareSQL(
+			database.getInsertStatement(entry.getKey(), entry.getValue().get(0).getRowMeta()));
+		try {
+		    for (int i = 0, size = entry.getValue().size(); i < size; i++) {
+			database.setValues(entry.getValue().get(i), ps);
+			ps.addBatch();
+			if (i % BATCH_SIZE == BATCH_SIZE - 1) {
+			    ps.executeBatch();
+			}
+		    }
+		    ps.executeBatch();
+		} finally {
+		    ps.close();
+		}
+	    }
+	    database.commit(true);
+	} catch (SQLException e) {
+	    rollbackNE();
+	    throw new KettleException("Kettle的数据库批量保存失败!", e);
+	} catch (KettleException e) {
+	    rollbackNE();
+	    throw e;
+	} finally {
+	    closeConnect();
+	}
+    }
+
+    /**
+     * 回滚
+     */
+    private void rollbackNE() {
+	try {
+	    database.rollback(true);
+	} catch (Exception ex) {
+	    logger.error("Kettle的数据库回滚失败!", ex);
+	}
+    }
+
     /**
      * 更新表,values中idfield的列放最后
      * 
@@ -277,6 +366,96 @@ public class KettleDBClient {
 	}
     }
 
+    /**
+     * 带参数的查询
+     * 
+     * @param sql
+     * @param params
+     * @return
+     * @throws KettleException
+     */
+    private synchronized List<Object[]> queryRows(String sql, RowMetaAndData params) throws KettleException {
+	ResultSet resultSet = null;
+	connect();
+	try {
+	    PreparedStatement ps = database.prepareSQL(sql);
+	    resultSet = database.openQuery(ps, params.getRowMeta(), params.getData());
+	    List<Object[]> results = database.getRows(resultSet, -1, null);
+	    return results == null ? new ArrayList<Object[]>(0) : results;
+	} finally {
+	    if (resultSet != null) {
+		try {
+		    database.closeQuery(resultSet);
+		} catch (Exception ex) {
+		}
+	    }
+	    closeConnect();
+	}
+    }
+
+    /**
+     * 带参数的更新
+     * 
+     * @param sql
+     * @param params
+     * @return 更新的行数
+     * @throws KettleException
+     */
+    private synchronized int executeUpdate(String sql, RowMetaAndData params) throws KettleException {
+	connect();
+	try {
+	    PreparedStatement ps = database.prepareSQL(sql);
+	    database.setValues(params, ps);
+	    return ps.executeUpdate();
+	} catch (SQLException e) {
+	    throw new KettleException("Unable to perform update with SQL: " + sql, e);
+	} finally {
+	    closeConnect();
+	}
+    }
+
+    /**
+     * 带参数的批量更新,同一事务
+     * 
+     * @param sql
+     * @param paramsList
+     * @return 每行更新的行数,驱动无法给出时为Statement.SUCCESS_NO_INFO
+     * @throws KettleException
+     */
+    private synchronized int[] executeBatch(String sql, List<RowMetaAndData> paramsList) throws KettleException {
+	int[] counts = new int[paramsList.size()];
+	connect();
+	try {
+	    database.setAutoCommit(false);
+	    PreparedStatement ps = database.prepareSQL(sql);
+	    try {
+		int from = 0;
+		int[] part;
+		for (int i = 0, size = paramsList.size(); i < size; i++) {
+		    database.setValues(paramsList.get(i), ps);
+		    ps.addBatch();
+		    if (i % BATCH_SIZE == BATCH_SIZE - 1 || i == size - 1) {
+			part = ps.executeBatch();
+			System.arraycopy(part, 0, counts, from, Math.min(part.length, counts.length - from));
+			from = i + 1;
+		    }
+		}
+	    } finally {
+		ps.close();
+	    }
+	    database.commit(true);
+	    return counts;
+	} catch (SQLException e) {
+	    rollbackNE();
+	    throw new KettleException("Unable to perform batch update with SQL: " + sql, e);
+	} catch (KettleException e) {
+	    rollbackNE();
+	    throw e;
+	} finally {
+	    closeConnect();
+	}
+    }
+
     /**
      * 删除一条数据
      * 
@@ -303,6 +482,35 @@ public class KettleDBClient {
 	}
     }
 
+    /**
+     * RECORD_SELECT查询的一行转为Record
+     * 
+     * @param record
+     * @return
+     */
+    private KettleRecord toRecord(Object[] record) {
+	KettleRecord bean = new KettleRecord();
+	bean.setUuid((String) record[0]);
+	bean.setJobid((String) record[1]);
+	bean.setName((String) record[2]);
+	bean.setRunID((String) record[3]);
+	bean.setStatus((String) record[4]);
+	bean.setHostname(record[5] == null ? null : (String) record[5]);
+	bean.setCreateTime((Date) record[6]);
+	bean.setUpdateTime((Date) record[7]);
+	bean.setErrMsg(record[8] == null ? null : (String) record[8]);
+	bean.setCronExpression(record[9] == null ? null : (String) record[9]);
+	bean.setQueueClass(record[10] == null ? null : (String) record[10]);
+	bean.setRetryCount(record[11] == null ? 0 : ((Number) record[11]).intValue());
+	bean.setRetryMax(record[12] == null ? null : ((Number) record[12]).intValue());
+	bean.setIdempotent(record[13] != null && ((Number) record[13]).intValue() == 1);
+	bean.setOwner(record[14] == null ? null : (String) record[14]);
+	bean.setLeaseExpire(record[15] == null ? null : (Date) record[15]);
+	bean.setVersion(record[16] == null ? 0 : ((Number) record[16]).intValue());
+	bean.setScheduleJitter(record[17] == null ? null : ((Number) record[17]).intValue());
+	return bean;
+    }
+
     /**
      * 查询Record记录
      * 
@@ -328,9 +536,36 @@ public class KettleDBClient {
 	job.setCronExpression(table.getString(KettleVariables.R_RECORD_CRON_EXPRESSION, null));
 	job.setCreateTime(table.getDate(KettleVariables.R_RECORD_CREATETIME, null));
 	job.setUpdateTime(table.getDate(KettleVariables.R_RECORD_UPDATETIME, null));
+	job.setQueueClass(table.getString(KettleVariables.R_RECORD_QUEUE_CLASS, null));
+	job.setRetryCount((int) table.getInteger(KettleVariables.R_RECORD_RETRY_COUNT, 0));
+	long retryMax = table.getInteger(KettleVariables.R_RECORD_RETRY_MAX, -1);
+	job.setRetryMax(retryMax < 0 ? null : (int) retryMax);
+	job.setIdempotent(table.getInteger(KettleVariables.R_RECORD_IDEMPOTENT, 0) == 1);
+	job.setOwner(table.getString(KettleVariables.R_RECORD_OWNER, null));
+	job.setLeaseExpire(table.getDate(KettleVariables.R_RECORD_LEASE_EXPIRE, null));
+	job.setVersion((int) table.getInteger(KettleVariables.R_RECORD_VERSION, 0));
+	long scheduleJitter = table.getInteger(KettleVariables.R_RECORD_SCHEDULE_JITTER, -1);
+	job.setScheduleJitter(scheduleJitter < 0 ? null : (int) scheduleJitter);
 	return job;
     }
 
+    /**
+     * 查询不保存到资源库的Record的压缩定义,查询Record时不加载
+     * 
+     * @param uuid
+     * @return
+     * @throws KettleException
+     */
+    public byte[] queryRecordDefinition(String uuid) throws KettleException {
+	String sql = "SELECT " + KettleVariables.R_RECORD_DEFINITION + " FROM " + KettleVariables.R_JOB_RECORD
+		+ " WHERE " + KettleVariables.R_JOB_RECORD_UUID + " = ?";
+	RowMetaAndData table = queryOneRow(sql, ValueMetaInterface.TYPE_STRING, uuid);
+	if (table == null || table.size() < 1) {
+	    return null;
+	}
+	return (byte[]) table.getData()[0];
+    }
+
     /**
      * 查询Record记录
      * 
@@ -360,7 +595,34 @@ public class KettleDBClient {
      * @throws KettleException
      */
     public List<KettleRecord> queryRecords(List<String> uuids) throws KettleException {
-	String[] inStrArr = new String[(uuids.size() / 128) + 1];
+	return queryRecordsIn(uuids, KettleVariables.R_RECORD_CRON_EXPRESSION + " IS NULL");
+    }
+
+    /**
+     * 批量查询定时任务
+     * 
+     * @param uuids
+     * @return
+     * @throws KettleException
+     */
+    public List<KettleRecord> querySchedulerRecords(List<String> uuids) throws KettleException {
+	return queryRecordsIn(uuids, KettleVariables.R_RECORD_CRON_EXPRESSION + " IS NOT NULL");
+    }
+
+    /**
+     * 按UUID分批查询Record
+     * 
+     * @param uuids
+     * @param condition
+     * @return
+     * @throws KettleException
+     */
+    private List<KettleRecord> queryRecordsIn(List<String> uuids, String condition) throws KettleException {
+	List<KettleRecord> kettleRecords = new LinkedList<KettleRecord>();
+	if (uuids.isEmpty()) {
+	    return kettleRecords;
+	}
+	String[] inStrArr = new String[((uuids.size() - 1) / 128) + 1];
 	StringBuffer strBuffer = new StringBuffer();
 	for (int i = 0; i < uuids.size(); i++) {
 	    strBuffer.append(",'").append(uuids.get(i)).append("'");
@@ -371,34 +633,15 @@ public class KettleDBClient {
 	}
 	String sql;
 	List<Object[]> result = null;
-	KettleRecord bean = null;
-	List<KettleRecord> kettleRecords = new LinkedList<KettleRecord>();
 	for (String inStr : inStrArr) {
-	    sql = "SELECT " + KettleVariables.R_JOB_RECORD_UUID + "," + KettleVariables.R_JOB_RECORD_ID_JOB + ","
-		    + KettleVariables.R_JOB_RECORD_NAME_JOB + "," + KettleVariables.R_RECORD_ID_RUN + ","
-		    + KettleVariables.R_RECORD_STATUS + "," + KettleVariables.R_RECORD_HOSTNAME + ","
-		    + KettleVariables.R_RECORD_CREATETIME + "," + KettleVariables.R_RECORD_UPDATETIME + ","
-		    + KettleVariables.R_RECORD_ERRORMSG + "," + KettleVariables.R_RECORD_CRON_EXPRESSION + " FROM "
-		    + KettleVariables.R_JOB_RECORD + " WHERE " + KettleVariables.R_RECORD_CRON_EXPRESSION
-		    + " IS NULL AND " + KettleVariables.R_JOB_RECORD_UUID + " in (" + inStr + ");";
-
+	    sql = RECORD_SELECT + " WHERE " + condition + " AND " + KettleVariables.R_JOB_RECORD_UUID + " in (" + inStr
+		    + ");";
 	    result = queryRows(sql);
 	    if (result == null || result.isEmpty()) {
 		continue;
 	    }
 	    for (Object[] record : result) {
-		bean = new KettleRecord();
-		bean.setUuid((String) record[0]);
-		bean.setJobid((String) record[1]);
-		bean.setName((String) record[2]);
-		bean.setRunID((String) record[3]);
-		bean.setStatus((String) record[4]);
-		bean.setHostname(record[5] == null ? null : (String) record[5]);
-		bean.setCreateTime((Date) record[6]);
-		bean.setUpdateTime((Date) record[7]);
-		bean.setErrMsg(record[8] == null ? null : (String) record[8]);
-		bean.setCronExpression(record[9] == null ? null : (String) record[9]);
-		kettleRecords.add(bean);
+		kettleRecords.add(toRecord(record));
 	    }
 	}
 	return kettleRecords;
@@ -412,8 +655,50 @@ public class KettleDBClient {
      */
     public void insertRecord(KettleRecord record) throws KettleException {
 	Date now = new Date();
+	insertTableRow(KettleVariables.R_JOB_RECORD, recordRow(record, now));
+	insertTableRows(KettleVariables.R_RECORD_DEPENDENT, relationRows(record, now));
+	insertTableRows(KettleVariables.R_RECORD_UPSTREAM, upstreamRows(record, now));
+    }
+
+    /**
+     * 持久化操作:批量Insert工作记录及依赖,同一事务
+     * 
+     * @param records
+     * @throws KettleException
+     */
+    public void insertRecords(List<KettleRecord> records) throws KettleException {
+	if (records == null || records.isEmpty()) {
+	    return;
+	}
+	Date now = new Date();
+	List<RowMetaAndData> recordTables = new ArrayList<RowMetaAndData>(records.size());
+	List<RowMetaAndData> relationTables = new ArrayList<RowMetaAndData>();
+	List<RowMetaAndData> upstreamTables = new ArrayList<RowMetaAndData>();
+	for (KettleRecord record : records) {
+	    recordTables.add(recordRow(record, now));
+	    relationTables.addAll(relationRows(record, now));
+	    upstreamTables.addAll(upstreamRows(record, now));
+	}
+	Map<String, List<RowMetaAndData>> tables = new LinkedHashMap<String, List<RowMetaAndData>>();
+	tables.put(KettleVariables.R_JOB_RECORD, recordTables);
+	tables.put(KettleVariables.R_RECORD_DEPENDENT, relationTables);
+	tables.put(KettleVariables.R_RECORD_UPSTREAM, upstreamTables);
+	insertTablesBatch(tables);
+    }
+
+    /**
+     * 工作记录的一行
+     * 
+     * @param record
+     * @param now
+     * @return
+     */
+    private RowMetaAndData recordRow(KettleRecord record, Date now) throws KettleException {
 	record.setCreateTime(now);
 	record.setUpdateTime(now);
+	record.setOwner(KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	record.setLeaseExpire(leaseExpire());
+	record.setVersion(0);
 	RowMetaAndData table = new RowMetaAndData();
 	table.addValue(new ValueMeta(KettleVariables.R_JOB_RECORD_UUID, ValueMetaInterface.TYPE_STRING),
 		record.getUuid());
@@ -431,14 +716,40 @@ public class KettleDBClient {
 		record.getErrMsg());
 	table.addValue(new ValueMeta(KettleVariables.R_RECORD_CRON_EXPRESSION, ValueMetaInterface.TYPE_STRING),
 		record.getCronExpression());
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_QUEUE_CLASS, ValueMetaInterface.TYPE_STRING),
+		record.getQueueClass());
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_RETRY_COUNT, ValueMetaInterface.TYPE_INTEGER),
+		Long.valueOf(record.getRetryCount()));
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_RETRY_MAX, ValueMetaInterface.TYPE_INTEGER),
+		record.getRetryMax() == null ? null : Long.valueOf(record.getRetryMax()));
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_IDEMPOTENT, ValueMetaInterface.TYPE_INTEGER),
+		Long.valueOf(record.isIdempotent() ? 1 : 0));
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_OWNER, ValueMetaInterface.TYPE_STRING),
+		record.getOwner());
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_LEASE_EXPIRE, ValueMetaInterface.TYPE_DATE),
+		record.getLeaseExpire());
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		Long.valueOf(record.getVersion()));
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_SCHEDULE_JITTER, ValueMetaInterface.TYPE_INTEGER),
+		record.getScheduleJitter() == null ? null : Long.valueOf(record.getScheduleJitter()));
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_DEFINITION, ValueMetaInterface.TYPE_BINARY),
+		record.getDefinition());
 	table.addValue(new ValueMeta(KettleVariables.R_RECORD_CREATETIME, ValueMetaInterface.TYPE_DATE),
 		record.getCreateTime());
 	table.addValue(new ValueMeta(KettleVariables.R_RECORD_UPDATETIME, ValueMetaInterface.TYPE_DATE),
 		record.getUpdateTime());
-	insertTableRow(KettleVariables.R_JOB_RECORD, table);
-	/*
-	 * 保存依赖
-	 */
+	return table;
+    }
+
+    /**
+     * 依赖的行
+     * 
+     * @param record
+     * @param now
+     * @return
+     */
+    private List<RowMetaAndData> relationRows(KettleRecord record, Date now) {
+	RowMetaAndData table;
 	List<RowMetaAndData> allTables = new ArrayList<RowMetaAndData>(record.getRelations().size());
 	for (KettleRecordRelation relation : record.getRelations()) {
 	    table = new RowMetaAndData();
@@ -452,7 +763,76 @@ public class KettleDBClient {
 	    table.addValue(new ValueMeta(KettleVariables.R_RECORD_CREATETIME, ValueMetaInterface.TYPE_DATE), now);
 	    allTables.add(table);
 	}
-	insertTableRows(KettleVariables.R_RECORD_DEPENDENT, allTables);
+	return allTables;
+    }
+
+    /**
+     * 上游依赖的行
+     * 
+     * @param record
+     * @param now
+     * @return
+     */
+    private List<RowMetaAndData> upstreamRows(KettleRecord record, Date now) {
+	List<RowMetaAndData> allTables = new ArrayList<RowMetaAndData>(record.getUpstreams().size());
+	RowMetaAndData table;
+	for (String upstream : record.getUpstreams()) {
+	    table = new RowMetaAndData();
+	    table.addValue(new ValueMeta(KettleVariables.R_JOB_RECORD_UUID, ValueMetaInterface.TYPE_STRING),
+		    record.getUuid());
+	    table.addValue(new ValueMeta(KettleVariables.R_RECORD_UPSTREAM_UUID, ValueMetaInterface.TYPE_STRING),
+		    upstream);
+	    table.addValue(new ValueMeta(KettleVariables.R_RECORD_CREATETIME, ValueMetaInterface.TYPE_DATE), now);
+	    allTables.add(table);
+	}
+	return allTables;
+    }
+
+    /**
+     * 查询Record的上游
+     * 
+     * @param record
+     * @return
+     * @throws KettleException
+     */
+    public KettleRecord queryRecordUpstreams(KettleRecord record) throws KettleException {
+	String sql = "SELECT * FROM " + KettleVariables.R_RECORD_UPSTREAM + " WHERE "
+		+ KettleVariables.R_JOB_RECORD_UUID + " = ?";
+	List<RowMetaAndData> upstreams = queryRows(sql, ValueMetaInterface.TYPE_STRING, record.getUuid());
+	String upstream;
+	for (RowMetaAndData row : upstreams) {
+	    upstream = row.getString(KettleVariables.R_RECORD_UPSTREAM_UUID, null);
+	    if (upstream != null) {
+		record.getUpstreams().add(upstream);
+	    }
+	}
+	return record;
+    }
+
+    /**
+     * 所有Record的上游
+     * 
+     * @return UUID到上游UUID
+     * @throws KettleException
+     */
+    public Map<String, List<String>> allRecordUpstreams() throws KettleException {
+	String sql = "SELECT " + KettleVariables.R_JOB_RECORD_UUID + "," + KettleVariables.R_RECORD_UPSTREAM_UUID
+		+ " FROM " + KettleVariables.R_RECORD_UPSTREAM;
+	List<Object[]> result = queryRows(sql);
+	Map<String, List<String>> upstreams = new HashMap<String, List<String>>();
+	if (result == null) {
+	    return upstreams;
+	}
+	List<String> list;
+	for (Object[] row : result) {
+	    list = upstreams.get((String) row[0]);
+	    if (list == null) {
+		list = new ArrayList<String>();
+		upstreams.put((String) row[0], list);
+	    }
+	    list.add((String) row[1]);
+	}
+	return upstreams;
     }
 
     /**
@@ -463,27 +843,37 @@ public class KettleDBClient {
      */
     private void insertHistory(KettleRecord record) throws KettleException {
 	if (record.isFinished() || record.isError()) {
-	    RowMetaAndData table = new RowMetaAndData();
-	    table.addValue(new ValueMeta(KettleVariables.R_JOB_RECORD_UUID, ValueMetaInterface.TYPE_STRING),
-		    record.getUuid());
-	    table.addValue(new ValueMeta(KettleVariables.R_HISTORY_RECORD_ID, ValueMetaInterface.TYPE_STRING),
-		    record.getJobid());
-	    table.addValue(new ValueMeta(KettleVariables.R_HISTORY_RECORD_NAME, ValueMetaInterface.TYPE_STRING),
-		    record.getName());
-	    table.addValue(new ValueMeta(KettleVariables.R_RECORD_ID_RUN, ValueMetaInterface.TYPE_STRING),
-		    record.getRunID());
-	    table.addValue(new ValueMeta(KettleVariables.R_RECORD_STATUS, ValueMetaInterface.TYPE_STRING),
-		    record.getStatus());
-	    table.addValue(new ValueMeta(KettleVariables.R_RECORD_HOSTNAME, ValueMetaInterface.TYPE_STRING),
-		    record.getHostname());
-	    table.addValue(new ValueMeta(KettleVariables.R_RECORD_ERRORMSG, ValueMetaInterface.TYPE_STRING),
-		    record.getErrMsg());
-	    table.addValue(new ValueMeta(KettleVariables.R_RECORD_CREATETIME, ValueMetaInterface.TYPE_DATE),
-		    new Date());
-	    insertTableRow(KettleVariables.R_HISTORY_RECORD, table);
+	    insertTableRow(KettleVariables.R_HISTORY_RECORD, historyRow(record, new Date()));
 	}
     }
 
+    /**
+     * 历史的行
+     * 
+     * @param record
+     * @param now
+     * @return
+     */
+    private RowMetaAndData historyRow(KettleRecord record, Date now) {
+	RowMetaAndData table = new RowMetaAndData();
+	table.addValue(new ValueMeta(KettleVariables.R_JOB_RECORD_UUID, ValueMetaInterface.TYPE_STRING),
+		record.getUuid());
+	table.addValue(new ValueMeta(KettleVariables.R_HISTORY_RECORD_ID, ValueMetaInterface.TYPE_STRING),
+		record.getJobid());
+	table.addValue(new ValueMeta(KettleVariables.R_HISTORY_RECORD_NAME, ValueMetaInterface.TYPE_STRING),
+		record.getName());
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_ID_RUN, ValueMetaInterface.TYPE_STRING),
+		record.getRunID());
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_STATUS, ValueMetaInterface.TYPE_STRING),
+		record.getStatus());
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_HOSTNAME, ValueMetaInterface.TYPE_STRING),
+		record.getHostname());
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_ERRORMSG, ValueMetaInterface.TYPE_STRING),
+		record.getErrMsg());
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_CREATETIME, ValueMetaInterface.TYPE_DATE), now);
+	return table;
+    }
+
     /**
      * 更新工作
      * 
@@ -514,12 +904,19 @@ public class KettleDBClient {
     }
 
     /**
-     * 更新工作
+     * 更新状态,以本节点持有且版本未变化为条件;条件不满足时Record已被其他节点接管
      * 
      * @param record
+     * @throws KettleRecordLeaseLostException
+     *             本节点已失去该Record
      * @throws KettleException
      */
     public void updateRecordStatus(KettleRecord record) throws KettleException {
+	String sql = "UPDATE " + KettleVariables.R_JOB_RECORD + " SET " + KettleVariables.R_RECORD_STATUS + " = ?, "
+		+ KettleVariables.R_RECORD_ID_RUN + " = ?, " + KettleVariables.R_RECORD_HOSTNAME + " = ?, "
+		+ KettleVariables.R_RECORD_ERRORMSG + " = ?, " + KettleVariables.R_RECORD_RETRY_COUNT + " = ?, "
+		+ KettleVariables.R_RECORD_UPDATETIME + " = ? WHERE " + KettleVariables.R_JOB_RECORD_UUID + " = ? AND "
+		+ KettleVariables.R_RECORD_OWNER + " = ? AND " + KettleVariables.R_RECORD_VERSION + " = ?";
 	RowMetaAndData table = new RowMetaAndData();
 	record.setUpdateTime(new Date());
 	table.addValue(new ValueMeta(KettleVariables.R_RECORD_STATUS, ValueMetaInterface.TYPE_STRING),
@@ -530,14 +927,18 @@ public class KettleDBClient {
 		record.getHostname());
 	table.addValue(new ValueMeta(KettleVariables.R_RECORD_ERRORMSG, ValueMetaInterface.TYPE_STRING),
 		record.getErrMsg());
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_RETRY_COUNT, ValueMetaInterface.TYPE_INTEGER),
+		Long.valueOf(record.getRetryCount()));
 	table.addValue(new ValueMeta(KettleVariables.R_RECORD_UPDATETIME, ValueMetaInterface.TYPE_DATE),
 		record.getUpdateTime());
 	table.addValue(new ValueMeta(KettleVariables.R_JOB_RECORD_UUID, ValueMetaInterface.TYPE_STRING),
 		record.getUuid());
-	String[] sets = new String[table.size()];
-	for (int i = 0; i < table.size(); i++) {
-	    sets[i] = table.getValueMeta(i).getName();
-	    updateTableRow(KettleVariables.R_JOB_RECORD, table, KettleVariables.R_JOB_RECORD_UUID);
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_OWNER, ValueMetaInterface.TYPE_STRING),
+		KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		Long.valueOf(record.getVersion()));
+	if (executeUpdate(sql, table) == 0) {
+	    throw new KettleRecordLeaseLostException(record.getUuid());
 	}
 	insertHistory(record);
     }
@@ -590,8 +991,11 @@ public class KettleDBClient {
 		+ " = ? ";
 	String sql1 = "DELETE FROM " + KettleVariables.R_RECORD_DEPENDENT + " WHERE "
 		+ KettleVariables.R_RECORD_DEPENDENT_MASTER_UUID_ID + " = ? ";
+	String sql2 = "DELETE FROM " + KettleVariables.R_RECORD_UPSTREAM + " WHERE " + KettleVariables.R_JOB_RECORD_UUID
+		+ " = ? ";
 	deleteTableRow(sql0, ValueMetaInterface.TYPE_STRING, uuid);
 	deleteTableRow(sql1, ValueMetaInterface.TYPE_STRING, uuid);
+	deleteTableRow(sql2, ValueMetaInterface.TYPE_STRING, uuid);
     }
 
     /**
@@ -615,32 +1019,15 @@ public class KettleDBClient {
      * @throws KettleException
      */
     public List<KettleRecord> allSchedulerRecord() throws KettleException {
-	String sql = "SELECT " + KettleVariables.R_JOB_RECORD_UUID + "," + KettleVariables.R_JOB_RECORD_ID_JOB + ","
-		+ KettleVariables.R_JOB_RECORD_NAME_JOB + "," + KettleVariables.R_RECORD_ID_RUN + ","
-		+ KettleVariables.R_RECORD_STATUS + "," + KettleVariables.R_RECORD_HOSTNAME + ","
-		+ KettleVariables.R_RECORD_CREATETIME + "," + KettleVariables.R_RECORD_UPDATETIME + ","
-		+ KettleVariables.R_RECORD_ERRORMSG + "," + KettleVariables.R_RECORD_CRON_EXPRESSION + " FROM "
-		+ KettleVariables.R_JOB_RECORD + " WHERE " + KettleVariables.R_RECORD_CRON_EXPRESSION + " IS NOT NULL";
+	String sql = RECORD_SELECT + " WHERE " + KettleVariables.R_RECORD_CRON_EXPRESSION + " IS NOT NULL";
 	List<Object[]> result = null;
 	result = queryRows(sql);
 	List<KettleRecord> kettleJobBeans = new LinkedList<KettleRecord>();
 	if (result == null || result.isEmpty()) {
 	    return kettleJobBeans;
 	}
-	KettleRecord bean = null;
 	for (Object[] record : result) {
-	    bean = new KettleRecord();
-	    bean.setUuid((String) record[0]);
-	    bean.setJobid((String) record[1]);
-	    bean.setName((String) record[2]);
-	    bean.setRunID((String) record[3]);
-	    bean.setStatus((String) record[4]);
-	    bean.setHostname(record[5] == null ? null : (String) record[5]);
-	    bean.setCreateTime((Date) record[6]);
-	    bean.setUpdateTime((Date) record[7]);
-	    bean.setErrMsg(record[8] == null ? null : (String) record[8]);
-	    bean.setCronExpression(record[9] == null ? null : (String) record[9]);
-	    kettleJobBeans.add(bean);
+	    kettleJobBeans.add(toRecord(record));
 	}
 	return kettleJobBeans;
     }
@@ -652,12 +1039,7 @@ public class KettleDBClient {
      * @throws KettleException
      */
     public List<KettleRecord> allHandleRecord() throws KettleException {
-	String sql = "SELECT " + KettleVariables.R_JOB_RECORD_UUID + "," + KettleVariables.R_JOB_RECORD_ID_JOB + ","
-		+ KettleVariables.R_JOB_RECORD_NAME_JOB + "," + KettleVariables.R_RECORD_ID_RUN + ","
-		+ KettleVariables.R_RECORD_STATUS + "," + KettleVariables.R_RECORD_HOSTNAME + ","
-		+ KettleVariables.R_RECORD_CREATETIME + "," + KettleVariables.R_RECORD_UPDATETIME + ","
-		+ KettleVariables.R_RECORD_ERRORMSG + "," + KettleVariables.R_RECORD_CRON_EXPRESSION + " FROM "
-		+ KettleVariables.R_JOB_RECORD + " WHERE " + KettleVariables.R_RECORD_CRON_EXPRESSION + " IS NULL AND "
+	String sql = RECORD_SELECT + " WHERE " + KettleVariables.R_RECORD_CRON_EXPRESSION + " IS NULL AND "
 		+ KettleVariables.R_RECORD_STATUS + " in ('" + KettleVariables.RECORD_STATUS_RUNNING + "', '"
 		+ KettleVariables.RECORD_STATUS_APPLY + "')";
 	List<Object[]> result = null;
@@ -666,24 +1048,393 @@ public class KettleDBClient {
 	if (result == null || result.isEmpty()) {
 	    return kettleJobBeans;
 	}
-	KettleRecord bean = null;
 	for (Object[] record : result) {
-	    bean = new KettleRecord();
-	    bean.setUuid((String) record[0]);
-	    bean.setJobid((String) record[1]);
-	    bean.setName((String) record[2]);
-	    bean.setRunID((String) record[3]);
-	    bean.setStatus((String) record[4]);
-	    bean.setHostname(record[5] == null ? null : (String) record[5]);
-	    bean.setCreateTime((Date) record[6]);
-	    bean.setUpdateTime((Date) record[7]);
-	    bean.setErrMsg(record[8] == null ? null : (String) record[8]);
-	    bean.setCronExpression(record[9] == null ? null : (String) record[9]);
-	    kettleJobBeans.add(bean);
+	    kettleJobBeans.add(toRecord(record));
 	}
 	return kettleJobBeans;
     }
 
+    /**
+     * 按数据库的CURRENT_TIMESTAMP校准本地与数据库的时间差,续约时调用
+     * 
+     * @throws KettleException
+     */
+    public void syncClock() throws KettleException {
+	long before = System.currentTimeMillis();
+	List<Object[]> rows = queryRows("SELECT CURRENT_TIMESTAMP FROM DUAL");
+	long after = System.currentTimeMillis();
+	if (rows.isEmpty() || !(rows.get(0)[0] instanceof Date)) {
+	    throw new KettleException("无法获取KettleRecordDB的当前时间!");
+	}
+	clockOffset = ((Date) rows.get(0)[0]).getTime() - (before + after) / 2;
+	clockSynced = true;
+    }
+
+    /**
+     * 数据库的当前时间
+     * 
+     * @return
+     * @throws KettleException
+     */
+    private Date dbNow() throws KettleException {
+	if (!clockSynced) {
+	    syncClock();
+	}
+	return new Date(System.currentTimeMillis() + clockOffset);
+    }
+
+    /**
+     * 按数据库时间计算的租约到期时间
+     * 
+     * @return
+     * @throws KettleException
+     */
+    private Date leaseExpire() throws KettleException {
+	return new Date(dbNow().getTime() + KettleMgrEnvironment.KETTLE_MGR_LEASE_SECONDS * 1000L);
+    }
+
+    /**
+     * 认领Record:版本未变化时写入本节点与新的租约,版本加1;多个节点同时认领时只有一个成功
+     * 
+     * @param record
+     * @return 是否认领成功,失败时Record已被其他节点认领或修改
+     * @throws KettleException
+     */
+    public boolean claimRecord(KettleRecord record) throws KettleException {
+	Date leaseExpire = leaseExpire();
+	int version = record.getVersion() + 1;
+	String sql = "UPDATE " + KettleVariables.R_JOB_RECORD + " SET " + KettleVariables.R_RECORD_OWNER + " = ?, "
+		+ KettleVariables.R_RECORD_LEASE_EXPIRE + " = ?, " + KettleVariables.R_RECORD_VERSION + " = ? WHERE "
+		+ KettleVariables.R_JOB_RECORD_UUID + " = ? AND " + KettleVariables.R_RECORD_VERSION + " = ?";
+	RowMetaAndData params = new RowMetaAndData();
+	params.addValue(new ValueMeta(KettleVariables.R_RECORD_OWNER, ValueMetaInterface.TYPE_STRING),
+		KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	params.addValue(new ValueMeta(KettleVariables.R_RECORD_LEASE_EXPIRE, ValueMetaInterface.TYPE_DATE),
+		leaseExpire);
+	params.addValue(new ValueMeta(KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		Long.valueOf(version));
+	params.addValue(new ValueMeta(KettleVariables.R_JOB_RECORD_UUID, ValueMetaInterface.TYPE_STRING),
+		record.getUuid());
+	params.addValue(new ValueMeta("OLD_" + KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		Long.valueOf(record.getVersion()));
+	if (executeUpdate(sql, params) != 1) {
+	    return false;
+	}
+	record.setOwner(KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	record.setLeaseExpire(leaseExpire);
+	record.setVersion(version);
+	return true;
+    }
+
+    /**
+     * 批量认领定时任务的本次触发并置为申请状态,版本已变化的Record被其他节点触发,不在返回中
+     * 
+     * @param records
+     *            querySchedulerRecords查询到的Record
+     * @return 认领成功的Record
+     * @throws KettleException
+     */
+    public List<KettleRecord> applySchedulerRecords(List<KettleRecord> records) throws KettleException {
+	List<KettleRecord> applies = new ArrayList<KettleRecord>(records.size());
+	if (records.isEmpty()) {
+	    return applies;
+	}
+	Date now = new Date();
+	Date leaseExpire = leaseExpire();
+	String sql = "UPDATE " + KettleVariables.R_JOB_RECORD + " SET " + KettleVariables.R_RECORD_STATUS + " = ?, "
+		+ KettleVariables.R_RECORD_HOSTNAME + " = NULL, " + KettleVariables.R_RECORD_RETRY_COUNT + " = 0, "
+		+ KettleVariables.R_RECORD_OWNER + " = ?, " + KettleVariables.R_RECORD_LEASE_EXPIRE + " = ?, "
+		+ KettleVariables.R_RECORD_VERSION + " = ?, " + KettleVariables.R_RECORD_UPDATETIME + " = ? WHERE "
+		+ KettleVariables.R_JOB_RECORD_UUID + " = ? AND " + KettleVariables.R_RECORD_VERSION + " = ?";
+	List<RowMetaAndData> paramsList = new ArrayList<RowMetaAndData>(records.size());
+	RowMetaAndData params;
+	for (KettleRecord record : records) {
+	    params = new RowMetaAndData();
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_STATUS, ValueMetaInterface.TYPE_STRING),
+		    KettleVariables.RECORD_STATUS_APPLY);
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_OWNER, ValueMetaInterface.TYPE_STRING),
+		    KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_LEASE_EXPIRE, ValueMetaInterface.TYPE_DATE),
+		    leaseExpire);
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		    Long.valueOf(record.getVersion() + 1));
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_UPDATETIME, ValueMetaInterface.TYPE_DATE), now);
+	    params.addValue(new ValueMeta(KettleVariables.R_JOB_RECORD_UUID, ValueMetaInterface.TYPE_STRING),
+		    record.getUuid());
+	    params.addValue(new ValueMeta("OLD_" + KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		    Long.valueOf(record.getVersion()));
+	    paramsList.add(params);
+	}
+	int[] counts = executeBatch(sql, paramsList);
+	Map<String, KettleRecord> unknowns = new HashMap<String, KettleRecord>();
+	KettleRecord record;
+	for (int i = 0; i < counts.length; i++) {
+	    record = records.get(i);
+	    record.setVersion(record.getVersion() + 1);
+	    if (counts[i] == 1) {
+		applies.add(record);
+	    } else if (counts[i] == Statement.SUCCESS_NO_INFO) {
+		unknowns.put(record.getUuid(), record);
+	    }
+	}
+	// 驱动未返回每行的更新数时,按版本与持有节点确认
+	if (!unknowns.isEmpty()) {
+	    for (KettleRecord current : querySchedulerRecords(new ArrayList<String>(unknowns.keySet()))) {
+		record = unknowns.get(current.getUuid());
+		if (record != null && current.getVersion() == record.getVersion()
+			&& KettleMgrEnvironment.KETTLE_MGR_NODE_ID.equals(current.getOwner())) {
+		    applies.add(record);
+		}
+	    }
+	}
+	for (KettleRecord apply : applies) {
+	    apply.setStatus(KettleVariables.RECORD_STATUS_APPLY);
+	    apply.setHostname(null);
+	    apply.setRetryCount(0);
+	    apply.setOwner(KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	    apply.setLeaseExpire(leaseExpire);
+	    apply.setUpdateTime(now);
+	}
+	return applies;
+    }
+
+    /**
+     * 批量认领Record,版本已变化的Record被其他节点认领,不在返回中
+     * 
+     * @param records
+     * @return 认领成功的Record
+     * @throws KettleException
+     */
+    public List<KettleRecord> claimRecords(List<KettleRecord> records) throws KettleException {
+	List<KettleRecord> claims = new ArrayList<KettleRecord>(records.size());
+	if (records.isEmpty()) {
+	    return claims;
+	}
+	Date leaseExpire = leaseExpire();
+	String sql = "UPDATE " + KettleVariables.R_JOB_RECORD + " SET " + KettleVariables.R_RECORD_OWNER + " = ?, "
+		+ KettleVariables.R_RECORD_LEASE_EXPIRE + " = ?, " + KettleVariables.R_RECORD_VERSION + " = ? WHERE "
+		+ KettleVariables.R_JOB_RECORD_UUID + " = ? AND " + KettleVariables.R_RECORD_VERSION + " = ?";
+	List<RowMetaAndData> paramsList = new ArrayList<RowMetaAndData>(records.size());
+	RowMetaAndData params;
+	for (KettleRecord record : records) {
+	    params = new RowMetaAndData();
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_OWNER, ValueMetaInterface.TYPE_STRING),
+		    KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_LEASE_EXPIRE, ValueMetaInterface.TYPE_DATE),
+		    leaseExpire);
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		    Long.valueOf(record.getVersion() + 1));
+	    params.addValue(new ValueMeta(KettleVariables.R_JOB_RECORD_UUID, ValueMetaInterface.TYPE_STRING),
+		    record.getUuid());
+	    params.addValue(new ValueMeta("OLD_" + KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		    Long.valueOf(record.getVersion()));
+	    paramsList.add(params);
+	}
+	int[] counts = executeBatch(sql, paramsList);
+	Map<String, KettleRecord> unknowns = new HashMap<String, KettleRecord>();
+	KettleRecord record;
+	for (int i = 0; i < counts.length; i++) {
+	    record = records.get(i);
+	    record.setVersion(record.getVersion() + 1);
+	    if (counts[i] == 1) {
+		claims.add(record);
+	    } else if (counts[i] == Statement.SUCCESS_NO_INFO) {
+		unknowns.put(record.getUuid(), record);
+	    }
+	}
+	// 驱动未返回每行的更新数时,按版本与持有节点确认
+	if (!unknowns.isEmpty()) {
+	    for (KettleRecord current : queryRecords(new ArrayList<String>(unknowns.keySet()))) {
+		record = unknowns.get(current.getUuid());
+		if (record != null && current.getVersion() == record.getVersion()
+			&& KettleMgrEnvironment.KETTLE_MGR_NODE_ID.equals(current.getOwner())) {
+		    claims.add(record);
+		}
+	    }
+	}
+	for (KettleRecord claim : claims) {
+	    claim.setOwner(KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	    claim.setLeaseExpire(leaseExpire);
+	}
+	return claims;
+    }
+
+    /**
+     * 批量更新Record的状态,结束的Record同时批量保存历史;与updateRecordStatus相同,以本节点持有且版本未变化为条件
+     * 
+     * @param records
+     * @return 本节点已失去的Record,未更新
+     * @throws KettleException
+     */
+    public List<KettleRecord> updateRecordsStatus(List<KettleRecord> records) throws KettleException {
+	List<KettleRecord> losts = new ArrayList<KettleRecord>();
+	if (records.isEmpty()) {
+	    return losts;
+	}
+	Date now = new Date();
+	String sql = "UPDATE " + KettleVariables.R_JOB_RECORD + " SET " + KettleVariables.R_RECORD_STATUS + " = ?, "
+		+ KettleVariables.R_RECORD_ERRORMSG + " = ?, " + KettleVariables.R_RECORD_UPDATETIME + " = ? WHERE "
+		+ KettleVariables.R_JOB_RECORD_UUID + " = ? AND " + KettleVariables.R_RECORD_OWNER + " = ? AND "
+		+ KettleVariables.R_RECORD_VERSION + " = ?";
+	List<RowMetaAndData> paramsList = new ArrayList<RowMetaAndData>(records.size());
+	List<RowMetaAndData> histories = new ArrayList<RowMetaAndData>(records.size());
+	RowMetaAndData params;
+	for (KettleRecord record : records) {
+	    record.setUpdateTime(now);
+	    params = new RowMetaAndData();
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_STATUS, ValueMetaInterface.TYPE_STRING),
+		    record.getStatus());
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_ERRORMSG, ValueMetaInterface.TYPE_STRING),
+		    record.getErrMsg());
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_UPDATETIME, ValueMetaInterface.TYPE_DATE), now);
+	    params.addValue(new ValueMeta(KettleVariables.R_JOB_RECORD_UUID, ValueMetaInterface.TYPE_STRING),
+		    record.getUuid());
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_OWNER, ValueMetaInterface.TYPE_STRING),
+		    KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		    Long.valueOf(record.getVersion()));
+	    paramsList.add(params);
+	}
+	int[] counts = executeBatch(sql, paramsList);
+	KettleRecord record;
+	for (int i = 0; i < counts.length; i++) {
+	    record = records.get(i);
+	    if (counts[i] == 0) {
+		losts.add(record);
+	    } else if (record.isFinished() || record.isError()) {
+		histories.add(historyRow(record, now));
+	    }
+	}
+	if (!histories.isEmpty()) {
+	    Map<String, List<RowMetaAndData>> tables = new LinkedHashMap<String, List<RowMetaAndData>>();
+	    tables.put(KettleVariables.R_HISTORY_RECORD, histories);
+	    insertTablesBatch(tables);
+	}
+	return losts;
+    }
+
+    /**
+     * 发送前确认并续约本节点对Record的持有:持有节点与版本均未变化时续约并将版本加1,
+     * 此后其他节点即使曾读取到该Record也无法再认领成功
+     * 
+     * @param record
+     * @return 是否仍持有,false时Record已被其他节点接管
+     * @throws KettleException
+     */
+    public boolean fenceRecord(KettleRecord record) throws KettleException {
+	Date leaseExpire = leaseExpire();
+	int version = record.getVersion() + 1;
+	String sql = "UPDATE " + KettleVariables.R_JOB_RECORD + " SET " + KettleVariables.R_RECORD_LEASE_EXPIRE
+		+ " = ?, " + KettleVariables.R_RECORD_VERSION + " = ? WHERE " + KettleVariables.R_JOB_RECORD_UUID
+		+ " = ? AND " + KettleVariables.R_RECORD_OWNER + " = ? AND " + KettleVariables.R_RECORD_VERSION + " = ?";
+	RowMetaAndData params = new RowMetaAndData();
+	params.addValue(new ValueMeta(KettleVariables.R_RECORD_LEASE_EXPIRE, ValueMetaInterface.TYPE_DATE),
+		leaseExpire);
+	params.addValue(new ValueMeta(KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		Long.valueOf(version));
+	params.addValue(new ValueMeta(KettleVariables.R_JOB_RECORD_UUID, ValueMetaInterface.TYPE_STRING),
+		record.getUuid());
+	params.addValue(new ValueMeta(KettleVariables.R_RECORD_OWNER, ValueMetaInterface.TYPE_STRING),
+		KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	params.addValue(new ValueMeta("OLD_" + KettleVariables.R_RECORD_VERSION, ValueMetaInterface.TYPE_INTEGER),
+		Long.valueOf(record.getVersion()));
+	if (executeUpdate(sql, params) != 1) {
+	    return false;
+	}
+	record.setLeaseExpire(leaseExpire);
+	record.setVersion(version);
+	return true;
+    }
+
+    /**
+     * 续约本节点持有的所有处理中的Record
+     * 
+     * @return 续约的数量
+     * @throws KettleException
+     */
+    public int renewLeases() throws KettleException {
+	String sql = "UPDATE " + KettleVariables.R_JOB_RECORD + " SET " + KettleVariables.R_RECORD_LEASE_EXPIRE
+		+ " = ? WHERE " + KettleVariables.R_RECORD_OWNER + " = ? AND " + KettleVariables.R_RECORD_STATUS
+		+ " in ('" + KettleVariables.RECORD_STATUS_RUNNING + "', '" + KettleVariables.RECORD_STATUS_APPLY + "')";
+	RowMetaAndData params = new RowMetaAndData();
+	params.addValue(new ValueMeta(KettleVariables.R_RECORD_LEASE_EXPIRE, ValueMetaInterface.TYPE_DATE),
+		leaseExpire());
+	params.addValue(new ValueMeta(KettleVariables.R_RECORD_OWNER, ValueMetaInterface.TYPE_STRING),
+		KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	return executeUpdate(sql, params);
+    }
+
+    /**
+     * 获取可认领的需处理Record:无持有节点或租约已过期,过期按数据库的CURRENT_TIMESTAMP判断;
+     * 包含定时任务,持有节点停机时其本次触发的Record同样需要接管,否则定时任务不再触发
+     * 
+     * @param includeSelf
+     *            是否包含本节点持有的Record,节点重启时需要接管自己的Record
+     * @return
+     * @throws KettleException
+     */
+    public List<KettleRecord> claimableHandleRecords(boolean includeSelf) throws KettleException {
+	String sql = RECORD_SELECT + " WHERE " + KettleVariables.R_RECORD_STATUS + " in ('"
+		+ KettleVariables.RECORD_STATUS_RUNNING + "', '" + KettleVariables.RECORD_STATUS_APPLY + "') AND ("
+		+ KettleVariables.R_RECORD_OWNER + " IS NULL OR " + KettleVariables.R_RECORD_LEASE_EXPIRE
+		+ " < CURRENT_TIMESTAMP";
+	RowMetaAndData params = new RowMetaAndData();
+	if (includeSelf) {
+	    sql += " OR " + KettleVariables.R_RECORD_OWNER + " = ?";
+	    params.addValue(new ValueMeta(KettleVariables.R_RECORD_OWNER, ValueMetaInterface.TYPE_STRING),
+		    KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	}
+	sql += ")";
+	List<KettleRecord> kettleJobBeans = new LinkedList<KettleRecord>();
+	for (Object[] record : queryRows(sql, params)) {
+	    kettleJobBeans.add(toRecord(record));
+	}
+	return kettleJobBeans;
+    }
+
+    /**
+     * 本节点的心跳,首次心跳时登记节点
+     * 
+     * @throws KettleException
+     */
+    public void heartbeatNode() throws KettleException {
+	Date now = dbNow();
+	String sql = "UPDATE " + KettleVariables.R_MGR_NODE + " SET " + KettleVariables.R_MGR_NODE_HEARTBEAT
+		+ " = ? WHERE " + KettleVariables.R_MGR_NODE_ID + " = ?";
+	RowMetaAndData params = new RowMetaAndData();
+	params.addValue(new ValueMeta(KettleVariables.R_MGR_NODE_HEARTBEAT, ValueMetaInterface.TYPE_DATE), now);
+	params.addValue(new ValueMeta(KettleVariables.R_MGR_NODE_ID, ValueMetaInterface.TYPE_STRING),
+		KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	if (executeUpdate(sql, params) > 0) {
+	    return;
+	}
+	RowMetaAndData table = new RowMetaAndData();
+	table.addValue(new ValueMeta(KettleVariables.R_MGR_NODE_ID, ValueMetaInterface.TYPE_STRING),
+		KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+	table.addValue(new ValueMeta(KettleVariables.R_MGR_NODE_HEARTBEAT, ValueMetaInterface.TYPE_DATE), now);
+	table.addValue(new ValueMeta(KettleVariables.R_RECORD_CREATETIME, ValueMetaInterface.TYPE_DATE), now);
+	insertTableRow(KettleVariables.R_MGR_NODE, table);
+    }
+
+    /**
+     * 存活的管理节点:心跳未超过租约时长
+     * 
+     * @return 节点标识
+     * @throws KettleException
+     */
+    public List<String> aliveNodes() throws KettleException {
+	String sql = "SELECT " + KettleVariables.R_MGR_NODE_ID + " FROM " + KettleVariables.R_MGR_NODE + " WHERE "
+		+ KettleVariables.R_MGR_NODE_HEARTBEAT + " >= ?";
+	RowMetaAndData params = new RowMetaAndData();
+	params.addValue(new ValueMeta(KettleVariables.R_MGR_NODE_HEARTBEAT, ValueMetaInterface.TYPE_DATE),
+		new Date(dbNow().getTime() - KettleMgrEnvironment.KETTLE_MGR_LEASE_SECONDS * 1000L));
+	List<String> nodes = new ArrayList<String>();
+	for (Object[] row : queryRows(sql, params)) {
+	    nodes.add((String) row[0]);
+	}
+	return nodes;
+    }
+
     /**
      * 获取所有停止了的Record
      * 
@@ -691,12 +1442,7 @@ public class KettleDBClient {
      * @throws KettleDatabaseException
      */
     public List<KettleRecord> allStopRecord() throws KettleException {
-	String sql = "SELECT " + KettleVariables.R_JOB_RECORD_UUID + "," + KettleVariables.R_JOB_RECORD_ID_JOB + ","
-		+ KettleVariables.R_JOB_RECORD_NAME_JOB + "," + KettleVariables.R_RECORD_ID_RUN + ","
-		+ KettleVariables.R_RECORD_STATUS + "," + KettleVariables.R_RECORD_HOSTNAME + ","
-		+ KettleVariables.R_RECORD_CREATETIME + "," + KettleVariables.R_RECORD_UPDATETIME + ","
-		+ KettleVariables.R_RECORD_ERRORMSG + "," + KettleVariables.R_RECORD_CRON_EXPRESSION + " FROM "
-		+ KettleVariables.R_JOB_RECORD + " WHERE " + KettleVariables.R_RECORD_CRON_EXPRESSION + " IS NULL AND "
+	String sql = RECORD_SELECT + " WHERE " + KettleVariables.R_RECORD_CRON_EXPRESSION + " IS NULL AND "
 		+ KettleVariables.R_RECORD_STATUS + " in ('" + KettleVariables.RECORD_STATUS_FINISHED + "', '"
 		+ KettleVariables.RECORD_STATUS_ERROR + "');";
 	List<Object[]> result = null;
@@ -705,20 +1451,8 @@ public class KettleDBClient {
 	if (result == null || result.isEmpty()) {
 	    return kettleJobBeans;
 	}
-	KettleRecord bean = null;
 	for (Object[] record : result) {
-	    bean = new KettleRecord();
-	    bean.setUuid((String) record[0]);
-	    bean.setJobid((String) record[1]);
-	    bean.setName((String) record[2]);
-	    bean.setRunID((String) record[3]);
-	    bean.setStatus((String) record[4]);
-	    bean.setHostname(record[5] == null ? null : (String) record[5]);
-	    bean.setCreateTime((Date) record[6]);
-	    bean.setUpdateTime((Date) record[7]);
-	    bean.setErrMsg(record[8] == null ? null : (String) record[8]);
-	    bean.setCronExpression(record[9] == null ? null : (String) record[9]);
-	    kettleJobBeans.add(bean);
+	    kettleJobBeans.add(toRecord(record));
 	}
 	return kettleJobBeans;
     }
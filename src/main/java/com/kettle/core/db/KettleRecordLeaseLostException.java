@@ -0,0 +1,28 @@
+package com.kettle.core.db;
+
+import org.pentaho.di.core.exception.KettleException;
+
+/**
+ * 本节点已失去Record的租约(持有节点或版本已变化),不能再更新或发送该Record,应从本地释放
+ * 
+ * @author Administrator
+ *
+ */
+public class KettleRecordLeaseLostException extends KettleException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Record的UUID
+     */
+    private final String uuid;
+
+    public KettleRecordLeaseLostException(String uuid) {
+	super("Record[" + uuid + "]的租约已被其他节点接管或已变更!");
+	this.uuid = uuid;
+    }
+
+    public String getUuid() {
+	return uuid;
+    }
+}
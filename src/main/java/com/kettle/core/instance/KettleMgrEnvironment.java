@@ -1,10 +1,12 @@
 package com.kettle.core.instance;
 
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.util.EnvUtil;
 
 import com.kettle.core.KettleEnvDefault;
 import com.kettle.core.db.KettleDBClient;
 import com.kettle.core.repo.KettleRepositoryClient;
+import com.kettle.record.KettleRecordLogStore;
 import com.kettle.record.pool.KettleRecordPool;
 import com.kettle.remote.KettleRemotePool;
 
@@ -36,6 +38,11 @@ public class KettleMgrEnvironment {
 	 */
 	private KettleDBClient dbClient;
 
+	/**
+	 * Record本地日志
+	 */
+	private KettleRecordLogStore logStore;
+
 	/**
 	 * RecordDB是否使用连接池
 	 */
@@ -78,6 +85,264 @@ public class KettleMgrEnvironment {
 	public static Integer KETTLE_RECORD_RUNNING_TIMEOUT = NVLInt("KETTLE_RECORD_RUNNING_TIMEOUT",
 			KettleEnvDefault.KETTLE_RECORD_RUNNING_TIMEOUT);
 
+	/**
+	 * Record服务模型
+	 */
+	public static String KETTLE_RECORD_SERVICE = NVLStr("KETTLE_RECORD_SERVICE",
+			KettleEnvDefault.KETTLE_RECORD_SERVICE);
+
+	/**
+	 * 事件驱动模型的线程数
+	 */
+	public static int KETTLE_RECORD_EVENT_LOOP_THREADS = NVLInt("KETTLE_RECORD_EVENT_LOOP_THREADS",
+			KettleEnvDefault.KETTLE_RECORD_EVENT_LOOP_THREADS);
+
+	/**
+	 * 全局派发的远端选择策略
+	 */
+	public static String KETTLE_RECORD_DISPATCH_POLICY = NVLStr("KETTLE_RECORD_DISPATCH_POLICY",
+			KettleEnvDefault.KETTLE_RECORD_DISPATCH_POLICY);
+
+	/**
+	 * 任务池队列类别的默认权重
+	 */
+	public static int KETTLE_RECORD_QUEUE_WEIGHT = NVLInt("KETTLE_RECORD_QUEUE_WEIGHT",
+			KettleEnvDefault.KETTLE_RECORD_QUEUE_WEIGHT);
+
+	/**
+	 * 调用方每秒可申请的任务数
+	 */
+	public static double KETTLE_RECORD_ADMIT_RATE = NVLDouble("KETTLE_RECORD_ADMIT_RATE",
+			KettleEnvDefault.KETTLE_RECORD_ADMIT_RATE);
+
+	/**
+	 * 调用方可突发申请的任务数
+	 */
+	public static int KETTLE_RECORD_ADMIT_BURST = NVLInt("KETTLE_RECORD_ADMIT_BURST",
+			KettleEnvDefault.KETTLE_RECORD_ADMIT_BURST);
+
+	/**
+	 * 派发失败的最大重试次数
+	 */
+	public static int KETTLE_RECORD_RETRY_MAX = NVLInt("KETTLE_RECORD_RETRY_MAX",
+			KettleEnvDefault.KETTLE_RECORD_RETRY_MAX);
+
+	/**
+	 * 首次重试的退避时间(毫秒)
+	 */
+	public static int KETTLE_RECORD_RETRY_BACKOFF = NVLInt("KETTLE_RECORD_RETRY_BACKOFF",
+			KettleEnvDefault.KETTLE_RECORD_RETRY_BACKOFF);
+
+	/**
+	 * 重试退避时间的上限(毫秒)
+	 */
+	public static int KETTLE_RECORD_RETRY_BACKOFF_MAX = NVLInt("KETTLE_RECORD_RETRY_BACKOFF_MAX",
+			KettleEnvDefault.KETTLE_RECORD_RETRY_BACKOFF_MAX);
+
+	/**
+	 * 可重试的异常类型
+	 */
+	public static String KETTLE_RECORD_RETRY_EXCEPTIONS = NVLStr("KETTLE_RECORD_RETRY_EXCEPTIONS",
+			KettleEnvDefault.KETTLE_RECORD_RETRY_EXCEPTIONS);
+
+	/**
+	 * 远端失联的宽限期(秒)
+	 */
+	public static int KETTLE_REMOTE_FAILOVER_GRACE = NVLInt("KETTLE_REMOTE_FAILOVER_GRACE",
+			KettleEnvDefault.KETTLE_REMOTE_FAILOVER_GRACE);
+
+	/**
+	 * 远端状态同步的间隔(秒)
+	 */
+	public static int KETTLE_REMOTE_STATUS_SYNC_SECONDS = NVLInt("KETTLE_REMOTE_STATUS_SYNC_SECONDS",
+			KettleEnvDefault.KETTLE_REMOTE_STATUS_SYNC_SECONDS);
+
+	/**
+	 * 单个远端状态同步的期限(毫秒),null时为该远端的连接超时与读取超时之和
+	 */
+	public static Integer KETTLE_REMOTE_PROBE_TIMEOUT = NVLInt("KETTLE_REMOTE_PROBE_TIMEOUT",
+			KettleEnvDefault.KETTLE_REMOTE_PROBE_TIMEOUT);
+
+	/**
+	 * 调用远端的连接超时(毫秒)
+	 */
+	public static int KETTLE_REMOTE_HTTP_CONNECT_TIMEOUT = NVLInt("KETTLE_REMOTE_HTTP_CONNECT_TIMEOUT",
+			KettleEnvDefault.KETTLE_REMOTE_HTTP_CONNECT_TIMEOUT);
+
+	/**
+	 * 调用远端的读取超时(毫秒)
+	 */
+	public static int KETTLE_REMOTE_HTTP_READ_TIMEOUT = NVLInt("KETTLE_REMOTE_HTTP_READ_TIMEOUT",
+			KettleEnvDefault.KETTLE_REMOTE_HTTP_READ_TIMEOUT);
+
+	/**
+	 * 对单个远端同时进行的请求数上限
+	 */
+	public static int KETTLE_REMOTE_HTTP_MAX_IN_FLIGHT = NVLInt("KETTLE_REMOTE_HTTP_MAX_IN_FLIGHT",
+			KettleEnvDefault.KETTLE_REMOTE_HTTP_MAX_IN_FLIGHT);
+
+	/**
+	 * 远端独占派发线程的数量
+	 */
+	public static int KETTLE_REMOTE_BULKHEAD_THREADS = NVLInt("KETTLE_REMOTE_BULKHEAD_THREADS",
+			KettleEnvDefault.KETTLE_REMOTE_BULKHEAD_THREADS);
+
+	/**
+	 * 远端派发队列的上限
+	 */
+	public static int KETTLE_REMOTE_BULKHEAD_QUEUE = NVLInt("KETTLE_REMOTE_BULKHEAD_QUEUE",
+			KettleEnvDefault.KETTLE_REMOTE_BULKHEAD_QUEUE);
+
+	/**
+	 * 远端调用连续失败熔断的次数
+	 */
+	public static int KETTLE_REMOTE_BREAKER_FAILURES = NVLInt("KETTLE_REMOTE_BREAKER_FAILURES",
+			KettleEnvDefault.KETTLE_REMOTE_BREAKER_FAILURES);
+
+	/**
+	 * 熔断后放行试探调用前的等待时间(秒)
+	 */
+	public static int KETTLE_REMOTE_BREAKER_OPEN_SECONDS = NVLInt("KETTLE_REMOTE_BREAKER_OPEN_SECONDS",
+			KettleEnvDefault.KETTLE_REMOTE_BREAKER_OPEN_SECONDS);
+
+	/**
+	 * 试探调用的期限(秒)
+	 */
+	public static int KETTLE_REMOTE_BREAKER_TRIAL_SECONDS = NVLInt("KETTLE_REMOTE_BREAKER_TRIAL_SECONDS",
+			KettleEnvDefault.KETTLE_REMOTE_BREAKER_TRIAL_SECONDS);
+
+	/**
+	 * 故障检测的怀疑度(phi)阈值
+	 */
+	public static double KETTLE_REMOTE_BREAKER_PHI = NVLDouble("KETTLE_REMOTE_BREAKER_PHI",
+			KettleEnvDefault.KETTLE_REMOTE_BREAKER_PHI);
+
+	/**
+	 * 故障检测可接受的额外停顿(毫秒)
+	 */
+	public static int KETTLE_REMOTE_BREAKER_PAUSE = NVLInt("KETTLE_REMOTE_BREAKER_PAUSE",
+			KettleEnvDefault.KETTLE_REMOTE_BREAKER_PAUSE);
+
+	/**
+	 * Record本地日志的目录
+	 */
+	public static String KETTLE_RECORD_LOG_DIR = NVLStr("KETTLE_RECORD_LOG_DIR",
+			KettleEnvDefault.KETTLE_RECORD_LOG_DIR);
+
+	/**
+	 * 单个Record本地日志文件的上限(KB)
+	 */
+	public static int KETTLE_RECORD_LOG_MAX_KB = NVLInt("KETTLE_RECORD_LOG_MAX_KB",
+			KettleEnvDefault.KETTLE_RECORD_LOG_MAX_KB);
+
+	/**
+	 * 运行中Record拉取远端日志增量的间隔(秒)
+	 */
+	public static int KETTLE_RECORD_LOG_SYNC_SECONDS = NVLInt("KETTLE_RECORD_LOG_SYNC_SECONDS",
+			KettleEnvDefault.KETTLE_RECORD_LOG_SYNC_SECONDS);
+
+	/**
+	 * Job发送到远端的方式
+	 */
+	public static String KETTLE_RECORD_SEND_MODE = NVLStr("KETTLE_RECORD_SEND_MODE",
+			KettleEnvDefault.KETTLE_RECORD_SEND_MODE);
+
+	/**
+	 * REFERENCE方式下远端使用的资源库名称
+	 */
+	public static String KETTLE_RECORD_SEND_REPOSITORY = NVLStr("KETTLE_RECORD_SEND_REPOSITORY",
+			KettleEnvDefault.KETTLE_RECORD_SEND_REPOSITORY);
+
+	/**
+	 * REFERENCE方式下远端资源库的用户
+	 */
+	public static String KETTLE_RECORD_SEND_REPOSITORY_USER = NVLStr("KETTLE_RECORD_SEND_REPOSITORY_USER",
+			KettleEnvDefault.KETTLE_RECORD_SEND_REPOSITORY_USER);
+
+	/**
+	 * REFERENCE方式下远端资源库的密码
+	 */
+	public static String KETTLE_RECORD_SEND_REPOSITORY_PASSWORD = NVLStr("KETTLE_RECORD_SEND_REPOSITORY_PASSWORD",
+			KettleEnvDefault.KETTLE_RECORD_SEND_REPOSITORY_PASSWORD);
+
+	/**
+	 * 远端自适应并发上限的最小值
+	 */
+	public static int KETTLE_REMOTE_LIMIT_MIN = NVLInt("KETTLE_REMOTE_LIMIT_MIN",
+			KettleEnvDefault.KETTLE_REMOTE_LIMIT_MIN);
+
+	/**
+	 * 远端自适应并发上限的最大值,null时为该远端的KETTLE_RECORD_MAX_PER_REMOTE
+	 */
+	public static Integer KETTLE_REMOTE_LIMIT_MAX = NVLInt("KETTLE_REMOTE_LIMIT_MAX",
+			KettleEnvDefault.KETTLE_REMOTE_LIMIT_MAX);
+
+	/**
+	 * 并发上限的乘性系数
+	 */
+	public static double KETTLE_REMOTE_LIMIT_BACKOFF = NVLDouble("KETTLE_REMOTE_LIMIT_BACKOFF",
+			KettleEnvDefault.KETTLE_REMOTE_LIMIT_BACKOFF);
+
+	/**
+	 * 远端单核负载的上限
+	 */
+	public static double KETTLE_REMOTE_LIMIT_LOAD_MAX = NVLDouble("KETTLE_REMOTE_LIMIT_LOAD_MAX",
+			KettleEnvDefault.KETTLE_REMOTE_LIMIT_LOAD_MAX);
+
+	/**
+	 * 远端调用时延与基线之比的上限
+	 */
+	public static double KETTLE_REMOTE_LIMIT_LATENCY_RATIO = NVLDouble("KETTLE_REMOTE_LIMIT_LATENCY_RATIO",
+			KettleEnvDefault.KETTLE_REMOTE_LIMIT_LATENCY_RATIO);
+
+	/**
+	 * 管理节点的标识,重启后不变,重启时includeSelf才能接管自己之前持有的Record
+	 */
+	public static String KETTLE_MGR_NODE_ID = NVLStr("KETTLE_MGR_NODE_ID",
+			KettleEnvDefault.KETTLE_MGR_NODE_ID == null ? Const.getHostname() : KettleEnvDefault.KETTLE_MGR_NODE_ID);
+
+	/**
+	 * 节点持有Record的租约时长(秒)
+	 */
+	public static int KETTLE_MGR_LEASE_SECONDS = NVLInt("KETTLE_MGR_LEASE_SECONDS",
+			KettleEnvDefault.KETTLE_MGR_LEASE_SECONDS);
+
+	/**
+	 * 定时任务的触发模式
+	 */
+	public static String KETTLE_RECORD_SCHEDULE_MODE = NVLStr("KETTLE_RECORD_SCHEDULE_MODE",
+			KettleEnvDefault.KETTLE_RECORD_SCHEDULE_MODE);
+
+	/**
+	 * 定时任务触发的默认打散时间(秒)
+	 */
+	public static Integer KETTLE_RECORD_SCHEDULE_JITTER = NVLInt("KETTLE_RECORD_SCHEDULE_JITTER",
+			KettleEnvDefault.KETTLE_RECORD_SCHEDULE_JITTER);
+
+	/**
+	 * 定时任务每秒最多申请的数量
+	 */
+	public static Integer KETTLE_RECORD_SCHEDULE_PACE = NVLInt("KETTLE_RECORD_SCHEDULE_PACE",
+			KettleEnvDefault.KETTLE_RECORD_SCHEDULE_PACE);
+
+	/**
+	 * 定时任务错过触发的处理
+	 */
+	public static String KETTLE_RECORD_SCHEDULE_MISFIRE = NVLStr("KETTLE_RECORD_SCHEDULE_MISFIRE",
+			KettleEnvDefault.KETTLE_RECORD_SCHEDULE_MISFIRE);
+
+	/**
+	 * CATCH_UP时最多补触发的次数
+	 */
+	public static Integer KETTLE_RECORD_SCHEDULE_CATCHUP_MAX = NVLInt("KETTLE_RECORD_SCHEDULE_CATCHUP_MAX",
+			KettleEnvDefault.KETTLE_RECORD_SCHEDULE_CATCHUP_MAX);
+
+	/**
+	 * CATCH_UP时补触发的间隔(秒)
+	 */
+	public static Integer KETTLE_RECORD_SCHEDULE_CATCHUP_INTERVAL = NVLInt("KETTLE_RECORD_SCHEDULE_CATCHUP_INTERVAL",
+			KettleEnvDefault.KETTLE_RECORD_SCHEDULE_CATCHUP_INTERVAL);
+
 	/**
 	 * @param key
 	 * @param defaultVal
@@ -142,6 +407,13 @@ public class KettleMgrEnvironment {
 		return dbClient;
 	}
 
+	/**
+	 * @return
+	 */
+	public KettleRecordLogStore getLogStore() {
+		return logStore;
+	}
+
 	void setRemotePool(KettleRemotePool remotePool) {
 		this.remotePool = remotePool;
 	}
@@ -157,4 +429,8 @@ public class KettleMgrEnvironment {
 	void setDbClient(KettleDBClient dbClient) {
 		this.dbClient = dbClient;
 	}
+
+	void setLogStore(KettleRecordLogStore logStore) {
+		this.logStore = logStore;
+	}
 }
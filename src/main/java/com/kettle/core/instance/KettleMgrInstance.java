@@ -4,7 +4,9 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -20,15 +22,26 @@ import org.pentaho.di.repository.filerep.KettleFileRepositoryMeta;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.kettle.core.KettleVariables;
 import com.kettle.core.bean.KettleJobEntireDefine;
 import com.kettle.core.bean.KettleResult;
 import com.kettle.core.db.KettleDBClient;
 import com.kettle.core.repo.KettleRepositoryClient;
 import com.kettle.record.KettleRecord;
+import com.kettle.record.KettleRecordLogStore;
 import com.kettle.record.pool.KettleRecordPool;
+import com.kettle.record.pool.KettleRecordQueueStat;
 import com.kettle.record.service.RecordService;
+import com.kettle.remote.KettleFailoverEvent;
+import com.kettle.remote.KettleRemoteBulkheadStat;
+import com.kettle.remote.KettleRemoteClient;
+import com.kettle.remote.KettleRemoteLimitChange;
 import com.kettle.remote.KettleRemotePool;
+import com.kettle.remote.KettleRemoteSnapshot;
+import com.kettle.remote.KettleRemoteTransportStat;
+import com.kettle.remote.record.service.RemoteEventLoopRecordService;
 import com.kettle.remote.record.service.RemoteParallelRecordService;
+import com.kettle.remote.record.service.RemoteSerialRecordService;
 
 /**
  * Kettle数据迁移管理者
@@ -62,6 +75,11 @@ public class KettleMgrInstance {
      */
     private ScheduledExecutorService threadPool = Executors.newSingleThreadScheduledExecutor();
 
+    /**
+     * 租约续约线程,与清理任务分开,避免清理耗时导致租约过期
+     */
+    private ScheduledExecutorService leasePool = Executors.newSingleThreadScheduledExecutor();
+
     /**
      * @return
      */
@@ -84,6 +102,8 @@ public class KettleMgrInstance {
 	    int initialDelay = 24 - now.get(Calendar.HOUR_OF_DAY) + 1;
 	    threadPool.scheduleAtFixedRate(new DelAbandonedRecordDaemon(), initialDelay, 24, TimeUnit.HOURS);
 	}
+	long leasePeriod = Math.max(1, KettleMgrEnvironment.KETTLE_MGR_LEASE_SECONDS / 3);
+	leasePool.scheduleAtFixedRate(new LeaseDaemon(), leasePeriod, leasePeriod, TimeUnit.SECONDS);
     }
 
     /**
@@ -126,6 +146,9 @@ public class KettleMgrInstance {
 		databaseMeta.setMaximumPoolSize(KettleMgrEnvironment.KETTLE_RECORD_DB_POOL_MAX);
 	    }
 	    kettleMgrEnvironment.setDbClient(new KettleDBClient(databaseMeta));
+	    // Record本地日志
+	    kettleMgrEnvironment.setLogStore(new KettleRecordLogStore(KettleMgrEnvironment.KETTLE_RECORD_LOG_DIR,
+		    KettleMgrEnvironment.KETTLE_RECORD_LOG_MAX_KB * 1024L));
 	    // 任务池
 	    KettleRecordPool recordPool = new KettleRecordPool();
 	    kettleMgrEnvironment.setRecordPool(recordPool);
@@ -133,8 +156,13 @@ public class KettleMgrInstance {
 	    KettleRemotePool remotePool = new KettleRemotePool(kettleRepositoryClient);
 	    kettleMgrEnvironment.setRemotePool(remotePool);
 	    // 服务
-	    recordService = new RemoteParallelRecordService();
-	    // recordService = new RemoteSerialRecordService();
+	    if ("EVENTLOOP".equalsIgnoreCase(KettleMgrEnvironment.KETTLE_RECORD_SERVICE)) {
+		recordService = new RemoteEventLoopRecordService();
+	    } else if ("SERIAL".equalsIgnoreCase(KettleMgrEnvironment.KETTLE_RECORD_SERVICE)) {
+		recordService = new RemoteSerialRecordService();
+	    } else {
+		recordService = new RemoteParallelRecordService();
+	    }
 	} catch (Exception ex) {
 	    logger.error("KettleMgrInstance初始化失败", ex);
 	    throw new RuntimeException("KettleMgrInstance初始化失败", ex);
@@ -158,6 +186,45 @@ public class KettleMgrInstance {
 	return result;
     }
 
+    /**
+     * 批量注册Job
+     *
+     * @param jobEntires
+     * @return
+     * @throws KettleException
+     */
+    public List<KettleResult> registeJobs(List<KettleJobEntireDefine> jobEntires) throws KettleException {
+	return toResults(recordService.registeJobs(jobEntires));
+    }
+
+    /**
+     * 批量申请执行,全部受理或全部失败
+     * 
+     * @param jobEntires
+     * @return
+     * @throws KettleException
+     */
+    public List<KettleResult> excuteJobsDirectly(List<KettleJobEntireDefine> jobEntires) throws KettleException {
+	return toResults(recordService.excuteJobsDirectly(jobEntires));
+    }
+
+    /**
+     * @param records
+     * @return
+     */
+    private List<KettleResult> toResults(List<KettleRecord> records) {
+	List<KettleResult> results = new ArrayList<KettleResult>(records.size());
+	KettleResult result;
+	for (KettleRecord record : records) {
+	    result = new KettleResult();
+	    result.setUuid(record.getUuid());
+	    result.setStatus(record.getStatus());
+	    result.setErrMsg(record.getErrMsg());
+	    results.add(result);
+	}
+	return results;
+    }
+
     /**
      * 申请执行
      * 
@@ -185,6 +252,57 @@ public class KettleMgrInstance {
 	return result;
     }
 
+    /**
+     * 申请执行,任务池已满或申请过于频繁时等待,超时抛出异常
+     * 
+     * @param jobEntire
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws KettleException
+     */
+    public KettleResult excuteJobDirectly(KettleJobEntireDefine jobEntire, long timeout, TimeUnit unit)
+	    throws KettleException {
+	KettleRecord record = recordService.excuteJobDirectly(jobEntire, timeout, unit);
+	KettleResult result = new KettleResult();
+	result.setUuid(record.getUuid());
+	result.setStatus(record.getStatus());
+	result.setErrMsg(record.getErrMsg());
+	return result;
+    }
+
+    /**
+     * 申请执行,一直等待直到被受理
+     * 
+     * @param jobEntire
+     * @return
+     * @throws KettleException
+     */
+    public KettleResult excuteJobDirectlyBlocking(KettleJobEntireDefine jobEntire) throws KettleException {
+	return excuteJobDirectly(jobEntire, -1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 尝试申请执行,不等待;未被受理时状态为REJECTED,并返回预计等待时间
+     * 
+     * @param jobEntire
+     * @return
+     * @throws KettleException
+     */
+    public KettleResult tryExcuteJobDirectly(KettleJobEntireDefine jobEntire) throws KettleException {
+	KettleRecord record = recordService.tryExcuteJobDirectly(jobEntire);
+	KettleResult result = new KettleResult();
+	if (record == null) {
+	    result.setStatus(KettleVariables.RECORD_STATUS_REJECTED);
+	    result.setEstimatedWait(recordService.estimateWaitMillis(jobEntire.getQueueClass()));
+	    return result;
+	}
+	result.setUuid(record.getUuid());
+	result.setStatus(record.getStatus());
+	result.setErrMsg(record.getErrMsg());
+	return result;
+    }
+
     /**
      * 申请定时任务
      *
@@ -258,6 +376,109 @@ public class KettleMgrInstance {
 	return results;
     }
 
+    /**
+     * 查询任务池各队列类别的排队情况
+     * 
+     * @return
+     */
+    public List<KettleRecordQueueStat> queryQueueStats() {
+	return kettleMgrEnvironment.getRecordPool().getQueueStats();
+    }
+
+    /**
+     * 查询最近的故障转移事件
+     * 
+     * @return
+     */
+    public List<KettleFailoverEvent> queryFailoverEvents() {
+	return kettleMgrEnvironment.getRemotePool().getFailoverEvents();
+    }
+
+    /**
+     * 查询各远端当前的并发上限
+     * 
+     * @return 远端到上限
+     */
+    public Map<String, Integer> queryRemoteLimits() {
+	Map<String, Integer> limits = new HashMap<String, Integer>();
+	for (KettleRemoteClient remoteClient : kettleMgrEnvironment.getRemotePool().getRemoteclients()) {
+	    limits.put(remoteClient.getHostName(), remoteClient.getLimit());
+	}
+	return limits;
+    }
+
+    /**
+     * 查询各远端状态的快照:状态,资源,最近一次状态同步的耗时
+     * 
+     * @return
+     */
+    public List<KettleRemoteSnapshot> queryRemoteSnapshots() {
+	return kettleMgrEnvironment.getRemotePool().getRemoteSnapshots();
+    }
+
+    /**
+     * 查询各远端派发线程的统计:提交,合并,拒绝,排队
+     * 
+     * @return
+     */
+    public List<KettleRemoteBulkheadStat> queryRemoteBulkheads() {
+	List<KettleRemoteBulkheadStat> stats = new ArrayList<KettleRemoteBulkheadStat>();
+	for (KettleRemoteClient remoteClient : kettleMgrEnvironment.getRemotePool().getRemoteclients()) {
+	    stats.add(remoteClient.getBulkhead().getStat());
+	}
+	return stats;
+    }
+
+    /**
+     * 查询各远端熔断器的状态
+     * 
+     * @return 远端到状态:CLOSED,OPEN,HALF_OPEN
+     */
+    public Map<String, String> queryRemoteBreakers() {
+	Map<String, String> breakers = new HashMap<String, String>();
+	for (KettleRemoteClient remoteClient : kettleMgrEnvironment.getRemotePool().getRemoteclients()) {
+	    breakers.put(remoteClient.getHostName(), remoteClient.getBreaker().getState());
+	}
+	return breakers;
+    }
+
+    /**
+     * 查询各远端并发上限的变化历史
+     * 
+     * @return
+     */
+    public List<KettleRemoteLimitChange> queryRemoteLimitHistory() {
+	List<KettleRemoteLimitChange> history = new ArrayList<KettleRemoteLimitChange>();
+	for (KettleRemoteClient remoteClient : kettleMgrEnvironment.getRemotePool().getRemoteclients()) {
+	    history.addAll(remoteClient.getLimiter().getHistory());
+	}
+	return history;
+    }
+
+    /**
+     * 查询各远端传输层的统计:请求数,连接复用,时延
+     * 
+     * @return
+     */
+    public List<KettleRemoteTransportStat> queryRemoteTransportStats() {
+	List<KettleRemoteTransportStat> stats = new ArrayList<KettleRemoteTransportStat>();
+	for (KettleRemoteClient remoteClient : kettleMgrEnvironment.getRemotePool().getRemoteclients()) {
+	    stats.add(remoteClient.getTransport().getStat());
+	}
+	return stats;
+    }
+
+    /**
+     * 查询Record本地日志的最后若干行,运行中的Record每KETTLE_RECORD_LOG_SYNC_SECONDS秒追加一次
+     * 
+     * @param uuid
+     * @param lines
+     * @return
+     */
+    public List<String> queryJobLog(String uuid, int lines) {
+	return kettleMgrEnvironment.getLogStore().tail(uuid, lines);
+    }
+
     /**
      * 删除Job
      * 
@@ -304,6 +525,33 @@ public class KettleMgrInstance {
 	}
     }
 
+    /**
+     * 停止本节点的后台任务:清理,租约续约及任务池的调度线程
+     */
+    public void shutdown() {
+	threadPool.shutdownNow();
+	leasePool.shutdownNow();
+	kettleMgrEnvironment.getRecordPool().shutdown();
+    }
+
+    /**
+     * 续约本节点持有的Record,接管其他节点租约过期的Record;集群模式下同时发送心跳并同步定时任务
+     * 
+     * @author Administrator
+     *
+     */
+    private class LeaseDaemon implements Runnable {
+	@Override
+	public void run() {
+	    try {
+		recordService.syncCluster();
+		recordService.renewLeases();
+	    } catch (Exception e) {
+		logger.error("Record租约续约发生异常!", e);
+	    }
+	}
+    }
+
     /**
      * @author Administrator
      *
@@ -345,6 +345,8 @@ public class SyncTablesDatasBuilder {
 	JobHopMeta hop = new JobHopMeta(start, excuter);
 	mainJob.addJobHop(hop);
 	kettleJobEntireDefine.setMainJob(mainJob);
+	// 按主键插入/更新/删除,重复执行结果相同
+	kettleJobEntireDefine.setIdempotent(true);
 	return kettleJobEntireDefine;
     }
 }
@@ -0,0 +1,153 @@
+package com.kettle.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 时延直方图(毫秒),分桶计数,无锁
+ *
+ * @author Administrator
+ *
+ */
+public class KettleLatencyHistogram {
+
+	/**
+	 * 分桶上界(毫秒),最后一个桶无上界
+	 */
+	private static final long[] BUCKET_BOUNDS = new long[] { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000,
+			10000, 30000, 60000, 300000 };
+
+	/**
+	 * 名称
+	 */
+	private final String name;
+
+	/**
+	 * 各桶计数
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+	/**
+	 * 总数
+	 */
+	private final AtomicLong count = new AtomicLong(0);
+
+	/**
+	 * 总时延
+	 */
+	private final AtomicLong sum = new AtomicLong(0);
+
+	/**
+	 * 最大时延
+	 */
+	private final AtomicLong max = new AtomicLong(0);
+
+	/**
+	 * @param name
+	 */
+	public KettleLatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * 记录一次时延
+	 *
+	 * @param millis
+	 */
+	public void record(long millis) {
+		if (millis < 0) {
+			millis = 0;
+		}
+		int index = 0;
+		while (index < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[index]) {
+			index++;
+		}
+		buckets.incrementAndGet(index);
+		count.incrementAndGet();
+		sum.addAndGet(millis);
+		long oldMax = max.get();
+		while (millis > oldMax && !max.compareAndSet(oldMax, millis)) {
+			oldMax = max.get();
+		}
+	}
+
+	/**
+	 * 百分位数,返回所在桶的上界
+	 *
+	 * @param percent
+	 *            0~100
+	 * @return
+	 */
+	public long percentile(double percent) {
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		long threshold = (long) Math.ceil(total * percent / 100);
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= threshold) {
+				return i < BUCKET_BOUNDS.length ? BUCKET_BOUNDS[i] : max.get();
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * 清零
+	 */
+	public void reset() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getMean() {
+		long total = count.get();
+		return total == 0 ? 0 : sum.get() / total;
+	}
+
+	/**
+	 * 分桶上界
+	 *
+	 * @return
+	 */
+	public long[] getBucketBounds() {
+		return BUCKET_BOUNDS.clone();
+	}
+
+	/**
+	 * 各桶计数,长度比上界多1
+	 *
+	 * @return
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[buckets.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+
+	@Override
+	public String toString() {
+		return name + "[count=" + getCount() + ",mean=" + getMean() + "ms,p50=" + percentile(50) + "ms,p90="
+				+ percentile(90) + "ms,p99=" + percentile(99) + "ms,max=" + getMax() + "ms]";
+	}
+}
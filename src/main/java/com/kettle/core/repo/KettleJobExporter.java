@@ -0,0 +1,268 @@
+package com.kettle.core.repo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.ObjectLocationSpecificationMethod;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogLevel;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobExecutionConfiguration;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.job.entries.job.JobEntryJob;
+import org.pentaho.di.job.entries.trans.JobEntryTrans;
+import org.pentaho.di.job.entry.JobEntryCopy;
+import org.pentaho.di.repository.RepositoryDirectoryInterface;
+import org.pentaho.di.trans.TransMeta;
+
+import com.kettle.core.bean.KettleJobEntireDefine;
+
+/**
+ * 在内存中将KettleJobEntireDefine导出为Carte可加载的导出包(zip),不经过资源库
+ *
+ * 包内为核心Job,依赖的Trans和Job及执行配置;Job中对依赖的引用改为包内同级目录的文件。
+ * 包内文件名由名称替换非法字符得到,重名(如不同目录下的同名依赖)时追加序号
+ *
+ * @author Administrator
+ *
+ */
+public class KettleJobExporter {
+
+    /**
+     * 包内文件的目录,远端加载时为导出包的根目录
+     */
+    private static final String EXPORT_DIRECTORY = "${" + Const.INTERNAL_VARIABLE_JOB_FILENAME_DIRECTORY + "}/";
+
+    /**
+     * Job文件扩展名
+     */
+    private static final String EXT_JOB = ".kjb";
+
+    /**
+     * Trans文件扩展名
+     */
+    private static final String EXT_TRANS = ".ktr";
+
+    private KettleJobExporter() {
+    }
+
+    /**
+     * 核心Job在导出包中的文件名
+     *
+     * @param name
+     *            核心Job名称
+     * @return
+     */
+    public static String mainEntry(String name) {
+	return sanitize(name) + EXT_JOB;
+    }
+
+    /**
+     * 导出为zip
+     *
+     * @param jobEntire
+     * @return
+     * @throws KettleException
+     */
+    public static byte[] export(KettleJobEntireDefine jobEntire) throws KettleException {
+	JobMeta mainJob = jobEntire.getMainJob();
+	Set<String> used = new HashSet<String>();
+	used.add(mainEntry(mainJob.getName()).toLowerCase());
+	// 依赖对应的包内文件名,按依赖的顺序
+	List<String> files = new ArrayList<String>();
+	Map<String, String> transEntries = new HashMap<String, String>();
+	Map<String, String> transNames = new HashMap<String, String>();
+	for (TransMeta transMeta : jobEntire.getDependentTrans()) {
+	    String entry = uniqueEntry(transMeta.getName(), EXT_TRANS, used);
+	    files.add(entry);
+	    transEntries.put(key(directory(transMeta.getRepositoryDirectory()), transMeta.getName()), entry);
+	    addByName(transNames, transMeta.getName(), entry);
+	}
+	Map<String, String> jobEntries = new HashMap<String, String>();
+	Map<String, String> jobNames = new HashMap<String, String>();
+	for (JobMeta jobMeta : jobEntire.getDependentJobs()) {
+	    String entry = uniqueEntry(jobMeta.getName(), EXT_JOB, used);
+	    files.add(entry);
+	    jobEntries.put(key(directory(jobMeta.getRepositoryDirectory()), jobMeta.getName()), entry);
+	    addByName(jobNames, jobMeta.getName(), entry);
+	}
+	JobExecutionConfiguration jobExecutionConfiguration = new JobExecutionConfiguration();
+	jobExecutionConfiguration.setLogLevel(LogLevel.BASIC);
+	jobExecutionConfiguration.setExecutingRemotely(true);
+	jobExecutionConfiguration.setExecutingLocally(false);
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	ZipOutputStream zip = new ZipOutputStream(bytes);
+	try {
+	    write(zip, mainEntry(mainJob.getName()),
+		    toExported(mainJob, transEntries, transNames, jobEntries, jobNames).getXML());
+	    int index = 0;
+	    for (TransMeta transMeta : jobEntire.getDependentTrans()) {
+		write(zip, files.get(index++), transMeta.getXML());
+	    }
+	    for (JobMeta jobMeta : jobEntire.getDependentJobs()) {
+		write(zip, files.get(index++),
+			toExported(jobMeta, transEntries, transNames, jobEntries, jobNames).getXML());
+	    }
+	    write(zip, Job.CONFIGURATION_IN_EXPORT_FILENAME, jobExecutionConfiguration.getXML());
+	    zip.close();
+	} catch (IOException ex) {
+	    throw new KettleException("Job[" + mainJob.getName() + "]导出失败!", ex);
+	}
+	return bytes.toByteArray();
+    }
+
+    /**
+     * 复制Job,将对依赖的资源库引用改为导出包内的文件
+     *
+     * @param jobMeta
+     * @param transEntries
+     *            目录及名称到包内文件名
+     * @param transNames
+     *            名称到包内文件名,同名的依赖不在其中
+     * @param jobEntries
+     * @param jobNames
+     * @return
+     */
+    private static JobMeta toExported(JobMeta jobMeta, Map<String, String> transEntries,
+	    Map<String, String> transNames, Map<String, String> jobEntries, Map<String, String> jobNames) {
+	JobMeta exported = (JobMeta) jobMeta.realClone(false);
+	String entry;
+	for (JobEntryCopy jec : exported.getJobCopies()) {
+	    if (jec.isTransformation()) {
+		JobEntryTrans jet = (JobEntryTrans) jec.getEntry();
+		entry = lookup(transEntries, transNames, jet.getDirectory(), jet.getTransname());
+		if (entry != null) {
+		    jet.setSpecificationMethod(ObjectLocationSpecificationMethod.FILENAME);
+		    jet.setFileName(EXPORT_DIRECTORY + entry);
+		    jet.setTransObjectId(null);
+		}
+	    } else if (jec.isJob()) {
+		JobEntryJob jej = (JobEntryJob) jec.getEntry();
+		entry = lookup(jobEntries, jobNames, jej.getDirectory(), jej.getJobName());
+		if (entry != null) {
+		    jej.setSpecificationMethod(ObjectLocationSpecificationMethod.FILENAME);
+		    jej.setFileName(EXPORT_DIRECTORY + entry);
+		    jej.setJobObjectId(null);
+		}
+	    }
+	}
+	return exported;
+    }
+
+    /**
+     * 引用对应的包内文件名:先按目录及名称匹配,未指定或不匹配时按名称匹配
+     *
+     * @param entries
+     * @param names
+     * @param directory
+     * @param name
+     * @return 不是依赖时为null
+     */
+    private static String lookup(Map<String, String> entries, Map<String, String> names, String directory,
+	    String name) {
+	if (name == null) {
+	    return null;
+	}
+	String entry = entries.get(key(directory, name));
+	return entry == null ? names.get(name) : entry;
+    }
+
+    /**
+     * 按名称登记包内文件名,同名的依赖无法只按名称区分,移除
+     *
+     * @param names
+     * @param name
+     * @param entry
+     */
+    private static void addByName(Map<String, String> names, String name, String entry) {
+	if (names.containsKey(name)) {
+	    names.put(name, null);
+	} else {
+	    names.put(name, entry);
+	}
+    }
+
+    /**
+     * 目录及名称
+     *
+     * @param directory
+     * @param name
+     * @return
+     */
+    private static String key(String directory, String name) {
+	String dir = Const.isEmpty(directory) ? "/" : directory.trim();
+	if (dir.length() > 1 && dir.endsWith("/")) {
+	    dir = dir.substring(0, dir.length() - 1);
+	}
+	return dir + "|" + name;
+    }
+
+    /**
+     * @param directory
+     * @return
+     */
+    private static String directory(RepositoryDirectoryInterface directory) {
+	return directory == null ? null : directory.getPath();
+    }
+
+    /**
+     * 包内不重复的文件名,不区分大小写
+     *
+     * @param name
+     * @param ext
+     * @param used
+     *            已使用的文件名(小写)
+     * @return
+     */
+    private static String uniqueEntry(String name, String ext, Set<String> used) {
+	String base = sanitize(name);
+	String entry = base + ext;
+	for (int i = 2; !used.add(entry.toLowerCase()); i++) {
+	    entry = base + "_" + i + ext;
+	}
+	return entry;
+    }
+
+    /**
+     * 替换名称中不能作为文件名的字符,如目录分隔符
+     *
+     * @param name
+     * @return
+     */
+    private static String sanitize(String name) {
+	if (Const.isEmpty(name)) {
+	    return "_";
+	}
+	StringBuilder sb = new StringBuilder(name.length());
+	char c;
+	for (int i = 0; i < name.length(); i++) {
+	    c = name.charAt(i);
+	    sb.append(c < 0x20 || "/\\:*?\"<>|".indexOf(c) >= 0 ? '_' : c);
+	}
+	return sb.toString();
+    }
+
+    /**
+     * 写入一个文件
+     *
+     * @param zip
+     * @param name
+     * @param xml
+     * @throws IOException
+     */
+    private static void write(ZipOutputStream zip, String name, String xml) throws IOException {
+	zip.putNextEntry(new ZipEntry(name));
+	zip.write((XMLHandler.getXMLHeader() + xml).getBytes(Const.XML_ENCODING));
+	zip.closeEntry();
+    }
+}
@@ -155,12 +155,13 @@ public class KettleRepositoryClient {
      * 向资源库保存TransMeta
      *
      * @param transMeta
-     * @param path
+     * @param directory
      * @throws KettleException
      */
-    private synchronized void saveTransMeta(TransMeta transMeta, String path) throws KettleException {
+    private synchronized void saveTransMeta(TransMeta transMeta, RepositoryDirectoryInterface directory)
+	    throws KettleException {
 	transMeta.setRepository(repository);
-	transMeta.setRepositoryDirectory(getDirectory(path));
+	transMeta.setRepositoryDirectory(directory);
 	repository.save(transMeta, "1", Calendar.getInstance(), null, true);
     }
 
@@ -168,12 +169,13 @@ public class KettleRepositoryClient {
      * 向资源库保存TransMeta
      * 
      * @param jobMeta
-     * @param path
+     * @param directory
      * @throws KettleException
      */
-    private synchronized void saveJobMeta(JobMeta jobMeta, String path) throws KettleException {
+    private synchronized void saveJobMeta(JobMeta jobMeta, RepositoryDirectoryInterface directory)
+	    throws KettleException {
 	jobMeta.setRepository(repository);
-	jobMeta.setRepositoryDirectory(getDirectory(path));
+	jobMeta.setRepositoryDirectory(directory);
 	repository.save(jobMeta, "1", Calendar.getInstance(), null, true);
     }
 
@@ -257,15 +259,51 @@ public class KettleRepositoryClient {
     public synchronized KettleRecord saveJobEntireDefine(KettleJobEntireDefine jobEntire, String path)
 	    throws KettleException {
 	connect();
+	return saveJobEntireDefine(jobEntire, getDirectory(path));
+    }
+
+    /**
+     * 批量保存,一次连接,目录只查找一次;失败时删除本批已保存的内容
+     * 
+     * @param jobEntires
+     * @param path
+     * @return
+     * @throws KettleException
+     */
+    public synchronized List<KettleRecord> saveJobEntireDefines(List<KettleJobEntireDefine> jobEntires, String path)
+	    throws KettleException {
+	connect();
+	RepositoryDirectoryInterface directory = getDirectory(path);
+	List<KettleRecord> records = new ArrayList<KettleRecord>(jobEntires.size());
+	try {
+	    for (KettleJobEntireDefine jobEntire : jobEntires) {
+		records.add(saveJobEntireDefine(jobEntire, directory));
+	    }
+	} catch (KettleException ex) {
+	    for (KettleRecord record : records) {
+		deleteJobEntireDefine(record);
+	    }
+	    throw ex;
+	}
+	return records;
+    }
+
+    /**
+     * @param jobEntire
+     * @param directory
+     * @throws KettleException
+     */
+    private synchronized KettleRecord saveJobEntireDefine(KettleJobEntireDefine jobEntire,
+	    RepositoryDirectoryInterface directory) throws KettleException {
 	KettleRecord record = new KettleRecord();
-	saveJobMeta(jobEntire.getMainJob(), path);
+	saveJobMeta(jobEntire.getMainJob(), directory);
 	record.setUuid(jobEntire.getUuid());
 	record.setJobid(jobEntire.getMainJob().getObjectId().getId());
 	record.setName(jobEntire.getMainJob().getName());
 	// 依赖
 	KettleRecordRelation relation;
 	for (TransMeta transMeta : jobEntire.getDependentTrans()) {
-	    saveTransMeta(transMeta, path);
+	    saveTransMeta(transMeta, directory);
 	    relation = new KettleRecordRelation();
 	    relation.setMasterUUID(record.getUuid());
 	    relation.setMetaid(transMeta.getObjectId().getId());
@@ -273,7 +311,7 @@ public class KettleRepositoryClient {
 	    record.getRelations().add(relation);
 	}
 	for (JobMeta jobMeta : jobEntire.getDependentJobs()) {
-	    saveJobMeta(jobMeta, path);
+	    saveJobMeta(jobMeta, directory);
 	    relation = new KettleRecordRelation();
 	    relation.setMasterUUID(record.getUuid());
 	    relation.setMetaid(jobMeta.getObjectId().getId());
@@ -296,6 +334,30 @@ public class KettleRepositoryClient {
 	return jobMeta;
     }
 
+    /**
+     * 主Job在资源库中的路径(目录/名称),供远端从共享的资源库加载
+     * 
+     * 文件资源库的资源ID即为路径加扩展名,无需加载Job;数据库资源库需加载JobMeta获取目录和名称
+     * 
+     * @param record
+     * @return
+     * @throws KettleException
+     */
+    public String getJobPath(KettleRecord record) throws KettleException {
+	String path;
+	if (KettleFileRepository.class.isInstance(repository)) {
+	    path = record.getJobid();
+	    if (path.endsWith(KettleFileRepository.EXT_JOB)) {
+		path = path.substring(0, path.length() - KettleFileRepository.EXT_JOB.length());
+	    }
+	} else {
+	    JobMeta jobMeta = getMainJob(record);
+	    path = jobMeta.getRepositoryDirectory().getPath();
+	    path = (path.endsWith("/") ? path : path + "/") + jobMeta.getName();
+	}
+	return path.replace(File.separatorChar, '/');
+    }
+
     /**
      * @param jobEntire
      * @throws KettleException
@@ -363,6 +425,9 @@ public class KettleRepositoryClient {
      * @param relations
      */
     public synchronized void deleteJobEntireDefine(KettleRecord record) {
+	if (record.isInline()) {// 不在资源库
+	    return;
+	}
 	connect();
 	deleteJobMetaNE(record.getJobid());
 	for (KettleRecordRelation relation : record.getRelations()) {
@@ -68,6 +68,86 @@ public class KettleRecord {
 	 */
 	private List<KettleRecordRelation> relations;
 
+	/**
+	 * 上游Record的UUID,上游均完成后才执行
+	 */
+	private List<String> upstreams;
+
+	/**
+	 * 队列类别(租户),决定任务池中的公平份额
+	 */
+	private String queueClass;
+
+	/**
+	 * 进入任务池的时间(毫秒),仅内存
+	 */
+	private long applyTime;
+
+	/**
+	 * 本次执行已重试的次数
+	 */
+	private int retryCount;
+
+	/**
+	 * 最大重试次数,为空时使用队列类别的重试策略
+	 */
+	private Integer retryMax;
+
+	/**
+	 * 下次重试的时间(毫秒),仅内存
+	 */
+	private long nextRetryTime;
+
+	/**
+	 * 运行中连续同步状态失败的次数,同步成功后清零,仅内存
+	 */
+	private int statusFailures;
+
+	/**
+	 * 已拉取的远端日志行号,内存中为0时从本地日志保存的行号恢复
+	 */
+	private int logOffset;
+
+	/**
+	 * 下次拉取远端日志的时间(毫秒),仅内存
+	 */
+	private long nextLogTime;
+
+	/**
+	 * 是否从任务池的优先队列取出,退回任务池时回到优先队列,仅内存
+	 */
+	private boolean prioritized;
+
+	/**
+	 * 是否幂等,幂等的Record在远端失联后可重新派发
+	 */
+	private boolean idempotent;
+
+	/**
+	 * 持有该Record的管理节点
+	 */
+	private String owner;
+
+	/**
+	 * 持有租约的到期时间
+	 */
+	private Date leaseExpire;
+
+	/**
+	 * 版本,认领时乐观校验
+	 */
+	private int version;
+
+	/**
+	 * 定时任务触发的最大打散时间(秒),为空时使用全局配置
+	 */
+	private Integer scheduleJitter;
+
+	/**
+	 * 不保存到资源库时的压缩定义(导出包),发送成功后释放,重试时从数据库加载
+	 */
+	private byte[] definition;
+
 	public KettleRecord() {
 	}
 
@@ -143,6 +223,16 @@ public class KettleRecord {
 		return relations;
 	}
 
+	/**
+	 * @return the upstreams
+	 */
+	public List<String> getUpstreams() {
+		if (upstreams == null) {
+			upstreams = new ArrayList<String>();
+		}
+		return upstreams;
+	}
+
 	public String getCronExpression() {
 		return cronExpression;
 	}
@@ -167,6 +257,126 @@ public class KettleRecord {
 		this.updateTime = updateTime;
 	}
 
+	public String getQueueClass() {
+		return queueClass;
+	}
+
+	public void setQueueClass(String queueClass) {
+		this.queueClass = queueClass;
+	}
+
+	public long getApplyTime() {
+		return applyTime;
+	}
+
+	public void setApplyTime(long applyTime) {
+		this.applyTime = applyTime;
+	}
+
+	public int getRetryCount() {
+		return retryCount;
+	}
+
+	public void setRetryCount(int retryCount) {
+		this.retryCount = retryCount;
+	}
+
+	public Integer getRetryMax() {
+		return retryMax;
+	}
+
+	public void setRetryMax(Integer retryMax) {
+		this.retryMax = retryMax;
+	}
+
+	public boolean isPrioritized() {
+		return prioritized;
+	}
+
+	public void setPrioritized(boolean prioritized) {
+		this.prioritized = prioritized;
+	}
+
+	public boolean isIdempotent() {
+		return idempotent;
+	}
+
+	public void setIdempotent(boolean idempotent) {
+		this.idempotent = idempotent;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public Date getLeaseExpire() {
+		return leaseExpire;
+	}
+
+	public void setLeaseExpire(Date leaseExpire) {
+		this.leaseExpire = leaseExpire;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
+	public Integer getScheduleJitter() {
+		return scheduleJitter;
+	}
+
+	public void setScheduleJitter(Integer scheduleJitter) {
+		this.scheduleJitter = scheduleJitter;
+	}
+
+	public byte[] getDefinition() {
+		return definition;
+	}
+
+	public void setDefinition(byte[] definition) {
+		this.definition = definition;
+	}
+
+	public long getNextRetryTime() {
+		return nextRetryTime;
+	}
+
+	public void setNextRetryTime(long nextRetryTime) {
+		this.nextRetryTime = nextRetryTime;
+	}
+
+	public int getStatusFailures() {
+		return statusFailures;
+	}
+
+	public void setStatusFailures(int statusFailures) {
+		this.statusFailures = statusFailures;
+	}
+
+	public int getLogOffset() {
+		return logOffset;
+	}
+
+	public void setLogOffset(int logOffset) {
+		this.logOffset = logOffset;
+	}
+
+	public long getNextLogTime() {
+		return nextLogTime;
+	}
+
+	public void setNextLogTime(long nextLogTime) {
+		this.nextLogTime = nextLogTime;
+	}
+
 	/**
 	 * 是否运行状态
 	 * 
@@ -211,4 +421,13 @@ public class KettleRecord {
 	public boolean isRegiste() {
 		return KettleVariables.RECORD_STATUS_REGISTE.equals(this.getStatus());
 	}
+
+	/**
+	 * 是否不保存到资源库
+	 * 
+	 * @return
+	 */
+	public boolean isInline() {
+		return KettleVariables.RECORD_JOBID_INLINE.equals(this.getJobid());
+	}
 }
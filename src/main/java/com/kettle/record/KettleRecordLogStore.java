@@ -0,0 +1,220 @@
+package com.kettle.record;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Record的本地日志:远端日志的增量按Record追加到各自的文件,超过上限时滚动为.1文件,只保留一份
+ *
+ * 已拉取的远端行号与日志一同保存在.offset文件中,节点重启或接管后从该行号继续拉取,日志不重复
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRecordLogStore {
+
+	/**
+	 * 日志
+	 */
+	private static Logger logger = LoggerFactory.getLogger(KettleRecordLogStore.class);
+
+	private static final String CHARSET = "UTF-8";
+
+	/**
+	 * 日志目录
+	 */
+	private final File dir;
+
+	/**
+	 * 单个文件的上限(字节)
+	 */
+	private final long maxBytes;
+
+	/**
+	 * @param dir
+	 * @param maxBytes
+	 */
+	public KettleRecordLogStore(String dir, long maxBytes) {
+		this.dir = new File(dir);
+		this.maxBytes = maxBytes;
+		if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+			logger.error("Record日志目录[" + this.dir.getAbsolutePath() + "]创建失败!");
+		}
+	}
+
+	/**
+	 * 追加日志
+	 *
+	 * @param uuid
+	 * @param text
+	 */
+	public synchronized void append(String uuid, String text) {
+		if (text == null || text.isEmpty()) {
+			return;
+		}
+		File file = file(uuid);
+		if (file.length() >= maxBytes) {
+			File rolled = rolled(uuid);
+			if (rolled.exists() && !rolled.delete() || !file.renameTo(rolled)) {
+				logger.warn("Record[" + uuid + "]日志滚动失败!");
+			}
+		}
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file, true), CHARSET);
+			writer.write(text);
+			if (!text.endsWith("\n")) {
+				writer.write("\n");
+			}
+		} catch (IOException ex) {
+			logger.error("Record[" + uuid + "]写入日志失败!", ex);
+		} finally {
+			close(writer);
+		}
+	}
+
+	/**
+	 * 追加远端日志的增量,并保存已拉取到的远端行号
+	 *
+	 * @param uuid
+	 * @param text
+	 * @param runID
+	 *            远端的运行ID,行号只对同一次运行有效
+	 * @param offset
+	 */
+	public synchronized void append(String uuid, String text, String runID, int offset) {
+		append(uuid, text);
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(offset(uuid), false), CHARSET);
+			writer.write(runID + "\n" + offset + "\n");
+		} catch (IOException ex) {
+			logger.error("Record[" + uuid + "]保存日志行号失败!", ex);
+		} finally {
+			close(writer);
+		}
+	}
+
+	/**
+	 * 已拉取到的远端行号
+	 *
+	 * @param uuid
+	 * @param runID
+	 * @return 没有保存或不是同一次运行时返回0
+	 */
+	public synchronized int offset(String uuid, String runID) {
+		File file = offset(uuid);
+		if (runID == null || !file.exists()) {
+			return 0;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+			String savedRunID = reader.readLine();
+			String offset = reader.readLine();
+			if (runID.equals(savedRunID) && offset != null) {
+				return Integer.parseInt(offset.trim());
+			}
+		} catch (Exception ex) {
+			logger.warn("读取Record[" + uuid + "]日志行号失败!", ex);
+		} finally {
+			close(reader);
+		}
+		return 0;
+	}
+
+	/**
+	 * 最后若干行日志
+	 *
+	 * @param uuid
+	 * @param lines
+	 * @return
+	 */
+	public synchronized List<String> tail(String uuid, int lines) {
+		LinkedList<String> tail = new LinkedList<String>();
+		if (lines > 0) {
+			read(rolled(uuid), tail, lines);
+			read(file(uuid), tail, lines);
+		}
+		return new ArrayList<String>(tail);
+	}
+
+	/**
+	 * 删除Record的日志
+	 *
+	 * @param uuid
+	 */
+	public synchronized void delete(String uuid) {
+		File file = file(uuid);
+		File rolled = rolled(uuid);
+		File offset = offset(uuid);
+		if (file.exists() && !file.delete() || rolled.exists() && !rolled.delete()
+				|| offset.exists() && !offset.delete()) {
+			logger.warn("Record[" + uuid + "]日志删除失败!");
+		}
+	}
+
+	/**
+	 * 读取文件,只保留最后lines行
+	 *
+	 * @param file
+	 * @param tail
+	 * @param lines
+	 */
+	private void read(File file, LinkedList<String> tail, int lines) {
+		if (!file.exists()) {
+			return;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				tail.add(line);
+				if (tail.size() > lines) {
+					tail.removeFirst();
+				}
+			}
+		} catch (IOException ex) {
+			logger.error("读取Record日志[" + file.getName() + "]失败!", ex);
+		} finally {
+			close(reader);
+		}
+	}
+
+	private File file(String uuid) {
+		return new File(dir, uuid + ".log");
+	}
+
+	private File rolled(String uuid) {
+		return new File(dir, uuid + ".log.1");
+	}
+
+	private File offset(String uuid) {
+		return new File(dir, uuid + ".offset");
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable == null) {
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException ex) {
+			logger.debug("关闭Record日志文件失败!", ex);
+		}
+	}
+}
@@ -1,11 +1,14 @@
 package com.kettle.record.operation;
 
+import java.util.List;
+
 import org.pentaho.di.core.exception.KettleException;
 
 import com.kettle.core.KettleVariables;
 import com.kettle.core.db.KettleDBClient;
 import com.kettle.core.instance.KettleMgrInstance;
 import com.kettle.record.KettleRecord;
+import com.kettle.record.pool.KettleRecordPool;
 
 public abstract class BaseRecordOperator implements IRecordOperator {
 
@@ -19,11 +22,29 @@ public abstract class BaseRecordOperator implements IRecordOperator {
 	 */
 	protected final KettleDBClient dbClient;
 
+	/**
+	 * 任务池
+	 */
+	protected final KettleRecordPool recordPool;
+
 	/**
 	 * 构造器
 	 */
 	public BaseRecordOperator() {
 		this.dbClient = KettleMgrInstance.kettleMgrEnvironment.getDbClient();
+		this.recordPool = KettleMgrInstance.kettleMgrEnvironment.getRecordPool();
+	}
+
+	/**
+	 * Record结束(FINISHED/ERROR)并持久化后调用:释放等待它的下游,失败时取消下游
+	 */
+	protected void recordCompleted() {
+		List<KettleRecord> cancels = recordPool.recordCompleted(record);
+		for (KettleRecord cancel : cancels) {
+			cancel.setStatus(KettleVariables.RECORD_STATUS_ERROR);
+			cancel.setErrMsg("上游Record[" + record.getUuid() + "]执行失败,已取消!");
+			dbClient.updateRecordStatusNE(cancel);
+		}
 	}
 
 	@Override
@@ -0,0 +1,181 @@
+package com.kettle.record.pool;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.kettle.core.KettleVariables;
+import com.kettle.core.instance.KettleMgrEnvironment;
+
+/**
+ * 任务申请的准入控制,每个调用方(队列类别)一个令牌桶
+ *
+ * 速率由KETTLE_RECORD_ADMIT_RATE_调用方配置,未配置时使用KETTLE_RECORD_ADMIT_RATE,小于等于0不限制
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRecordAdmission {
+
+	/**
+	 * 调用方的令牌桶
+	 */
+	private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+
+	/**
+	 * 获取调用方的令牌桶,不存在则创建
+	 *
+	 * @param caller
+	 * @return
+	 */
+	private TokenBucket bucketOf(String caller) {
+		String name = caller == null || caller.trim().isEmpty() ? KettleVariables.RECORD_QUEUE_CLASS_DEFAULT
+				: caller.trim();
+		TokenBucket bucket = buckets.get(name);
+		if (bucket == null) {
+			TokenBucket newBucket = new TokenBucket(
+					KettleMgrEnvironment.NVLDouble("KETTLE_RECORD_ADMIT_RATE_" + name,
+							KettleMgrEnvironment.KETTLE_RECORD_ADMIT_RATE),
+					KettleMgrEnvironment.NVLInt("KETTLE_RECORD_ADMIT_BURST_" + name,
+							KettleMgrEnvironment.KETTLE_RECORD_ADMIT_BURST));
+			bucket = buckets.putIfAbsent(name, newBucket);
+			if (bucket == null) {
+				bucket = newBucket;
+			}
+		}
+		return bucket;
+	}
+
+	/**
+	 * 不等待,立即获取令牌
+	 *
+	 * @param caller
+	 * @return 是否获取成功
+	 */
+	public boolean tryAcquire(String caller) {
+		return bucketOf(caller).reserve(0) == 0;
+	}
+
+	/**
+	 * 在超时时间内获取令牌,令牌不足时按速率等待
+	 *
+	 * @param caller
+	 * @param timeout
+	 *            小于0表示一直等待
+	 * @param unit
+	 * @return 是否获取成功
+	 * @throws InterruptedException
+	 */
+	public boolean acquire(String caller, long timeout, TimeUnit unit) throws InterruptedException {
+		long waitNanos = bucketOf(caller).reserve(timeout < 0 ? Long.MAX_VALUE : unit.toNanos(timeout));
+		if (waitNanos < 0) {
+			return false;
+		}
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException ex) {
+				refund(caller);
+				throw ex;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 退还已获取但未使用的令牌,如获取令牌后等待任务池空位超时
+	 *
+	 * @param caller
+	 */
+	public void refund(String caller) {
+		bucketOf(caller).refund();
+	}
+
+	/**
+	 * 下一个令牌的预计等待时间(毫秒)
+	 *
+	 * @param caller
+	 * @return
+	 */
+	public long estimateWaitMillis(String caller) {
+		return TimeUnit.NANOSECONDS.toMillis(bucketOf(caller).waitNanos());
+	}
+
+	/**
+	 * 令牌桶,令牌可透支:预订后按欠额等待,使申请者被平滑地放慢
+	 *
+	 * @author Administrator
+	 *
+	 */
+	private static class TokenBucket {
+
+		/**
+		 * 每秒生成的令牌数,小于等于0不限制
+		 */
+		private final double rate;
+
+		/**
+		 * 桶容量
+		 */
+		private final double burst;
+
+		private double tokens;
+
+		private long lastRefill;
+
+		private TokenBucket(double rate, int burst) {
+			this.rate = rate;
+			this.burst = burst < 1 ? 1 : burst;
+			this.tokens = this.burst;
+			this.lastRefill = System.nanoTime();
+		}
+
+		private void refill(long now) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+			lastRefill = now;
+		}
+
+		/**
+		 * 预订一个令牌
+		 *
+		 * @param maxWaitNanos
+		 * @return 需要等待的纳秒数,超过maxWaitNanos时不预订并返回-1
+		 */
+		private synchronized long reserve(long maxWaitNanos) {
+			if (rate <= 0) {
+				return 0;
+			}
+			refill(System.nanoTime());
+			long wait = tokens >= 1 ? 0 : (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+			if (wait > maxWaitNanos) {
+				return -1;
+			}
+			tokens -= 1;
+			return wait;
+		}
+
+		/**
+		 * 退还一个令牌,不超过桶容量
+		 */
+		private synchronized void refund() {
+			if (rate <= 0) {
+				return;
+			}
+			refill(System.nanoTime());
+			tokens = Math.min(burst, tokens + 1);
+		}
+
+		/**
+		 * 下一个令牌的等待时间(纳秒)
+		 *
+		 * @return
+		 */
+		private synchronized long waitNanos() {
+			if (rate <= 0) {
+				return 0;
+			}
+			refill(System.nanoTime());
+			return tokens >= 1 ? 0 : (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+		}
+	}
+}
@@ -1,20 +1,39 @@
 package com.kettle.record.pool;
 
+import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.WeakHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.pentaho.di.core.exception.KettleException;
+import org.quartz.CronExpression;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.JobBuilder;
 import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
 import org.quartz.JobKey;
 import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
 import org.quartz.SchedulerFactory;
 import org.quartz.Trigger;
 import org.quartz.TriggerBuilder;
@@ -23,12 +42,18 @@ import org.quartz.impl.StdSchedulerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.kettle.core.KettleVariables;
 import com.kettle.core.instance.KettleMgrEnvironment;
+import com.kettle.core.metrics.KettleLatencyHistogram;
 import com.kettle.record.KettleRecord;
 
 /**
  * Kettle任务池
- * 
+ *
+ * 无锁实现:uuid到队列节点的并发索引,加上无锁的优先/普通队列.
+ * 删除时仅将节点标记为失效并移出索引(O(1)),失效节点在出队时跳过.
+ * 普通队列按Record的队列类别(租户)拆分,按权重做加权公平出队(stride调度).
+ *
  * @author chenkw
  *
  */
@@ -45,24 +70,120 @@ public class KettleRecordPool {
 	private static Scheduler scheduler = null;
 
 	/**
-	 * 存储Record的Map
+	 * 索引:Record的UUID到队列节点
+	 */
+	private final ConcurrentMap<String, RecordNode> recordIndex = new ConcurrentHashMap<String, RecordNode>();
+
+	/**
+	 * 记录队列,按队列类别划分
+	 */
+	private final ConcurrentMap<String, RecordQueueClass> recordQueues = new ConcurrentHashMap<String, RecordQueueClass>();
+
+	/**
+	 * 加权公平出队的全局虚拟时间
+	 */
+	private final AtomicLong virtualTime = new AtomicLong(0);
+
+	/**
+	 * 等待上游完成的Record
+	 */
+	private final RecordDependencyGraph dependencyGraph = new RecordDependencyGraph();
+
+	/**
+	 * 退避等待重试的Record
 	 */
-	private Map<String, KettleRecord> recordCache = new WeakHashMap<String, KettleRecord>();
+	private final ConcurrentMap<String, KettleRecord> retryRecords = new ConcurrentHashMap<String, KettleRecord>();
 
 	/**
-	 * 记录队列
+	 * 重试的延时调度
 	 */
-	private final Queue<String> recordQueue = new LinkedBlockingQueue<String>();
+	private final ScheduledExecutorService retryScheduler = Executors
+			.newSingleThreadScheduledExecutor(daemonThreads("KettleRecordRetry"));
 
 	/**
 	 * 优先记录队列
 	 */
-	private final Queue<String> recordPrioritizeQueue = new LinkedBlockingQueue<String>();
+	private final Queue<RecordNode> recordPrioritizeQueue = new ConcurrentLinkedQueue<RecordNode>();
+
+	/**
+	 * 取出后退回的优先Record,先于优先队列出队
+	 */
+	private final Queue<RecordNode> returnedPrioritizeQueue = new ConcurrentLinkedQueue<RecordNode>();
+
+	/**
+	 * 有效的任务数量
+	 */
+	private final AtomicInteger recordCount = new AtomicInteger(0);
+
+	/**
+	 * 等待任务池空位的锁,仅在有等待者时使用
+	 */
+	private final ReentrantLock capacityLock = new ReentrantLock();
+
+	/**
+	 * 任务池有空位
+	 */
+	private final Condition notFull = capacityLock.newCondition();
+
+	/**
+	 * 等待空位的申请者数量
+	 */
+	private final AtomicInteger capacityWaiters = new AtomicInteger(0);
+
+	/**
+	 * 累计出队数量
+	 */
+	private final AtomicLong dequeueCount = new AtomicLong(0);
+
+	/**
+	 * 出队速率的采样锁
+	 */
+	private final Object rateLock = new Object();
+
+	/**
+	 * 出队速率(每秒),指数加权移动平均
+	 */
+	private volatile double dequeueRate = 0;
+
+	/**
+	 * 上次采样时间
+	 */
+	private long rateSampleTime = System.currentTimeMillis();
+
+	/**
+	 * 上次采样时的出队数量
+	 */
+	private long rateSampleCount = 0;
+
+	/**
+	 * 派发时延:Record入池到被远端取走的时间
+	 */
+	private final KettleLatencyHistogram dispatchLatency = new KettleLatencyHistogram("RecordDispatchLatency");
+
+	/**
+	 * 已调度的定时任务:UUID到Cron
+	 */
+	private final ConcurrentMap<String, String> schedulerCrons = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * CATCH_UP待补的触发:UUID到错过的触发时间,上一次执行结束后才补下一次
+	 */
+	private final ConcurrentMap<String, Queue<Date>> catchUps = new ConcurrentHashMap<String, Queue<Date>>();
+
+	/**
+	 * 定时任务在管理节点间的分片
+	 */
+	private final ScheduleShard scheduleShard = new ScheduleShard(KettleMgrEnvironment.KETTLE_MGR_NODE_ID);
+
+	/**
+	 * 定时任务触发的合并
+	 */
+	private final ScheduleFiringBatcher firingBatcher = new ScheduleFiringBatcher(this);
 
 	/**
 	 * 监听者
 	 */
-	private List<KettleRecordPoolMonitor> poolMonitors = new LinkedList<KettleRecordPoolMonitor>();
+	private final List<KettleRecordPoolMonitor> poolMonitors = new CopyOnWriteArrayList<KettleRecordPoolMonitor>();
 
 	/**
 	 * @throws Exception
@@ -73,9 +194,41 @@ public class KettleRecordPool {
 		scheduler.start();
 	}
 
+	/**
+	 * 守护线程工厂,任务池的后台线程不阻止进程退出
+	 *
+	 * @param name
+	 * @return
+	 */
+	static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * 停止任务池:停止定时任务的触发,退避等待中的重试和未处理的定时触发丢弃,
+	 * 其Record在数据库中仍为申请状态,由租约回收重新认领
+	 */
+	public void shutdown() {
+		try {
+			scheduler.shutdown(false);
+		} catch (SchedulerException ex) {
+			logger.error("RecordPool停止定时任务调度失败!", ex);
+		}
+		firingBatcher.shutdown();
+		retryScheduler.shutdownNow();
+		logger.info("RecordPool已停止");
+	}
+
 	/**
 	 * 注册监听器
-	 * 
+	 *
 	 * @param poolMonitor
 	 */
 	public void registePoolMonitor(KettleRecordPoolMonitor poolMonitor) {
@@ -84,18 +237,18 @@ public class KettleRecordPool {
 
 	/**
 	 * 注册监听器
-	 * 
+	 *
 	 * @param poolMonitor
 	 */
 	public void registePoolMonitor(Collection<KettleRecordPoolMonitor> poolMonitors) {
-		poolMonitors.addAll(poolMonitors);
+		this.poolMonitors.addAll(poolMonitors);
 	}
 
 	/**
 	 * 发送通知
-	 * 
+	 *
 	 * @param record
-	 * 
+	 *
 	 */
 	private void notifyPoolMonitors() {
 		for (KettleRecordPoolMonitor poolMonitor : poolMonitors) {
@@ -103,49 +256,415 @@ public class KettleRecordPool {
 		}
 	}
 
+	/**
+	 * 入队,调用方需已在recordCount中为其计数
+	 *
+	 * @param record
+	 * @param queueClass
+	 *            优先队列为null
+	 * @return 是否添加成功,Record已存在时返回false
+	 */
+	private boolean enqueue(KettleRecord record, RecordQueueClass queueClass) {
+		RecordNode node = new RecordNode(record, queueClass);
+		if (recordIndex.putIfAbsent(record.getUuid(), node) != null) {
+			return false;
+		}
+		offer(node, record);
+		notifyPoolMonitors();
+		return true;
+	}
+
+	/**
+	 * 已登记索引且已计数的节点进入队列
+	 *
+	 * @param node
+	 * @param record
+	 */
+	private void offer(RecordNode node, KettleRecord record) {
+		record.setApplyTime(System.currentTimeMillis());
+		if (node.queueClass == null) {
+			recordPrioritizeQueue.offer(node);
+		} else {
+			node.queueClass.offer(node);
+		}
+	}
+
+	/**
+	 * 获取队列类别,不存在则创建
+	 *
+	 * @param name
+	 * @return
+	 */
+	private RecordQueueClass queueClassOf(String name) {
+		String className = name == null || name.trim().isEmpty() ? KettleVariables.RECORD_QUEUE_CLASS_DEFAULT
+				: name.trim();
+		RecordQueueClass queueClass = recordQueues.get(className);
+		if (queueClass == null) {
+			RecordQueueClass newClass = new RecordQueueClass(className,
+					KettleMgrEnvironment.NVLInt("KETTLE_RECORD_QUEUE_WEIGHT_" + className,
+							KettleMgrEnvironment.KETTLE_RECORD_QUEUE_WEIGHT));
+			queueClass = recordQueues.putIfAbsent(className, newClass);
+			if (queueClass == null) {
+				queueClass = newClass;
+			}
+		}
+		return queueClass;
+	}
+
 	/**
 	 * 添加的转换任务,该任务仅执行一次
-	 * 
+	 *
 	 * @param record
 	 * @return 是否添加成功
 	 * @throws KettleException
 	 */
-	public synchronized boolean addRecord(KettleRecord record) throws KettleException {
-		if (record != null && !recordCache.containsKey(record.getUuid())) {
-			check();
-			recordCache.put(record.getUuid(), record);
-			if (recordQueue.offer(record.getUuid())) {
-				notifyPoolMonitors();
+	public boolean addRecord(KettleRecord record) throws KettleException {
+		if (record != null && !recordIndex.containsKey(record.getUuid())) {
+			if (!reserve(1)) {
+				throw new KettleException("KettleRecordPool的任务数量已满,无法接受任务!");
+			}
+			if (enqueue(record, queueClassOf(record.getQueueClass()))) {
 				return true;
-			} else {
-				recordCache.remove(record.getUuid());
-				return false;
 			}
+			unreserve(1);
 		}
 		return false;
 	}
 
+	/**
+	 * 批量添加,全部成功或全部不添加
+	 *
+	 * @param records
+	 * @return 是否添加成功,任一Record已存在时返回false
+	 * @throws KettleException
+	 *             任务池空位不足
+	 */
+	public boolean addRecords(List<KettleRecord> records) throws KettleException {
+		if (records == null || records.isEmpty()) {
+			return true;
+		}
+		if (!reserve(records.size())) {
+			throw new KettleException("KettleRecordPool的空位不足,无法接受" + records.size() + "个任务!");
+		}
+		List<RecordNode> nodes = new ArrayList<RecordNode>(records.size());
+		RecordNode node;
+		for (KettleRecord record : records) {
+			node = new RecordNode(record, queueClassOf(record.getQueueClass()));
+			if (recordIndex.putIfAbsent(record.getUuid(), node) != null) {
+				for (int i = 0; i < nodes.size(); i++) {
+					recordIndex.remove(records.get(i).getUuid(), nodes.get(i));
+				}
+				unreserve(records.size());
+				return false;
+			}
+			nodes.add(node);
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			offer(nodes.get(i), records.get(i));
+		}
+		notifyPoolMonitors();
+		return true;
+	}
+
+	/**
+	 * 登记等待上游的Record,上游均完成前不进入队列;登记后需通过upstreamFinished告知已完成的上游
+	 *
+	 * @param record
+	 * @return 是否登记
+	 */
+	public boolean holdRecord(KettleRecord record) {
+		return record != null && dependencyGraph.hold(record);
+	}
+
+	/**
+	 * 等待中Record的某个上游已完成,最后一个上游完成时进入队列
+	 *
+	 * @param uuid
+	 * @param upstream
+	 */
+	public void upstreamFinished(String uuid, String upstream) {
+		KettleRecord ready = dependencyGraph.satisfy(uuid, upstream);
+		if (ready != null) {
+			release(ready);
+			notifyPoolMonitors();
+		}
+	}
+
+	/**
+	 * Record执行结束:完成时释放下游,失败时取消下游
+	 *
+	 * @param record
+	 * @return 被取消的下游,需由调用者持久化为ERROR
+	 */
+	public List<KettleRecord> recordCompleted(KettleRecord record) {
+		if (record.getCronExpression() != null) {
+			releaseCatchUp(record.getUuid());
+		}
+		if (record.isFinished()) {
+			List<KettleRecord> readies = dependencyGraph.finished(record.getUuid());
+			for (KettleRecord ready : readies) {
+				release(ready);
+			}
+			if (!readies.isEmpty()) {
+				notifyPoolMonitors();
+			}
+			return new ArrayList<KettleRecord>(0);
+		}
+		return dependencyGraph.failed(record.getUuid());
+	}
+
+	/**
+	 * 取消等待中的Record及其下游
+	 *
+	 * @param uuid
+	 * @return 被取消的Record,需由调用者持久化为ERROR
+	 */
+	public List<KettleRecord> cancelDependentRecord(String uuid) {
+		return dependencyGraph.cancel(uuid);
+	}
+
+	/**
+	 * 等待上游的Record数量
+	 *
+	 * @return
+	 */
+	public int waitingSize() {
+		return dependencyGraph.size();
+	}
+
+	/**
+	 * 上游均已完成或退避结束的Record进入队列,已受理过因此不检查容量
+	 *
+	 * @param record
+	 */
+	private void release(KettleRecord record) {
+		RecordNode node = new RecordNode(record, queueClassOf(record.getQueueClass()));
+		if (recordIndex.putIfAbsent(record.getUuid(), node) == null) {
+			recordCount.incrementAndGet();
+			offer(node, record);
+		}
+	}
+
+	/**
+	 * 派发失败的Record退避后重新进入队列,已受理过因此不检查容量
+	 *
+	 * @param record
+	 * @param delayMillis
+	 */
+	public void retryRecord(final KettleRecord record, long delayMillis) {
+		record.setNextRetryTime(System.currentTimeMillis() + delayMillis);
+		retryRecords.put(record.getUuid(), record);
+		retryScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				// 等待期间被删除则不再入队
+				if (retryRecords.remove(record.getUuid(), record)) {
+					record.setNextRetryTime(0);
+					release(record);
+					notifyPoolMonitors();
+				}
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 等待重试的Record数量
+	 *
+	 * @return
+	 */
+	public int retryingSize() {
+		return retryRecords.size();
+	}
+
 	/**
 	 * 添加的转换任务-优先
-	 * 
+	 *
 	 * @param record
 	 * @return 是否添加成功
 	 */
-	public synchronized boolean addPrioritizeRecord(KettleRecord record) {
-		if (record != null && !recordCache.containsKey(record.getUuid())) {
-			recordCache.put(record.getUuid(), record);
-			boolean result = recordPrioritizeQueue.offer(record.getUuid());
-			if (result) {
-				notifyPoolMonitors();
+	public boolean addPrioritizeRecord(KettleRecord record) {
+		if (record != null) {
+			recordCount.incrementAndGet();
+			if (enqueue(record, null)) {
+				return true;
 			}
-			return result;
+			unreserve(1);
+		}
+		return false;
+	}
+
+	/**
+	 * 已受理的Record重新进入其所属类别(原为优先的仍进入优先队列)的队尾,如接管或故障转移;已受理过因此不检查容量
+	 *
+	 * @param record
+	 * @return 是否添加成功,Record已在任务池中时返回false
+	 */
+	public boolean requeueRecord(KettleRecord record) {
+		if (record == null) {
+			return false;
+		}
+		recordCount.incrementAndGet();
+		if (enqueue(record, record.isPrioritized() ? null : queueClassOf(record.getQueueClass()))) {
+			return true;
 		}
+		unreserve(1);
 		return false;
 	}
 
+	/**
+	 * 退回取出后未能派发的Record,回到其原来的队列(优先队列或所属类别)的队首,类别的公平额度一并退回;
+	 * 不通知监听者,由槽位释放等事件重新派发
+	 *
+	 * @param record
+	 * @return 是否退回,Record已在任务池中时返回false
+	 */
+	public boolean returnRecord(KettleRecord record) {
+		return returnRecord(record, false);
+	}
+
+	/**
+	 * 退回取出后未能派发的Record,回到其原来的队列的队首
+	 *
+	 * @param record
+	 * @param notify
+	 *            是否通知监听者,如故障转移时由其他Remote立即领取
+	 * @return 是否退回,Record已在任务池中时返回false
+	 */
+	public boolean returnRecord(KettleRecord record, boolean notify) {
+		if (record == null) {
+			return false;
+		}
+		RecordQueueClass queueClass = record.isPrioritized() ? null : queueClassOf(record.getQueueClass());
+		RecordNode node = new RecordNode(record, queueClass);
+		if (recordIndex.putIfAbsent(record.getUuid(), node) != null) {
+			return false;
+		}
+		recordCount.incrementAndGet();
+		if (queueClass == null) {
+			returnedPrioritizeQueue.offer(node);
+		} else {
+			queueClass.giveBack(node);
+		}
+		if (notify) {
+			notifyPoolMonitors();
+		}
+		return true;
+	}
+
+	/**
+	 * 批量添加优先执行的任务,只通知一次
+	 *
+	 * @param records
+	 * @return 添加成功的数量,已存在的Record跳过
+	 */
+	public int addPrioritizeRecords(List<KettleRecord> records) {
+		int added = 0;
+		RecordNode node;
+		for (KettleRecord record : records) {
+			if (record == null) {
+				continue;
+			}
+			node = new RecordNode(record, null);
+			if (recordIndex.putIfAbsent(record.getUuid(), node) == null) {
+				recordCount.incrementAndGet();
+				offer(node, record);
+				added++;
+			}
+		}
+		if (added > 0) {
+			notifyPoolMonitors();
+		}
+		return added;
+	}
+
+	/**
+	 * 定时任务触发,按打散时间延时后与同一时刻的其他触发合并申请
+	 *
+	 * @param record
+	 */
+	public void fireSchedulerRecord(KettleRecord record) {
+		firingBatcher.fire(record.getUuid(), jitterMillis(record));
+	}
+
+	/**
+	 * 打散的延时:在打散窗口内按UUID固定偏移,同一定时任务每次触发的偏移相同
+	 *
+	 * @param record
+	 * @return
+	 */
+	private long jitterMillis(KettleRecord record) {
+		int jitter = record.getScheduleJitter() == null ? KettleMgrEnvironment.KETTLE_RECORD_SCHEDULE_JITTER
+				: record.getScheduleJitter();
+		if (jitter <= 0) {
+			return 0;
+		}
+		return (record.getUuid().hashCode() & Integer.MAX_VALUE) % (jitter * 1000L);
+	}
+
+	/**
+	 * 管理节点停机期间错过的触发,按KETTLE_RECORD_SCHEDULE_MISFIRE处理;以Record的更新时间作为上次触发的时间
+	 *
+	 * CATCH_UP时每个错过的触发时间单独登记,先补第一个,每次执行结束(见recordCompleted)后间隔
+	 * KETTLE_RECORD_SCHEDULE_CATCHUP_INTERVAL再补下一个,不会因上一次仍在运行而被跳过或合并
+	 *
+	 * @param record
+	 */
+	public void recoverMisfire(KettleRecord record) {
+		String policy = KettleMgrEnvironment.KETTLE_RECORD_SCHEDULE_MISFIRE;
+		if (KettleVariables.SCHEDULE_MISFIRE_SKIP.equalsIgnoreCase(policy) || record.getUpdateTime() == null
+				|| !isScheduleOwner(record.getUuid())) {
+			return;
+		}
+		int max = KettleVariables.SCHEDULE_MISFIRE_CATCH_UP.equalsIgnoreCase(policy)
+				? KettleMgrEnvironment.KETTLE_RECORD_SCHEDULE_CATCHUP_MAX : 1;
+		Queue<Date> missed = new ConcurrentLinkedQueue<Date>();
+		try {
+			CronExpression cron = new CronExpression(record.getCronExpression());
+			Date now = new Date();
+			Date next = cron.getNextValidTimeAfter(record.getUpdateTime());
+			while (next != null && next.before(now) && missed.size() < max) {
+				missed.offer(next);
+				next = cron.getNextValidTimeAfter(next);
+			}
+		} catch (ParseException ex) {
+			logger.error("SchedulerRecord[" + record.getUuid() + "]的Cron表达式无效!", ex);
+			return;
+		}
+		if (missed.isEmpty()) {
+			return;
+		}
+		int count = missed.size();
+		Date first = missed.poll();
+		if (!missed.isEmpty()) {
+			catchUps.put(record.getUuid(), missed);
+		}
+		firingBatcher.fire(record.getUuid(), jitterMillis(record));
+		logger.info("SchedulerRecord[" + record.getUuid() + "]错过触发" + count + "次,按" + policy + "补触发[" + first + "]");
+	}
+
+	/**
+	 * 定时任务的一次执行结束,补下一个错过的触发
+	 *
+	 * @param uuid
+	 */
+	private void releaseCatchUp(String uuid) {
+		Queue<Date> missed = catchUps.get(uuid);
+		if (missed == null) {
+			return;
+		}
+		Date fireTime = missed.poll();
+		if (missed.isEmpty()) {
+			catchUps.remove(uuid, missed);
+		}
+		if (fireTime != null) {
+			firingBatcher.fire(uuid, KettleMgrEnvironment.KETTLE_RECORD_SCHEDULE_CATCHUP_INTERVAL * 1000L);
+			logger.info("SchedulerRecord[" + uuid + "]补触发[" + fireTime + "],剩余" + missed.size() + "次");
+		}
+	}
+
 	/**
 	 * 更新重复任务的策略
-	 * 
+	 *
 	 * @param jobID
 	 * @param newCron
 	 * @throws Exception
@@ -155,44 +674,109 @@ public class KettleRecordPool {
 			throw new KettleException("添加SchedulerRecord任务失败,Record为Null!");
 		}
 		TriggerKey triggerKey = new TriggerKey(record.getUuid());
-		Trigger trigger = TriggerBuilder.newTrigger().withIdentity(record.getUuid()).startNow()
-				.withSchedule(CronScheduleBuilder.cronSchedule(record.getCronExpression())).build();
 		try {
 			if (scheduler.checkExists(triggerKey)) {
-				scheduler.rescheduleJob(triggerKey, trigger);
+				scheduler.rescheduleJob(triggerKey, schedulerTrigger(record));
 			} else {
-				JobDataMap newJobDataMap = new JobDataMap();
-				newJobDataMap.put("RECORD", record);
-				newJobDataMap.put("RECORDPOOL", this);
-				JobDetail jobDetail = JobBuilder.newJob(RecordSchedulerJob.class).withIdentity(record.getUuid())
-						.setJobData(newJobDataMap).build();
-				scheduler.scheduleJob(jobDetail, trigger);
+				scheduler.scheduleJob(schedulerJob(record), schedulerTrigger(record));
 			}
+			schedulerCrons.put(record.getUuid(), record.getCronExpression());
 		} catch (Exception ex) {
 			throw new KettleException("添加SchedulerRecord[" + record.getName() + "]失败!", ex);
 		}
 	}
 
 	/**
-	 * 删除
-	 * 
-	 * @param uuid
+	 * 批量添加定时任务,一次提交到调度器;Cron无效的定时任务跳过
+	 *
+	 * @param records
 	 * @throws KettleException
 	 */
-	public synchronized boolean deleteRecord(String uuid) {
-		recordPrioritizeQueue.remove(uuid);
-		recordQueue.remove(uuid);
-		recordCache.remove(uuid);
-		return true;
+	public void addSchedulerRecords(List<KettleRecord> records) throws KettleException {
+		Map<JobDetail, Set<? extends Trigger>> jobs = new HashMap<JobDetail, Set<? extends Trigger>>(records.size());
+		List<KettleRecord> scheduleds = new ArrayList<KettleRecord>(records.size());
+		for (KettleRecord record : records) {
+			try {
+				jobs.put(schedulerJob(record), Collections.singleton(schedulerTrigger(record)));
+				scheduleds.add(record);
+			} catch (Exception ex) {
+				logger.error("SchedulerRecord[" + record.getUuid() + "]的Cron表达式无效,已跳过!", ex);
+			}
+		}
+		try {
+			scheduler.scheduleJobs(jobs, true);
+		} catch (SchedulerException ex) {
+			throw new KettleException("批量添加SchedulerRecord" + jobs.size() + "个失败!", ex);
+		}
+		for (KettleRecord record : scheduleds) {
+			schedulerCrons.put(record.getUuid(), record.getCronExpression());
+		}
+	}
+
+	/**
+	 * 定时任务的触发器
+	 *
+	 * @param record
+	 * @return
+	 */
+	private Trigger schedulerTrigger(KettleRecord record) {
+		CronScheduleBuilder cronSchedule = CronScheduleBuilder.cronSchedule(record.getCronExpression());
+		String misfire = KettleMgrEnvironment.KETTLE_RECORD_SCHEDULE_MISFIRE;
+		if (KettleVariables.SCHEDULE_MISFIRE_SKIP.equalsIgnoreCase(misfire)) {
+			cronSchedule = cronSchedule.withMisfireHandlingInstructionDoNothing();
+		} else if (KettleVariables.SCHEDULE_MISFIRE_CATCH_UP.equalsIgnoreCase(misfire)) {
+			// 运行期间的错过只补一次,一次性补触发全部会在触发合并时被去重;停机期间的错过由recoverMisfire逐个补
+			cronSchedule = cronSchedule.withMisfireHandlingInstructionFireAndProceed();
+		} else {
+			cronSchedule = cronSchedule.withMisfireHandlingInstructionFireAndProceed();
+		}
+		return TriggerBuilder.newTrigger().withIdentity(record.getUuid()).startNow().withSchedule(cronSchedule)
+				.build();
+	}
+
+	/**
+	 * 定时任务的Job
+	 *
+	 * @param record
+	 * @return
+	 */
+	private JobDetail schedulerJob(KettleRecord record) {
+		JobDataMap newJobDataMap = new JobDataMap();
+		newJobDataMap.put("RECORD", record);
+		newJobDataMap.put("RECORDPOOL", this);
+		return JobBuilder.newJob(RecordSchedulerJob.class).withIdentity(record.getUuid()).setJobData(newJobDataMap)
+				.build();
+	}
+
+	/**
+	 * 删除,O(1):从索引移除并取走节点中的Record,Record随即可回收,计数与空位立即释放;
+	 * 队列中留下的空节点不在此处摘除(无锁队列不支持O(1)的中间删除),
+	 * 由取出方到达队首时丢弃(见poll),空节点只占一个对象头,数量不超过期间删除的次数
+	 *
+	 * @param uuid
+	 * @return 是否确实删除了任务池中的Record(含退避等待中的)
+	 */
+	public boolean deleteRecord(String uuid) {
+		boolean deleted = retryRecords.remove(uuid) != null;
+		RecordNode node = recordIndex.remove(uuid);
+		if (node != null && node.take() != null) {
+			recordCount.decrementAndGet();
+			if (node.queueClass != null) {
+				node.queueClass.depth.decrementAndGet();
+			}
+			signalNotFull();
+			deleted = true;
+		}
+		return deleted;
 	}
 
 	/**
 	 * 移除定时任务
-	 * 
+	 *
 	 * @param uuid
 	 * @throws KettleException
 	 */
-	public synchronized void removeSchedulerRecord(String uuid) throws KettleException {
+	public void removeSchedulerRecord(String uuid) throws KettleException {
 		try {
 			TriggerKey triggerKey = new TriggerKey(uuid);
 			JobKey jobKey = new JobKey(uuid, null);
@@ -201,51 +785,461 @@ public class KettleRecordPool {
 				scheduler.unscheduleJob(triggerKey);// 移除触发器
 				scheduler.deleteJob(jobKey);// 删除任务
 			}
+			schedulerCrons.remove(uuid);
+			catchUps.remove(uuid);
 			deleteRecord(uuid);
 		} catch (Exception ex) {
 			logger.error("RecordPool停止Record[" + uuid + "]的触发器失败!", ex);
 		}
 	}
 
+	/**
+	 * 与数据库中的定时任务同步:其他节点新增,修改或删除的定时任务在本节点生效
+	 *
+	 * @param records
+	 *            数据库中所有的定时任务
+	 */
+	public void syncSchedulerRecords(List<KettleRecord> records) {
+		Set<String> uuids = new HashSet<String>(records.size());
+		for (KettleRecord record : records) {
+			uuids.add(record.getUuid());
+			if (record.getCronExpression().equals(schedulerCrons.get(record.getUuid()))) {
+				continue;
+			}
+			try {
+				addOrModifySchedulerRecord(record);
+			} catch (Exception ex) {
+				logger.error("RecordPool同步定时任务[" + record.getUuid() + "]失败!", ex);
+			}
+		}
+		for (String uuid : new ArrayList<String>(schedulerCrons.keySet())) {
+			if (!uuids.contains(uuid)) {
+				try {
+					removeSchedulerRecord(uuid);
+				} catch (Exception ex) {
+					logger.error("RecordPool移除定时任务[" + uuid + "]失败!", ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 更新存活的管理节点,定时任务按节点重新分片
+	 *
+	 * @param nodes
+	 */
+	public void updateScheduleNodes(List<String> nodes) {
+		if (scheduleShard.update(nodes)) {
+			logger.info("定时任务的触发节点变化为:" + scheduleShard.getNodes());
+		}
+	}
+
+	/**
+	 * 定时任务是否由本节点触发,CLUSTER模式下按分片判断
+	 *
+	 * @param uuid
+	 * @return
+	 */
+	public boolean isScheduleOwner(String uuid) {
+		if (!"CLUSTER".equalsIgnoreCase(KettleMgrEnvironment.KETTLE_RECORD_SCHEDULE_MODE)) {
+			return true;
+		}
+		return scheduleShard.isOwner(uuid);
+	}
+
+	/**
+	 * 从队列中取出第一个有效的节点
+	 *
+	 * @param queue
+	 * @return
+	 */
+	private KettleRecord poll(Queue<RecordNode> queue) {
+		RecordNode node;
+		KettleRecord record;
+		while ((node = queue.poll()) != null) {
+			record = node.take();
+			if (record != null) {
+				record.setPrioritized(node.queueClass == null);
+				recordIndex.remove(record.getUuid(), node);
+				recordCount.decrementAndGet();
+				dequeueCount.incrementAndGet();
+				if (node.queueClass != null) {
+					node.queueClass.dequeued(record);
+				}
+				signalNotFull();
+				return record;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 加权公平出队:选择有Record且pass最小的类别,出队后pass增加stride(与权重成反比)
+	 *
+	 * depth先于节点入队增加,并发时可能depth>0而队列暂时为空;这样的类别本次跳过,每个类别最多尝试一次,
+	 * 均取不到时返回null,节点入队后的通知会触发下一次申请
+	 *
+	 * @return
+	 */
+	private KettleRecord pollFair() {
+		Set<RecordQueueClass> tried = null;
+		RecordQueueClass selected;
+		KettleRecord record;
+		while (true) {
+			selected = null;
+			for (RecordQueueClass queueClass : recordQueues.values()) {
+				if (queueClass.depth.get() > 0 && (tried == null || !tried.contains(queueClass))
+						&& (selected == null || queueClass.pass.get() < selected.pass.get())) {
+					selected = queueClass;
+				}
+			}
+			if (selected == null) {
+				return null;
+			}
+			record = poll(selected.returned);
+			if (record == null) {
+				record = poll(selected.queue);
+			}
+			if (record != null) {
+				long pass = selected.pass.addAndGet(selected.stride);
+				long now = virtualTime.get();
+				while (pass - selected.stride > now && !virtualTime.compareAndSet(now, pass - selected.stride)) {
+					now = virtualTime.get();
+				}
+				return record;
+			}
+			if (tried == null) {
+				tried = new HashSet<RecordQueueClass>();
+			}
+			tried.add(selected);
+		}
+	}
+
+	/**
+	 * 各队列类别的统计
+	 *
+	 * @return
+	 */
+	public List<KettleRecordQueueStat> getQueueStats() {
+		List<KettleRecordQueueStat> stats = new ArrayList<KettleRecordQueueStat>(recordQueues.size());
+		KettleRecordQueueStat stat;
+		for (RecordQueueClass queueClass : recordQueues.values()) {
+			stat = new KettleRecordQueueStat();
+			stat.setQueueClass(queueClass.name);
+			stat.setWeight(queueClass.weight);
+			stat.setDepth(queueClass.depth.get());
+			stat.setEnqueued(queueClass.enqueued.get());
+			stat.setDequeued(queueClass.waitTime.getCount());
+			stat.setMeanWait(queueClass.waitTime.getMean());
+			stat.setP99Wait(queueClass.waitTime.percentile(99));
+			stat.setMaxWait(queueClass.waitTime.getMax());
+			stats.add(stat);
+		}
+		return stats;
+	}
+
 	/**
 	 * 获取下一个,并在Pool中删除
-	 * 
+	 *
 	 * @return
 	 */
-	public synchronized KettleRecord nextRecord() {
-		KettleRecord record = null;
-		String recordUUID = null;
-		if (!recordPrioritizeQueue.isEmpty()) {
-			recordUUID = recordPrioritizeQueue.poll();
+	public KettleRecord nextRecord() {
+		KettleRecord record = poll(returnedPrioritizeQueue);
+		if (record == null) {
+			record = poll(recordPrioritizeQueue);
 		}
-		if (recordUUID == null && !recordQueue.isEmpty()) {
-			recordUUID = recordQueue.poll();
+		if (record == null) {
+			record = pollFair();
 		}
-		if (recordUUID != null) {
-			record = recordCache.remove(recordUUID);
+		if (record != null && record.getApplyTime() > 0) {
+			dispatchLatency.record(System.currentTimeMillis() - record.getApplyTime());
 		}
 		return record;
 	}
 
+	/**
+	 * 派发时延统计
+	 *
+	 * @return
+	 */
+	public KettleLatencyHistogram getDispatchLatency() {
+		return dispatchLatency;
+	}
+
 	/**
 	 * 任务数量
-	 * 
+	 *
 	 * @return
 	 */
 	public int size() {
-		return recordQueue.size() + recordPrioritizeQueue.size();
+		return recordCount.get();
+	}
+
+	/**
+	 * 原子地占用count个空位,与容量判断在同一次CAS中完成,并发添加不会超过KETTLE_RECORD_POOL_MAX
+	 *
+	 * @param count
+	 * @return 是否占用成功
+	 */
+	private boolean reserve(int count) {
+		Integer max = KettleMgrEnvironment.KETTLE_RECORD_POOL_MAX;
+		if (max == null || max < 1) {
+			recordCount.addAndGet(count);
+			return true;
+		}
+		int current;
+		do {
+			current = recordCount.get();
+			if (current + count > max) {
+				return false;
+			}
+		} while (!recordCount.compareAndSet(current, current + count));
+		return true;
+	}
+
+	/**
+	 * 退回未使用的空位
+	 *
+	 * @param count
+	 */
+	private void unreserve(int count) {
+		recordCount.addAndGet(-count);
+		signalNotFull();
 	}
 
 	/**
-	 * 任务数量验证
-	 * 
+	 * 任务池是否已满,KETTLE_RECORD_POOL_MAX为null或小于1时不判断
+	 *
 	 * @return
-	 * @throws KettleException
 	 */
-	private void check() throws KettleException {
-		if (KettleMgrEnvironment.KETTLE_RECORD_POOL_MAX != null
-				&& size() > KettleMgrEnvironment.KETTLE_RECORD_POOL_MAX) {
-			throw new KettleException("KettleRecordPool的任务数量已满,无法接受任务!");
+	public boolean isFull() {
+		return !hasCapacity(1);
+	}
+
+	/**
+	 * 任务池是否还能容纳count个任务
+	 *
+	 * @param count
+	 * @return
+	 */
+	public boolean hasCapacity(int count) {
+		Integer max = KettleMgrEnvironment.KETTLE_RECORD_POOL_MAX;
+		return max == null || max < 1 || size() + count <= max;
+	}
+
+	/**
+	 * 等待任务池出现空位
+	 *
+	 * @param timeout
+	 *            小于0表示一直等待
+	 * @param unit
+	 * @return 是否有空位
+	 * @throws InterruptedException
+	 */
+	public boolean awaitCapacity(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!isFull()) {
+			return true;
+		}
+		long nanos = timeout < 0 ? Long.MAX_VALUE : unit.toNanos(timeout);
+		capacityLock.lockInterruptibly();
+		// 取得锁后登记,等待锁时被中断不会遗留等待者;登记后再检查空位,不会错过通知
+		capacityWaiters.incrementAndGet();
+		try {
+			while (isFull()) {
+				if (nanos <= 0) {
+					return false;
+				}
+				// 分段等待,避免错过通知时长时间挂起
+				long slice = Math.min(nanos, TimeUnit.SECONDS.toNanos(1));
+				nanos -= slice - notFull.awaitNanos(slice);
+			}
+			return true;
+		} finally {
+			capacityWaiters.decrementAndGet();
+			capacityLock.unlock();
+		}
+	}
+
+	/**
+	 * 有等待者时通知任务池出现空位
+	 */
+	private void signalNotFull() {
+		if (capacityWaiters.get() > 0) {
+			capacityLock.lock();
+			try {
+				notFull.signalAll();
+			} finally {
+				capacityLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * 出队速率(每秒),至少间隔1秒采样一次
+	 *
+	 * @return
+	 */
+	public double getDequeueRate() {
+		synchronized (rateLock) {
+			long now = System.currentTimeMillis();
+			long elapsed = now - rateSampleTime;
+			if (elapsed >= 1000) {
+				long count = dequeueCount.get();
+				double current = (count - rateSampleCount) * 1000.0 / elapsed;
+				dequeueRate = dequeueRate == 0 ? current : 0.3 * current + 0.7 * dequeueRate;
+				rateSampleTime = now;
+				rateSampleCount = count;
+			}
+			return dequeueRate;
+		}
+	}
+
+	/**
+	 * 新申请进入任务池的预计等待时间(毫秒),按出队速率估算
+	 *
+	 * @return 无需等待返回0,无法估算(尚无出队)返回-1
+	 */
+	public long estimateWaitMillis() {
+		Integer max = KettleMgrEnvironment.KETTLE_RECORD_POOL_MAX;
+		if (max == null || max < 1) {
+			return 0;
+		}
+		int excess = size() - max + 1;
+		if (excess <= 0) {
+			return 0;
+		}
+		double rate = getDequeueRate();
+		if (rate <= 0) {
+			return -1;
+		}
+		return (long) (excess * 1000 / rate);
+	}
+
+	/**
+	 * 队列节点,出队与删除通过CAS竞争,只有一方能取到Record
+	 *
+	 * @author Administrator
+	 *
+	 */
+	private static class RecordNode {
+
+		private volatile KettleRecord record;
+
+		/**
+		 * 所属队列类别,优先队列为null
+		 */
+		private final RecordQueueClass queueClass;
+
+		private final AtomicBoolean taken = new AtomicBoolean(false);
+
+		private RecordNode(KettleRecord record, RecordQueueClass queueClass) {
+			this.record = record;
+			this.queueClass = queueClass;
+		}
+
+		/**
+		 * 取走Record,节点随即失效
+		 *
+		 * @return 已失效时返回null
+		 */
+		private KettleRecord take() {
+			if (!taken.compareAndSet(false, true)) {
+				return null;
+			}
+			KettleRecord result = record;
+			record = null;
+			return result;
+		}
+	}
+
+	/**
+	 * 队列类别
+	 *
+	 * @author Administrator
+	 *
+	 */
+	private class RecordQueueClass {
+
+		/**
+		 * stride的基数
+		 */
+		private static final long STRIDE_BASE = 1 << 20;
+
+		private final String name;
+
+		private final int weight;
+
+		/**
+		 * 出队一次pass的增量,与权重成反比
+		 */
+		private final long stride;
+
+		private final Queue<RecordNode> queue = new ConcurrentLinkedQueue<RecordNode>();
+
+		/**
+		 * 取出后退回的Record,先于queue出队
+		 */
+		private final Queue<RecordNode> returned = new ConcurrentLinkedQueue<RecordNode>();
+
+		/**
+		 * 有效Record数量
+		 */
+		private final AtomicInteger depth = new AtomicInteger(0);
+
+		private final AtomicLong pass = new AtomicLong(0);
+
+		private final AtomicLong enqueued = new AtomicLong(0);
+
+		/**
+		 * 等待时间
+		 */
+		private final KettleLatencyHistogram waitTime;
+
+		private RecordQueueClass(String name, int weight) {
+			this.name = name;
+			this.weight = weight < 1 ? 1 : weight;
+			this.stride = STRIDE_BASE / this.weight;
+			this.waitTime = new KettleLatencyHistogram("RecordWaitTime-" + name);
+		}
+
+		/**
+		 * 入队,空闲后重新激活的类别不能使用积累的额度
+		 *
+		 * @param node
+		 */
+		private void offer(RecordNode node) {
+			if (depth.getAndIncrement() == 0) {
+				long now = virtualTime.get();
+				long old = pass.get();
+				while (old < now && !pass.compareAndSet(old, now)) {
+					old = pass.get();
+				}
+			}
+			enqueued.incrementAndGet();
+			queue.offer(node);
+		}
+
+		/**
+		 * 退回取出后未能派发的Record,撤销出队时增加的pass,保持原来的公平位置
+		 *
+		 * @param node
+		 */
+		private void giveBack(RecordNode node) {
+			depth.incrementAndGet();
+			pass.addAndGet(-stride);
+			returned.offer(node);
+		}
+
+		/**
+		 * 出队统计
+		 *
+		 * @param record
+		 */
+		private void dequeued(KettleRecord record) {
+			depth.decrementAndGet();
+			if (record.getApplyTime() > 0) {
+				waitTime.record(System.currentTimeMillis() - record.getApplyTime());
+			}
 		}
 	}
 }
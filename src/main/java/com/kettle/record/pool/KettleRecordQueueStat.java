@@ -0,0 +1,120 @@
+package com.kettle.record.pool;
+
+/**
+ * 任务池中队列类别的统计,北向
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRecordQueueStat {
+	/**
+	 * 队列类别
+	 */
+	private String queueClass;
+
+	/**
+	 * 权重
+	 */
+	private int weight;
+
+	/**
+	 * 当前排队数量
+	 */
+	private int depth;
+
+	/**
+	 * 累计入队数量
+	 */
+	private long enqueued;
+
+	/**
+	 * 累计出队数量
+	 */
+	private long dequeued;
+
+	/**
+	 * 平均等待时间(毫秒)
+	 */
+	private long meanWait;
+
+	/**
+	 * 99分位等待时间(毫秒)
+	 */
+	private long p99Wait;
+
+	/**
+	 * 最大等待时间(毫秒)
+	 */
+	private long maxWait;
+
+	public String getQueueClass() {
+		return queueClass;
+	}
+
+	public void setQueueClass(String queueClass) {
+		this.queueClass = queueClass;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	public void setWeight(int weight) {
+		this.weight = weight;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	public long getEnqueued() {
+		return enqueued;
+	}
+
+	public void setEnqueued(long enqueued) {
+		this.enqueued = enqueued;
+	}
+
+	public long getDequeued() {
+		return dequeued;
+	}
+
+	public void setDequeued(long dequeued) {
+		this.dequeued = dequeued;
+	}
+
+	public long getMeanWait() {
+		return meanWait;
+	}
+
+	public void setMeanWait(long meanWait) {
+		this.meanWait = meanWait;
+	}
+
+	public long getP99Wait() {
+		return p99Wait;
+	}
+
+	public void setP99Wait(long p99Wait) {
+		this.p99Wait = p99Wait;
+	}
+
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	@Override
+	public String toString() {
+		return "KettleRecordQueueStat[" + queueClass + ",weight=" + weight + ",depth=" + depth + ",enqueued="
+				+ enqueued + ",dequeued=" + dequeued + ",meanWait=" + meanWait + ",p99Wait=" + p99Wait
+				+ ",maxWait=" + maxWait + "]";
+	}
+}
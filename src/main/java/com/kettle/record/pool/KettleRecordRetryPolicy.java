@@ -0,0 +1,181 @@
+package com.kettle.record.pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kettle.core.KettleVariables;
+import com.kettle.core.instance.KettleMgrEnvironment;
+import com.kettle.record.KettleRecord;
+
+/**
+ * Record派发失败的重试策略:最大次数,指数退避加抖动,可重试的异常类型
+ *
+ * 按队列类别配置(KETTLE_RECORD_RETRY_MAX_类别名等),未配置时使用全局配置;Record自身的最大次数优先
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRecordRetryPolicy {
+
+	/**
+	 * 日志
+	 */
+	private static Logger logger = LoggerFactory.getLogger(KettleRecordRetryPolicy.class);
+
+	/**
+	 * 队列类别的策略
+	 */
+	private static final ConcurrentMap<String, KettleRecordRetryPolicy> policies = new ConcurrentHashMap<String, KettleRecordRetryPolicy>();
+
+	private static final Random random = new Random();
+
+	/**
+	 * 最大重试次数
+	 */
+	private final int maxRetry;
+
+	/**
+	 * 首次重试的退避时间(毫秒)
+	 */
+	private final long backoff;
+
+	/**
+	 * 退避时间上限(毫秒)
+	 */
+	private final long maxBackoff;
+
+	/**
+	 * 可重试的异常类型,异常或其Cause为其中之一时重试
+	 */
+	private final List<Class<?>> retryables = new ArrayList<Class<?>>();
+
+	private KettleRecordRetryPolicy(int maxRetry, long backoff, long maxBackoff, String exceptions) {
+		this.maxRetry = maxRetry;
+		this.backoff = backoff < 1 ? 1 : backoff;
+		this.maxBackoff = maxBackoff < this.backoff ? this.backoff : maxBackoff;
+		if (exceptions == null) {
+			return;
+		}
+		for (String className : exceptions.split(",")) {
+			if (className.trim().isEmpty()) {
+				continue;
+			}
+			try {
+				retryables.add(Class.forName(className.trim()));
+			} catch (ClassNotFoundException ex) {
+				logger.warn("重试策略的异常类型[" + className.trim() + "]不存在,已忽略!");
+			}
+		}
+	}
+
+	/**
+	 * 获取队列类别的重试策略
+	 *
+	 * @param queueClass
+	 * @return
+	 */
+	public static KettleRecordRetryPolicy of(String queueClass) {
+		String name = queueClass == null || queueClass.trim().isEmpty() ? KettleVariables.RECORD_QUEUE_CLASS_DEFAULT
+				: queueClass.trim();
+		KettleRecordRetryPolicy policy = policies.get(name);
+		if (policy == null) {
+			KettleRecordRetryPolicy newPolicy = new KettleRecordRetryPolicy(
+					KettleMgrEnvironment.NVLInt("KETTLE_RECORD_RETRY_MAX_" + name,
+							KettleMgrEnvironment.KETTLE_RECORD_RETRY_MAX),
+					KettleMgrEnvironment.NVLInt("KETTLE_RECORD_RETRY_BACKOFF_" + name,
+							KettleMgrEnvironment.KETTLE_RECORD_RETRY_BACKOFF),
+					KettleMgrEnvironment.NVLInt("KETTLE_RECORD_RETRY_BACKOFF_MAX_" + name,
+							KettleMgrEnvironment.KETTLE_RECORD_RETRY_BACKOFF_MAX),
+					KettleMgrEnvironment.NVLStr("KETTLE_RECORD_RETRY_EXCEPTIONS_" + name,
+							KettleMgrEnvironment.KETTLE_RECORD_RETRY_EXCEPTIONS));
+			policy = policies.putIfAbsent(name, newPolicy);
+			if (policy == null) {
+				policy = newPolicy;
+			}
+		}
+		return policy;
+	}
+
+	/**
+	 * 获取Record的重试策略
+	 *
+	 * @param record
+	 * @return
+	 */
+	public static KettleRecordRetryPolicy of(KettleRecord record) {
+		return of(record.getQueueClass());
+	}
+
+	/**
+	 * 异常是否可重试
+	 *
+	 * @param ex
+	 * @return
+	 */
+	public boolean isRetryable(Throwable ex) {
+		Throwable cause = ex;
+		while (cause != null) {
+			for (Class<?> retryable : retryables) {
+				if (retryable.isInstance(cause)) {
+					return true;
+				}
+			}
+			if (cause.getCause() == cause) {
+				break;
+			}
+			cause = cause.getCause();
+		}
+		return false;
+	}
+
+	/**
+	 * Record是否可以再次重试
+	 *
+	 * @param record
+	 * @param ex
+	 * @return
+	 */
+	public boolean canRetry(KettleRecord record, Throwable ex) {
+		return canRetry(record, record.getRetryCount(), ex);
+	}
+
+	/**
+	 * 已失败attempts次后是否可以再次重试
+	 *
+	 * @param record
+	 * @param attempts
+	 * @param ex
+	 * @return
+	 */
+	public boolean canRetry(KettleRecord record, int attempts, Throwable ex) {
+		int max = record.getRetryMax() == null ? maxRetry : record.getRetryMax();
+		return attempts < max && isRetryable(ex);
+	}
+
+	/**
+	 * 第attempt次重试的退避时间:指数增长到上限,取其一半加随机的另一半
+	 *
+	 * @param attempt
+	 *            从1开始
+	 * @return 毫秒
+	 */
+	public long backoffMillis(int attempt) {
+		long delay = maxBackoff;
+		int shift = attempt < 1 ? 0 : attempt - 1;
+		if (shift < 62 && backoff <= maxBackoff >> shift) {
+			delay = backoff << shift;
+		}
+		long half = delay / 2;
+		return half + (long) (random.nextDouble() * (delay - half + 1));
+	}
+
+	public int getMaxRetry() {
+		return maxRetry;
+	}
+}
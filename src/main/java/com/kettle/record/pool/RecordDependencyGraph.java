@@ -0,0 +1,211 @@
+package com.kettle.record.pool;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.kettle.record.KettleRecord;
+
+/**
+ * Record的依赖图,保存等待上游的Record
+ *
+ * 每条边只被满足一次:上游完成时或申请时查询到上游已完成,谁先到由谁移除;释放与取消的开销与边数成正比
+ *
+ * @author Administrator
+ *
+ */
+class RecordDependencyGraph {
+
+	/**
+	 * 等待中的Record
+	 */
+	private final Map<String, WaitingRecord> waitings = new HashMap<String, WaitingRecord>();
+
+	/**
+	 * 上游到下游
+	 */
+	private final Map<String, Set<String>> downstreams = new HashMap<String, Set<String>>();
+
+	/**
+	 * 登记等待,Record的所有上游均视为未完成
+	 *
+	 * @param record
+	 * @return 是否登记,已登记或没有上游时返回false
+	 */
+	synchronized boolean hold(KettleRecord record) {
+		if (record.getUpstreams().isEmpty() || waitings.containsKey(record.getUuid())) {
+			return false;
+		}
+		WaitingRecord waiting = new WaitingRecord(record);
+		for (String upstream : record.getUpstreams()) {
+			if (waiting.pendings.add(upstream)) {
+				Set<String> children = downstreams.get(upstream);
+				if (children == null) {
+					children = new HashSet<String>();
+					downstreams.put(upstream, children);
+				}
+				children.add(record.getUuid());
+			}
+		}
+		waitings.put(record.getUuid(), waiting);
+		return true;
+	}
+
+	/**
+	 * 一条边被满足
+	 *
+	 * @param uuid
+	 * @param upstream
+	 * @return 最后一个上游被满足时返回该Record,否则null
+	 */
+	synchronized KettleRecord satisfy(String uuid, String upstream) {
+		WaitingRecord waiting = waitings.get(uuid);
+		if (waiting == null || !waiting.pendings.remove(upstream)) {
+			return null;
+		}
+		Set<String> children = downstreams.get(upstream);
+		if (children != null) {
+			children.remove(uuid);
+			if (children.isEmpty()) {
+				downstreams.remove(upstream);
+			}
+		}
+		if (waiting.pendings.isEmpty()) {
+			waitings.remove(uuid);
+			return waiting.record;
+		}
+		return null;
+	}
+
+	/**
+	 * 上游完成
+	 *
+	 * @param upstream
+	 * @return 可以执行的Record
+	 */
+	synchronized List<KettleRecord> finished(String upstream) {
+		Set<String> children = downstreams.get(upstream);
+		if (children == null) {
+			return new ArrayList<KettleRecord>(0);
+		}
+		List<KettleRecord> readies = new ArrayList<KettleRecord>(children.size());
+		KettleRecord ready;
+		for (String child : new ArrayList<String>(children)) {
+			ready = satisfy(child, upstream);
+			if (ready != null) {
+				readies.add(ready);
+			}
+		}
+		return readies;
+	}
+
+	/**
+	 * 上游失败,取消所有等待中的下游(传递)
+	 *
+	 * @param upstream
+	 * @return 被取消的Record
+	 */
+	synchronized List<KettleRecord> failed(String upstream) {
+		List<KettleRecord> cancels = new ArrayList<KettleRecord>();
+		LinkedList<String> failures = new LinkedList<String>();
+		failures.add(upstream);
+		Set<String> children;
+		WaitingRecord waiting;
+		while (!failures.isEmpty()) {
+			children = downstreams.remove(failures.poll());
+			if (children == null) {
+				continue;
+			}
+			for (String child : children) {
+				waiting = remove(child);
+				if (waiting != null) {
+					cancels.add(waiting.record);
+					failures.add(child);
+				}
+			}
+		}
+		return cancels;
+	}
+
+	/**
+	 * 取消一个等待中的Record及其下游
+	 *
+	 * @param uuid
+	 * @return 被取消的Record,该Record不在等待中时仅包含下游
+	 */
+	synchronized List<KettleRecord> cancel(String uuid) {
+		WaitingRecord waiting = remove(uuid);
+		List<KettleRecord> cancels = failed(uuid);
+		if (waiting != null) {
+			cancels.add(0, waiting.record);
+		}
+		return cancels;
+	}
+
+	/**
+	 * 移除等待中的Record,并移除其上游到它的边
+	 *
+	 * @param uuid
+	 * @return
+	 */
+	private WaitingRecord remove(String uuid) {
+		WaitingRecord waiting = waitings.remove(uuid);
+		if (waiting == null) {
+			return null;
+		}
+		Set<String> children;
+		for (String upstream : waiting.pendings) {
+			children = downstreams.get(upstream);
+			if (children != null) {
+				children.remove(uuid);
+				if (children.isEmpty()) {
+					downstreams.remove(upstream);
+				}
+			}
+		}
+		return waiting;
+	}
+
+	/**
+	 * 是否等待中
+	 *
+	 * @param uuid
+	 * @return
+	 */
+	synchronized boolean isWaiting(String uuid) {
+		return waitings.containsKey(uuid);
+	}
+
+	/**
+	 * 等待中的数量
+	 *
+	 * @return
+	 */
+	synchronized int size() {
+		return waitings.size();
+	}
+
+	/**
+	 * 等待中的Record
+	 *
+	 * @author Administrator
+	 *
+	 */
+	private static class WaitingRecord {
+
+		private final KettleRecord record;
+
+		/**
+		 * 未完成的上游
+		 */
+		private final Set<String> pendings = new HashSet<String>();
+
+		private WaitingRecord(KettleRecord record) {
+			this.record = record;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package com.kettle.record.pool;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kettle.core.db.KettleDBClient;
+import com.kettle.core.instance.KettleMgrEnvironment;
+import com.kettle.core.instance.KettleMgrInstance;
+import com.kettle.record.KettleRecord;
+
+/**
+ * 定时任务触发的合并:同一时刻触发的定时任务合并为一次批量查询,一次批量申请和一次批量入池
+ *
+ * 配置了KETTLE_RECORD_SCHEDULE_PACE时按秒限速,且每秒申请的数量不超过远端空闲槽位减去任务池中的数量,其余留到下一秒
+ *
+ * @author Administrator
+ *
+ */
+class ScheduleFiringBatcher {
+
+	/**
+	 * 日志
+	 */
+	private static Logger logger = LoggerFactory.getLogger(ScheduleFiringBatcher.class);
+
+	/**
+	 * 合并窗口(毫秒),首个触发后等待同一时刻的其他触发
+	 */
+	private static final long WINDOW_MILLIS = 200;
+
+	/**
+	 * 每批的最大数量
+	 */
+	private static final int BATCH_MAX = 1000;
+
+	/**
+	 * 限速的周期(毫秒)
+	 */
+	private static final long PACE_PERIOD_MILLIS = 1000;
+
+	/**
+	 * 任务池
+	 */
+	private final KettleRecordPool recordPool;
+
+	/**
+	 * 待处理的触发
+	 */
+	private final Queue<String> firings = new ConcurrentLinkedQueue<String>();
+
+	/**
+	 * 是否已安排处理
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	/**
+	 * 处理线程
+	 */
+	private final ScheduledExecutorService executor = Executors
+			.newSingleThreadScheduledExecutor(KettleRecordPool.daemonThreads("KettleScheduleFiring"));
+
+	ScheduleFiringBatcher(KettleRecordPool recordPool) {
+		this.recordPool = recordPool;
+	}
+
+	/**
+	 * 停止,未处理的触发丢弃
+	 */
+	void shutdown() {
+		executor.shutdownNow();
+		firings.clear();
+	}
+
+	/**
+	 * 登记一次触发
+	 *
+	 * @param uuid
+	 * @param delayMillis
+	 *            打散或补触发的延时
+	 */
+	void fire(final String uuid, long delayMillis) {
+		if (delayMillis > 0) {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					fire(uuid, 0);
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+			return;
+		}
+		firings.offer(uuid);
+		scheduleFlush(WINDOW_MILLIS);
+	}
+
+	/**
+	 * 安排处理
+	 *
+	 * @param delayMillis
+	 */
+	private void scheduleFlush(long delayMillis) {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * 处理已登记的触发,处理期间新的触发安排到下一次;超过限速的留到下一周期
+	 */
+	private void flush() {
+		scheduled.set(false);
+		int allowance = allowance();
+		Set<String> batch = new LinkedHashSet<String>();
+		String uuid;
+		while (allowance > 0 && (uuid = firings.poll()) != null) {
+			if (batch.add(uuid)) {
+				allowance--;
+			}
+			if (batch.size() >= BATCH_MAX) {
+				apply(new ArrayList<String>(batch));
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			apply(new ArrayList<String>(batch));
+		}
+		if (!firings.isEmpty()) {
+			scheduleFlush(PACE_PERIOD_MILLIS);
+		}
+	}
+
+	/**
+	 * 本周期可申请的数量
+	 *
+	 * @return
+	 */
+	private int allowance() {
+		int pace = KettleMgrEnvironment.KETTLE_RECORD_SCHEDULE_PACE;
+		if (pace <= 0) {
+			return Integer.MAX_VALUE;
+		}
+		int free = KettleMgrInstance.kettleMgrEnvironment.getRemotePool().getFreeSlots() - recordPool.size();
+		return Math.max(0, Math.min(pace, free));
+	}
+
+	/**
+	 * 批量申请
+	 *
+	 * @param uuids
+	 */
+	private void apply(List<String> uuids) {
+		KettleDBClient dbClient = KettleMgrInstance.kettleMgrEnvironment.getDbClient();
+		try {
+			List<KettleRecord> records = dbClient.querySchedulerRecords(uuids);
+			Set<String> exists = new HashSet<String>(records.size());
+			List<KettleRecord> applies = new ArrayList<KettleRecord>(records.size());
+			for (KettleRecord record : records) {
+				exists.add(record.getUuid());
+				if (record.isRegiste() || record.isFinished() || record.isError()) {
+					applies.add(record);
+				} else {
+					logger.debug("Kettle向任务队列添加SchedulerRecord[" + record.getUuid() + "]由于状态为:" + record.getStatus()
+							+ "而无法添加!");
+				}
+			}
+			// 任务不存在了直接终止
+			for (String uuid : uuids) {
+				if (!exists.contains(uuid)) {
+					recordPool.removeSchedulerRecord(uuid);
+				}
+			}
+			List<KettleRecord> claimed = dbClient.applySchedulerRecords(applies);
+			int added = recordPool.addPrioritizeRecords(claimed);
+			logger.debug("Kettle批量触发SchedulerRecord" + uuids.size() + "个,申请" + claimed.size() + "个,入池" + added
+					+ "个,任务池任务" + recordPool.size());
+		} catch (Exception ex) {
+			logger.error("Kettle批量触发SchedulerRecord" + uuids.size() + "个发生异常!", ex);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.kettle.record.pool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 定时任务在存活管理节点间的分片
+ *
+ * 按UUID与节点标识的哈希取最大者作为触发节点(最高随机权重),节点加入或失联时只有该节点的分片移动
+ *
+ * @author Administrator
+ *
+ */
+class ScheduleShard {
+
+	/**
+	 * 本节点
+	 */
+	private final String self;
+
+	/**
+	 * 存活的节点,有序
+	 */
+	private volatile List<String> nodes;
+
+	ScheduleShard(String self) {
+		this.self = self;
+		this.nodes = Collections.singletonList(self);
+	}
+
+	/**
+	 * 更新存活的节点,本节点始终存活
+	 *
+	 * @param aliveNodes
+	 * @return 节点是否变化
+	 */
+	synchronized boolean update(List<String> aliveNodes) {
+		List<String> newNodes = new ArrayList<String>(aliveNodes.size() + 1);
+		for (String node : aliveNodes) {
+			if (node != null && !newNodes.contains(node)) {
+				newNodes.add(node);
+			}
+		}
+		if (!newNodes.contains(self)) {
+			newNodes.add(self);
+		}
+		Collections.sort(newNodes);
+		if (newNodes.equals(nodes)) {
+			return false;
+		}
+		nodes = Collections.unmodifiableList(newNodes);
+		return true;
+	}
+
+	/**
+	 * 触发该UUID的节点
+	 *
+	 * @param uuid
+	 * @return
+	 */
+	String ownerOf(String uuid) {
+		String owner = null;
+		long max = 0;
+		long weight;
+		for (String node : nodes) {
+			weight = weight(node, uuid);
+			if (owner == null || weight > max) {
+				owner = node;
+				max = weight;
+			}
+		}
+		return owner;
+	}
+
+	/**
+	 * 是否由本节点触发
+	 *
+	 * @param uuid
+	 * @return
+	 */
+	boolean isOwner(String uuid) {
+		return self.equals(ownerOf(uuid));
+	}
+
+	/**
+	 * 存活的节点
+	 *
+	 * @return
+	 */
+	List<String> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * 节点与UUID的权重,对两者的哈希做64位混合
+	 *
+	 * @param node
+	 * @param uuid
+	 * @return
+	 */
+	private static long weight(String node, String uuid) {
+		long h = node.hashCode() * 0x9E3779B97F4A7C15L + uuid.hashCode();
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB93E1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
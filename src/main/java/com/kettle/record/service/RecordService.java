@@ -3,10 +3,20 @@ package com.kettle.record.service;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.pentaho.di.core.exception.KettleException;
@@ -14,16 +24,21 @@ import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.job.entries.special.JobEntrySpecial;
 import org.pentaho.di.job.entry.JobEntryCopy;
 import org.pentaho.di.repository.RepositoryDirectory;
+import org.pentaho.di.www.SlaveServerJobStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.kettle.core.KettleVariables;
 import com.kettle.core.bean.KettleJobEntireDefine;
 import com.kettle.core.db.KettleDBClient;
+import com.kettle.core.instance.KettleMgrEnvironment;
 import com.kettle.core.instance.KettleMgrInstance;
+import com.kettle.core.repo.KettleJobExporter;
 import com.kettle.core.repo.KettleRepositoryClient;
 import com.kettle.record.KettleRecord;
+import com.kettle.record.pool.KettleRecordAdmission;
 import com.kettle.record.pool.KettleRecordPool;
+import com.kettle.remote.KettleRemoteClient;
 
 /**
  * Record的服务
@@ -38,6 +53,11 @@ public abstract class RecordService {
      */
     private static Logger logger = LoggerFactory.getLogger(RecordService.class);
 
+    /**
+     * 启动恢复的最大并行远端数
+     */
+    private static final int RECOVER_THREADS = 8;
+
     /**
      * Kettle资源库
      */
@@ -53,6 +73,11 @@ public abstract class RecordService {
      */
     protected final KettleRecordPool recordPool;
 
+    /**
+     * 准入控制
+     */
+    protected final KettleRecordAdmission admission = new KettleRecordAdmission();
+
     /**
      * 构造器
      * 
@@ -62,15 +87,61 @@ public abstract class RecordService {
 	recordPool = KettleMgrInstance.kettleMgrEnvironment.getRecordPool();
 	dbClient = KettleMgrInstance.kettleMgrEnvironment.getDbClient();
 	repositoryClient = KettleMgrInstance.kettleMgrEnvironment.getRepositoryClient();
+	// 先确定分片,再补触发停机期间错过的定时任务
+	heartbeat();
 	try {
-	    for (KettleRecord record : dbClient.allSchedulerRecord()) {
-		recordPool.addOrModifySchedulerRecord(record);
+	    List<KettleRecord> schedulers = dbClient.allSchedulerRecord();
+	    recordPool.addSchedulerRecords(schedulers);
+	    for (KettleRecord record : schedulers) {
+		recordPool.recoverMisfire(record);
 	    }
 	} catch (Exception ex) {
 	    logger.error("RecordService初始化异常,定时任务加载失败!!!", ex);
 	}
     }
 
+    /**
+     * 是否集群触发定时任务
+     * 
+     * @return
+     */
+    private boolean isScheduleCluster() {
+	return "CLUSTER".equalsIgnoreCase(KettleMgrEnvironment.KETTLE_RECORD_SCHEDULE_MODE);
+    }
+
+    /**
+     * 集群模式下登记本节点的心跳,并按存活节点重新分片定时任务
+     * 
+     * @return 是否成功
+     */
+    private boolean heartbeat() {
+	if (!isScheduleCluster()) {
+	    return false;
+	}
+	try {
+	    dbClient.heartbeatNode();
+	    recordPool.updateScheduleNodes(dbClient.aliveNodes());
+	    return true;
+	} catch (Exception ex) {
+	    logger.error("管理节点心跳发生异常!", ex);
+	    return false;
+	}
+    }
+
+    /**
+     * 集群模式下的心跳,并同步其他节点新增,修改或删除的定时任务
+     */
+    public void syncCluster() {
+	if (!heartbeat()) {
+	    return;
+	}
+	try {
+	    recordPool.syncSchedulerRecords(dbClient.allSchedulerRecord());
+	} catch (Exception ex) {
+	    logger.error("同步定时任务发生异常!", ex);
+	}
+    }
+
     /**
      * 清理空的目录
      * 
@@ -106,10 +177,43 @@ public abstract class RecordService {
 	if (jobStart.isRepeat() || jobStart.getSchedulerType() != JobEntrySpecial.NOSCHEDULING) {
 	    throw new KettleException("JobMeta的核心Job[" + jobEntire.getMainJob().getName() + "]必须是即时任务!");
 	}
+	for (String upstream : jobEntire.getUpstreams()) {
+	    if (upstream == null || !upstream.matches("[0-9A-Za-z_\\-]+")) {
+		throw new KettleException("JobMeta[" + jobEntire.getMainJob().getName() + "]的上游[" + upstream + "]不是合法的UUID!");
+	    }
+	}
+    }
+
+    /**
+     * 不保存到资源库的Job只能立即执行
+     * 
+     * @param jobEntire
+     * @throws KettleException
+     */
+    private void checkNotInline(KettleJobEntireDefine jobEntire) throws KettleException {
+	if (jobEntire.isInline()) {
+	    throw new KettleException("JobMeta[" + jobEntire.getMainJob().getName() + "]不保存到资源库,只能立即执行!");
+	}
+    }
+
+    /**
+     * 在内存中导出KettleJobEntireDefine,不经过资源库
+     * 
+     * @param jobEntire
+     * @return
+     * @throws KettleException
+     */
+    private KettleRecord exportJobEntire(KettleJobEntireDefine jobEntire) throws KettleException {
+	KettleRecord record = new KettleRecord();
+	record.setUuid(jobEntire.getUuid());
+	record.setJobid(KettleVariables.RECORD_JOBID_INLINE);
+	record.setName(jobEntire.getMainJob().getName());
+	record.setDefinition(KettleJobExporter.export(jobEntire));
+	return record;
     }
 
     /**
-     * 将KettleJobEntireDefine保存到Kettle资源库
+     * 将KettleJobEntireDefine保存到Kettle资源库,不保存到资源库的只导出
      * 
      * @param jobEntire
      * @return
@@ -118,7 +222,13 @@ public abstract class RecordService {
     private KettleRecord savejobEntire2KettleRepo(KettleJobEntireDefine jobEntire) throws KettleException {
 	SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
 	jobEntire.setUuid(UUID.randomUUID().toString().replace("-", ""));
-	KettleRecord record = repositoryClient.saveJobEntireDefine(jobEntire, df.format(new Date()));
+	KettleRecord record = jobEntire.isInline() ? exportJobEntire(jobEntire)
+		: repositoryClient.saveJobEntireDefine(jobEntire, df.format(new Date()));
+	record.setQueueClass(jobEntire.getQueueClass());
+	record.setRetryMax(jobEntire.getRetryMax());
+	record.setIdempotent(jobEntire.isIdempotent());
+	record.setScheduleJitter(jobEntire.getScheduleJitter());
+	record.getUpstreams().addAll(jobEntire.getUpstreams());
 	return record;
     }
 
@@ -131,21 +241,342 @@ public abstract class RecordService {
      */
     public KettleRecord excuteJobDirectly(KettleJobEntireDefine jobEntire) throws KettleException {
 	checkKettleJobEntireDefine(jobEntire);
+	if (recordPool.isFull()) {
+	    throw new KettleException("Job申请执行失败,任务池已满,预计等待" + recordPool.estimateWaitMillis() + "ms!");
+	}
+	if (!admission.tryAcquire(jobEntire.getQueueClass())) {
+	    throw new KettleException("Job申请执行失败,申请过于频繁,预计等待"
+		    + admission.estimateWaitMillis(jobEntire.getQueueClass()) + "ms!");
+	}
+	return applyJobEntire(jobEntire);
+    }
+
+    /**
+     * 立即执行,在超时时间内等待准入及任务池空位;等待空位超时或被中断时退还已获取的令牌
+     * 
+     * @param jobEntire
+     * @param timeout
+     *            小于0表示一直等待
+     * @param unit
+     * @return
+     * @throws KettleException
+     */
+    public KettleRecord excuteJobDirectly(KettleJobEntireDefine jobEntire, long timeout, TimeUnit unit)
+	    throws KettleException {
+	checkKettleJobEntireDefine(jobEntire);
+	long deadline = System.nanoTime() + (timeout < 0 ? 0 : unit.toNanos(timeout));
+	try {
+	    if (!admission.acquire(jobEntire.getQueueClass(), timeout, unit)) {
+		throw new KettleException("Job申请执行超时,申请过于频繁,预计等待"
+			+ admission.estimateWaitMillis(jobEntire.getQueueClass()) + "ms!");
+	    }
+	} catch (InterruptedException ex) {
+	    Thread.currentThread().interrupt();
+	    throw new KettleException("Job申请执行被中断!", ex);
+	}
+	try {
+	    if (!recordPool.awaitCapacity(timeout < 0 ? -1 : deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+		admission.refund(jobEntire.getQueueClass());
+		throw new KettleException("Job申请执行超时,任务池已满,预计等待" + recordPool.estimateWaitMillis() + "ms!");
+	    }
+	} catch (InterruptedException ex) {
+	    admission.refund(jobEntire.getQueueClass());
+	    Thread.currentThread().interrupt();
+	    throw new KettleException("Job申请执行被中断!", ex);
+	}
+	return applyJobEntire(jobEntire);
+    }
+
+    /**
+     * 尝试立即执行,不等待;未被受理时返回null,可通过estimateWaitMillis获取预计等待时间
+     * 
+     * @param jobEntire
+     * @return
+     * @throws KettleException
+     */
+    public KettleRecord tryExcuteJobDirectly(KettleJobEntireDefine jobEntire) throws KettleException {
+	checkKettleJobEntireDefine(jobEntire);
+	if (recordPool.isFull() || !admission.tryAcquire(jobEntire.getQueueClass())) {
+	    return null;
+	}
+	return applyJobEntire(jobEntire);
+    }
+
+    /**
+     * 申请执行的预计等待时间(毫秒)
+     * 
+     * @param queueClass
+     * @return 无法估算时返回-1
+     */
+    public long estimateWaitMillis(String queueClass) {
+	long poolWait = recordPool.estimateWaitMillis();
+	if (poolWait < 0) {
+	    return -1;
+	}
+	return Math.max(poolWait, admission.estimateWaitMillis(queueClass));
+    }
+
+    /**
+     * 保存并进入任务池,调用前需通过准入;任一步骤失败时退还准入的令牌
+     * 
+     * @param jobEntire
+     * @return
+     * @throws KettleException
+     */
+    private KettleRecord applyJobEntire(KettleJobEntireDefine jobEntire) throws KettleException {
+	boolean applied = false;
+	try {
+	    KettleRecord record = saveAndPoolJobEntire(jobEntire);
+	    applied = true;
+	    return record;
+	} finally {
+	    if (!applied) {
+		admission.refund(jobEntire.getQueueClass());
+	    }
+	}
+    }
+
+    /**
+     * 保存并进入任务池
+     * 
+     * 先持久化再进入任务池:槽位领取后按数据库中的归属及版本fence,行不存在时会判定为失去租约
+     * 
+     * @param jobEntire
+     * @return
+     * @throws KettleException
+     */
+    private KettleRecord saveAndPoolJobEntire(KettleJobEntireDefine jobEntire) throws KettleException {
 	KettleRecord record = savejobEntire2KettleRepo(jobEntire);
 	record.setStatus(KettleVariables.RECORD_STATUS_APPLY);
-	if (recordPool.addRecord(record)) {
-	    try {
-		dbClient.insertRecord(record);
-	    } catch (KettleException ex) {
-		recordPool.deleteRecord(record.getUuid());
-		throw new KettleException("Job申请执行失败!", ex);
+	try {
+	    dbClient.insertRecord(record);
+	} catch (KettleException ex) {
+	    dbClient.deleteRecordNE(record.getUuid());
+	    repositoryClient.deleteJobEntireDefine(record);
+	    throw new KettleException("Job申请执行失败!", ex);
+	}
+	if (!record.getUpstreams().isEmpty()) {
+	    // 等待上游
+	    holdRecords(Collections.singletonList(record));
+	    return record;
+	}
+	KettleException error = null;
+	try {
+	    if (!recordPool.addRecord(record)) {
+		error = new KettleException("Job申请执行失败,任务已经存在!");
 	    }
-	} else {
-	    throw new KettleException("Job申请执行失败,任务池已满!");
+	} catch (KettleException ex) {
+	    error = new KettleException("Job申请执行失败,任务池已满!", ex);
+	}
+	if (error != null) {
+	    dbClient.deleteRecordNE(record.getUuid());
+	    repositoryClient.deleteJobEntireDefine(record);
+	    throw error;
 	}
 	return record;
     }
 
+    /**
+     * 批量立即执行:资源库一次保存,数据库同一事务批量保存,全部进入任务池
+     * 
+     * @param jobEntires
+     * @return
+     * @throws KettleException
+     */
+    public List<KettleRecord> excuteJobsDirectly(List<KettleJobEntireDefine> jobEntires) throws KettleException {
+	for (KettleJobEntireDefine jobEntire : jobEntires) {
+	    checkKettleJobEntireDefine(jobEntire);
+	}
+	if (!recordPool.hasCapacity(jobEntires.size())) {
+	    throw new KettleException("Job批量申请执行失败,任务池空位不足,预计等待" + recordPool.estimateWaitMillis() + "ms!");
+	}
+	for (int i = 0; i < jobEntires.size(); i++) {
+	    KettleJobEntireDefine jobEntire = jobEntires.get(i);
+	    if (!admission.tryAcquire(jobEntire.getQueueClass())) {
+		// 退还本批已获取的令牌
+		refund(jobEntires.subList(0, i));
+		throw new KettleException("Job批量申请执行失败,申请过于频繁,预计等待"
+			+ admission.estimateWaitMillis(jobEntire.getQueueClass()) + "ms!");
+	    }
+	}
+	List<KettleRecord> records;
+	try {
+	    records = savejobEntires2KettleRepo(jobEntires, KettleVariables.RECORD_STATUS_APPLY);
+	} catch (KettleException ex) {
+	    refund(jobEntires);
+	    throw ex;
+	} catch (RuntimeException ex) {
+	    refund(jobEntires);
+	    throw ex;
+	}
+	List<KettleRecord> independents = new ArrayList<KettleRecord>(records.size());
+	List<KettleRecord> dependents = new LinkedList<KettleRecord>();
+	for (KettleRecord record : records) {
+	    if (record.getUpstreams().isEmpty()) {
+		independents.add(record);
+	    } else {
+		dependents.add(record);
+	    }
+	}
+	KettleException error = null;
+	try {
+	    if (!recordPool.addRecords(independents)) {
+		error = new KettleException("Job批量申请执行失败,任务已经存在!");
+	    }
+	} catch (KettleException ex) {
+	    error = ex;
+	}
+	if (error != null) {
+	    for (KettleRecord record : records) {
+		dbClient.deleteRecordNE(record.getUuid());
+		repositoryClient.deleteJobEntireDefine(record);
+	    }
+	    refund(jobEntires);
+	    throw error;
+	}
+	if (!dependents.isEmpty()) {
+	    holdRecords(dependents);
+	}
+	return records;
+    }
+
+    /**
+     * 退还准入的令牌
+     * 
+     * @param jobEntires
+     */
+    private void refund(List<KettleJobEntireDefine> jobEntires) {
+	for (KettleJobEntireDefine jobEntire : jobEntires) {
+	    admission.refund(jobEntire.getQueueClass());
+	}
+    }
+
+    /**
+     * 登记等待上游的Record,再按上游的当前状态满足或取消
+     * 
+     * 先登记后查询,查询前已完成的上游由此处满足,之后完成的由完成回调满足
+     * 
+     * @param records
+     * @throws KettleException
+     */
+    protected void holdRecords(List<KettleRecord> records) throws KettleException {
+	Set<String> upstreams = new HashSet<String>();
+	for (KettleRecord record : records) {
+	    recordPool.holdRecord(record);
+	    upstreams.addAll(record.getUpstreams());
+	}
+	Map<String, KettleRecord> parents = new HashMap<String, KettleRecord>();
+	if (!upstreams.isEmpty()) {
+	    for (KettleRecord parent : dbClient.queryRecords(new ArrayList<String>(upstreams))) {
+		parents.put(parent.getUuid(), parent);
+	    }
+	}
+	KettleRecord parent;
+	for (KettleRecord record : records) {
+	    for (String upstream : record.getUpstreams()) {
+		parent = parents.get(upstream);
+		if (parent != null && parent.isFinished()) {
+		    recordPool.upstreamFinished(record.getUuid(), upstream);
+		} else if (parent == null || parent.isError()) {
+		    cancelRecords(recordPool.cancelDependentRecord(record.getUuid()),
+			    "上游Record[" + upstream + "]失败或不存在,已取消!");
+		    break;
+		}
+	    }
+	}
+    }
+
+    /**
+     * 取消等待该Record的下游
+     * 
+     * @param uuid
+     */
+    private void cancelDownstreams(String uuid) {
+	List<KettleRecord> cancels = recordPool.cancelDependentRecord(uuid);
+	for (Iterator<KettleRecord> it = cancels.iterator(); it.hasNext();) {
+	    if (uuid.equals(it.next().getUuid())) {
+		it.remove();
+	    }
+	}
+	cancelRecords(cancels, "上游Record[" + uuid + "]已删除,已取消!");
+    }
+
+    /**
+     * 持久化被取消的Record
+     * 
+     * @param cancels
+     * @param errMsg
+     */
+    private void cancelRecords(List<KettleRecord> cancels, String errMsg) {
+	for (KettleRecord cancel : cancels) {
+	    cancel.setStatus(KettleVariables.RECORD_STATUS_ERROR);
+	    cancel.setErrMsg(errMsg);
+	    dbClient.updateRecordStatusNE(cancel);
+	}
+    }
+
+    /**
+     * 批量注册作业
+     * 
+     * @param jobEntires
+     * @return
+     * @throws KettleException
+     */
+    public List<KettleRecord> registeJobs(List<KettleJobEntireDefine> jobEntires) throws KettleException {
+	for (KettleJobEntireDefine jobEntire : jobEntires) {
+	    checkKettleJobEntireDefine(jobEntire);
+	    checkNotInline(jobEntire);
+	}
+	return savejobEntires2KettleRepo(jobEntires, KettleVariables.RECORD_STATUS_REGISTE);
+    }
+
+    /**
+     * 批量保存到资源库及数据库,数据库失败时删除资源库中本批的内容
+     * 
+     * @param jobEntires
+     * @param status
+     * @return
+     * @throws KettleException
+     */
+    private List<KettleRecord> savejobEntires2KettleRepo(List<KettleJobEntireDefine> jobEntires, String status)
+	    throws KettleException {
+	SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+	KettleRecord[] exported = new KettleRecord[jobEntires.size()];
+	List<KettleJobEntireDefine> repoJobEntires = new ArrayList<KettleJobEntireDefine>(jobEntires.size());
+	for (int i = 0; i < jobEntires.size(); i++) {
+	    jobEntires.get(i).setUuid(UUID.randomUUID().toString().replace("-", ""));
+	    if (jobEntires.get(i).isInline()) {
+		exported[i] = exportJobEntire(jobEntires.get(i));
+	    } else {
+		repoJobEntires.add(jobEntires.get(i));
+	    }
+	}
+	Iterator<KettleRecord> saved = (repoJobEntires.isEmpty() ? new ArrayList<KettleRecord>()
+		: repositoryClient.saveJobEntireDefines(repoJobEntires, df.format(new Date()))).iterator();
+	List<KettleRecord> records = new ArrayList<KettleRecord>(jobEntires.size());
+	for (int i = 0; i < jobEntires.size(); i++) {
+	    records.add(exported[i] == null ? saved.next() : exported[i]);
+	}
+	for (int i = 0; i < records.size(); i++) {
+	    records.get(i).setQueueClass(jobEntires.get(i).getQueueClass());
+	    records.get(i).setRetryMax(jobEntires.get(i).getRetryMax());
+	    records.get(i).setIdempotent(jobEntires.get(i).isIdempotent());
+	    records.get(i).setScheduleJitter(jobEntires.get(i).getScheduleJitter());
+	    records.get(i).getUpstreams().addAll(jobEntires.get(i).getUpstreams());
+	    records.get(i).setStatus(status);
+	}
+	try {
+	    dbClient.insertRecords(records);
+	} catch (KettleException ex) {
+	    logger.error("Job批量保存发生异常!", ex);
+	    for (KettleRecord record : records) {
+		repositoryClient.deleteJobEntireDefine(record);
+	    }
+	    throw new KettleException("Job批量保存发生异常!", ex);
+	}
+	return records;
+    }
+
     /**
      * 注册作业
      * 
@@ -155,6 +586,7 @@ public abstract class RecordService {
      */
     public KettleRecord registeJob(KettleJobEntireDefine jobEntire) throws KettleException {
 	checkKettleJobEntireDefine(jobEntire);
+	checkNotInline(jobEntire);
 	KettleRecord record = savejobEntire2KettleRepo(jobEntire);
 	record.setStatus(KettleVariables.RECORD_STATUS_REGISTE);
 	try {
@@ -187,10 +619,31 @@ public abstract class RecordService {
 	if (record.getCronExpression() != null) {
 	    throw new KettleException("Job[" + uuid + "]为定时任务,无法手动执行!");
 	}
-	if (recordPool.addRecord(record)) {
+	if (!dbClient.claimRecord(record)) {
+	    throw new KettleException("Job[" + uuid + "]已被其他节点处理,无法再次执行!");
+	}
+	dbClient.queryRecordUpstreams(record);
+	record.setRetryCount(0);
+	if (!record.getUpstreams().isEmpty()) {
 	    record.setStatus(KettleVariables.RECORD_STATUS_APPLY);
 	    dbClient.updateRecordStatus(record);
-	} else {
+	    holdRecords(Collections.singletonList(record));
+	    return;
+	}
+	// 先持久化APPLY再进入任务池,槽位领取时状态及版本已是最新
+	String oldStatus = record.getStatus();
+	record.setStatus(KettleVariables.RECORD_STATUS_APPLY);
+	dbClient.updateRecordStatus(record);
+	boolean added = false;
+	try {
+	    added = recordPool.addRecord(record);
+	} finally {
+	    if (!added) {
+		record.setStatus(oldStatus);
+		dbClient.updateRecordStatusNE(record);
+	    }
+	}
+	if (!added) {
 	    throw new KettleException("Job[" + uuid + "]申请执行失败,被任务池已满或任务已经存在!");
 	}
     }
@@ -208,6 +661,9 @@ public abstract class RecordService {
 	if (record == null) {
 	    throw new KettleException("Kettle不存在UUID为[" + uuid + "]的记录!");
 	}
+	if (record.isInline() && !StringUtils.isEmpty(newCron)) {
+	    throw new KettleException("Kettle的Record[" + uuid + "]不在资源库,无法设为定时任务!");
+	}
 	if (record.getCronExpression() == null && StringUtils.isEmpty(newCron)) {// 什么也不用做
 	    return;
 	} else if (StringUtils.isEmpty(newCron)) {// 如果是撤销定时任务,将任务迁移至当前目录
@@ -289,8 +745,10 @@ public abstract class RecordService {
 	if (record.isError() || record.isFinished() || record.isRegiste()) {
 	    dbClient.queryRecordRelations(record);
 	    recordPool.deleteRecord(uuid);
+	    cancelDownstreams(uuid);
 	    dbClient.deleteRecord(uuid);
 	    repositoryClient.deleteJobEntireDefine(record);
+	    KettleMgrInstance.kettleMgrEnvironment.getLogStore().delete(uuid);
 	    return;
 	}
 	throw new KettleException("Record[" + uuid + "]已被受理,无法删除!");
@@ -312,13 +770,17 @@ public abstract class RecordService {
 	    record = dbClient.queryRecord(uuid);// 定时任务重新查询,避免状态啊为脏数据
 	}
 	dbClient.queryRecordRelations(record);
+	cancelDownstreams(uuid);
 	if (record.isError() || record.isFinished() || record.isRegiste()) {
 	    recordPool.deleteRecord(uuid);
 	    dbClient.deleteRecord(uuid);
 	    repositoryClient.deleteJobEntireDefine(record);
+	    KettleMgrInstance.kettleMgrEnvironment.getLogStore().delete(uuid);
 	    return;
 	}
+	recordPool.deleteRecord(uuid);
 	jobMustDie(record);
+	KettleMgrInstance.kettleMgrEnvironment.getLogStore().delete(uuid);
     }
 
     /**
@@ -328,18 +790,251 @@ public abstract class RecordService {
      */
     protected abstract void jobMustDie(KettleRecord record) throws KettleException;
 
+    /**
+     * 接管其他节点遗留的运行中Record,交给Record所在远端的处理者继续同步状态
+     * 
+     * @param record
+     * @return 是否接管,本节点没有该远端时返回false
+     */
+    protected abstract boolean adoptRunningRecord(KettleRecord record);
+
+    /**
+     * 启动时恢复遗留的运行中Record:每个远端一次调用获取所有Job的状态,各远端并行;已结束的批量持久化,
+     * 仍在运行的交给处理者。在后台进行,不阻塞新Record的派发
+     * 
+     * @param records
+     */
+    protected void recoverRunningRecords(List<KettleRecord> records) {
+	if (records.isEmpty()) {
+	    return;
+	}
+	final Map<String, List<KettleRecord>> hostRecords = new HashMap<String, List<KettleRecord>>();
+	for (KettleRecord record : records) {
+	    if (record.getHostname() == null) {
+		if (record.getCronExpression() != null) {
+		    resetSchedulerRecord(record);
+		} else {
+		    logger.warn("遗留的运行中Record[" + record.getUuid() + "]没有远端,无法恢复!");
+		}
+		continue;
+	    }
+	    if (!hostRecords.containsKey(record.getHostname())) {
+		hostRecords.put(record.getHostname(), new LinkedList<KettleRecord>());
+	    }
+	    hostRecords.get(record.getHostname()).add(record);
+	}
+	Collection<KettleRemoteClient> remoteClients = KettleMgrInstance.kettleMgrEnvironment.getRemotePool()
+		.getRemoteclients();
+	final ExecutorService recoverPool = Executors
+		.newFixedThreadPool(Math.max(1, Math.min(RECOVER_THREADS, remoteClients.size())));
+	for (final KettleRemoteClient remoteClient : remoteClients) {
+	    final List<KettleRecord> remoteRecords = hostRecords.remove(remoteClient.getHostName());
+	    if (remoteRecords == null) {
+		continue;
+	    }
+	    recoverPool.execute(new Runnable() {
+		@Override
+		public void run() {
+		    reconcileRecords(remoteClient, remoteRecords);
+		}
+	    });
+	}
+	recoverPool.shutdown();
+	for (Map.Entry<String, List<KettleRecord>> entry : hostRecords.entrySet()) {
+	    logger.warn("遗留的运行中Record" + entry.getValue().size() + "个所在远端[" + entry.getKey() + "]不存在,无法恢复!");
+	    for (KettleRecord record : entry.getValue()) {
+		if (record.getCronExpression() != null) {
+		    resetSchedulerRecord(record);
+		}
+	    }
+	}
+    }
+
+    /**
+     * 按远端的Job状态列表核对遗留的运行中Record
+     * 
+     * @param remoteClient
+     * @param records
+     */
+    private void reconcileRecords(KettleRemoteClient remoteClient, List<KettleRecord> records) {
+	long start = System.currentTimeMillis();
+	Map<String, SlaveServerJobStatus> jobStatuses = null;
+	if (remoteClient.isRunning()) {
+	    try {
+		jobStatuses = remoteClient.remoteJobStatuses();
+	    } catch (Exception ex) {
+		logger.error("Remote[" + remoteClient.getHostName() + "]获取Job状态列表失败,遗留Record由处理者逐个同步!", ex);
+	    }
+	}
+	List<KettleRecord> completes = new ArrayList<KettleRecord>();
+	for (KettleRecord record : records) {
+	    if (jobStatuses != null && record.getRunID() != null) {
+		remoteClient.applyJobStatus(record, jobStatuses.get(record.getRunID()));
+	    }
+	    if (record.isRunning()) {
+		adoptRunningRecord(record);
+	    } else {
+		completes.add(record);
+	    }
+	}
+	try {
+	    List<KettleRecord> losts = dbClient.updateRecordsStatus(completes);
+	    if (!losts.isEmpty()) {
+		// 核对期间已被其他节点接管
+		completes.removeAll(losts);
+		for (KettleRecord lost : losts) {
+		    logger.warn("Record[" + lost.getUuid() + "]已被其他节点接管,不再恢复!");
+		    recordPool.deleteRecord(lost.getUuid());
+		}
+	    }
+	} catch (Exception ex) {
+	    // 持久化失败时交给处理者,由其逐个同步并持久化
+	    logger.error("Remote[" + remoteClient.getHostName() + "]批量持久化遗留Record失败!", ex);
+	    for (KettleRecord record : completes) {
+		record.setStatus(KettleVariables.RECORD_STATUS_RUNNING);
+		adoptRunningRecord(record);
+	    }
+	    return;
+	}
+	for (KettleRecord record : completes) {
+	    // 已持久化,清理远端残留的Job
+	    if (record.getRunID() != null && remoteClient.isRunning()) {
+		remoteClient.remoteRemoveJobNE(record);
+	    }
+	    for (KettleRecord cancel : recordPool.recordCompleted(record)) {
+		cancel.setStatus(KettleVariables.RECORD_STATUS_ERROR);
+		cancel.setErrMsg("上游Record[" + record.getUuid() + "]执行失败,已取消!");
+		dbClient.updateRecordStatusNE(cancel);
+	    }
+	}
+	logger.info("Remote[" + remoteClient.getHostName() + "]恢复遗留Record" + records.size() + "个,已结束" + completes.size()
+		+ "个,耗时" + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 认领可处理的Record,未认领成功的Record已被其他节点持有,不再返回
+     * 
+     * @param includeSelf
+     *            是否包含本节点之前持有的Record
+     * @return
+     * @throws KettleException
+     */
+    private List<KettleRecord> claimHandleRecords(boolean includeSelf) throws KettleException {
+	List<KettleRecord> records = dbClient.claimableHandleRecords(includeSelf);
+	Map<String, String> owners = new HashMap<String, String>();
+	for (KettleRecord record : records) {
+	    if (record.getOwner() != null && !record.getOwner().equals(KettleMgrEnvironment.KETTLE_MGR_NODE_ID)) {
+		owners.put(record.getUuid(), record.getOwner());
+	    }
+	}
+	List<KettleRecord> claims = dbClient.claimRecords(records);
+	for (KettleRecord claim : claims) {
+	    if (owners.containsKey(claim.getUuid())) {
+		logger.info("接管节点[" + owners.get(claim.getUuid()) + "]租约过期的Record[" + claim.getUuid() + "]!");
+	    }
+	}
+	return claims;
+    }
+
+    /**
+     * 续约本节点持有的Record,并接管其他节点租约过期的Record
+     */
+    public void renewLeases() {
+	try {
+	    dbClient.syncClock();
+	    dbClient.renewLeases();
+	} catch (Exception ex) {
+	    logger.error("续约Record租约发生异常!", ex);
+	    return;
+	}
+	List<KettleRecord> records;
+	try {
+	    records = claimHandleRecords(false);
+	} catch (Exception ex) {
+	    logger.error("接管租约过期的Record发生异常!", ex);
+	    return;
+	}
+	List<KettleRecord> dependents = new LinkedList<KettleRecord>();
+	for (KettleRecord record : records) {
+	    try {
+		if (record.isApply()) {
+		    dbClient.queryRecordUpstreams(record);
+		    if (!record.getUpstreams().isEmpty()) {
+			dependents.add(record);
+		    } else {
+			// 回到所属类别,不越过公平调度
+			recordPool.requeueRecord(record);
+		    }
+		} else if (record.getHostname() == null || !adoptRunningRecord(record)) {
+		    if (record.getCronExpression() != null) {
+			resetSchedulerRecord(record);
+		    } else {
+			logger.warn("Record[" + record.getUuid() + "]所在远端[" + record.getHostname() + "]不属于本节点,无法接管!");
+		    }
+		}
+	    } catch (Exception ex) {
+		logger.error("接管Record[" + record.getUuid() + "]发生异常!", ex);
+	    }
+	}
+	if (!dependents.isEmpty()) {
+	    try {
+		holdRecords(dependents);
+	    } catch (Exception ex) {
+		logger.error("接管等待上游的Record发生异常!", ex);
+	    }
+	}
+    }
+
+    /**
+     * 无法接管的运行中定时任务(所在远端不属于本节点)置为异常,下次触发时可以重新申请,避免定时任务停止触发
+     * 
+     * @param record
+     */
+    private void resetSchedulerRecord(KettleRecord record) {
+	record.setStatus(KettleVariables.RECORD_STATUS_ERROR);
+	record.setErrMsg("定时任务Record[" + record.getUuid() + "]的持有节点已失联,所在远端[" + record.getHostname()
+		+ "]不属于本节点,本次触发置为异常!");
+	try {
+	    dbClient.updateRecordStatus(record);
+	    logger.warn(record.getErrMsg());
+	} catch (Exception ex) {
+	    logger.error("重置定时任务Record[" + record.getUuid() + "]发生异常!", ex);
+	}
+    }
+
     /**
      * 获取未处理Record
      * 
      * @return
      */
     protected List<KettleRecord> getHandleRecords() {
+	List<KettleRecord> records;
 	try {
-	    return dbClient.allHandleRecord();
+	    records = claimHandleRecords(true);
 	} catch (Exception ex) {
 	    logger.error("加载遗留Record发生异常!");
 	    return new ArrayList<KettleRecord>(0);
 	}
+	// 等待上游的Record重新登记到依赖图,不直接返回
+	try {
+	    Map<String, List<String>> upstreams = dbClient.allRecordUpstreams();
+	    List<KettleRecord> dependents = new LinkedList<KettleRecord>();
+	    KettleRecord record;
+	    for (Iterator<KettleRecord> it = records.iterator(); it.hasNext();) {
+		record = it.next();
+		if (record != null && record.isApply() && upstreams.containsKey(record.getUuid())) {
+		    record.getUpstreams().addAll(upstreams.get(record.getUuid()));
+		    dependents.add(record);
+		    it.remove();
+		}
+	    }
+	    if (!dependents.isEmpty()) {
+		holdRecords(dependents);
+	    }
+	} catch (Exception ex) {
+	    logger.error("加载遗留Record的上游依赖发生异常!", ex);
+	}
+	return records;
     }
 
     /**
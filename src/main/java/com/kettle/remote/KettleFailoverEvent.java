@@ -0,0 +1,105 @@
+package com.kettle.remote;
+
+import java.util.Date;
+
+/**
+ * 故障转移事件,北向
+ *
+ * @author Administrator
+ *
+ */
+public class KettleFailoverEvent {
+	/**
+	 * 事件类型
+	 */
+	private String type;
+
+	/**
+	 * 远端
+	 */
+	private String hostname;
+
+	/**
+	 * Record的UUID,远端事件为空
+	 */
+	private String uuid;
+
+	/**
+	 * 远端不可用的开始时间
+	 */
+	private Date downSince;
+
+	/**
+	 * 事件时间
+	 */
+	private Date eventTime;
+
+	public KettleFailoverEvent() {
+	}
+
+	public KettleFailoverEvent(String type, String hostname, String uuid, long downSince) {
+		this.type = type;
+		this.hostname = hostname;
+		this.uuid = uuid;
+		this.downSince = downSince > 0 ? new Date(downSince) : null;
+		this.eventTime = new Date();
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getHostname() {
+		return hostname;
+	}
+
+	public void setHostname(String hostname) {
+		this.hostname = hostname;
+	}
+
+	public String getUuid() {
+		return uuid;
+	}
+
+	public void setUuid(String uuid) {
+		this.uuid = uuid;
+	}
+
+	public Date getDownSince() {
+		return downSince;
+	}
+
+	public void setDownSince(Date downSince) {
+		this.downSince = downSince;
+	}
+
+	public Date getEventTime() {
+		return eventTime;
+	}
+
+	public void setEventTime(Date eventTime) {
+		this.eventTime = eventTime;
+	}
+
+	/**
+	 * 远端不可用到该事件的时间(毫秒),用于衡量恢复时间
+	 *
+	 * @return
+	 */
+	public long getRecoveryMillis() {
+		if (downSince == null || eventTime == null) {
+			return -1;
+		}
+		return eventTime.getTime() - downSince.getTime();
+	}
+
+	@Override
+	public String toString() {
+		return "KettleFailoverEvent[" + type + ",hostname=" + hostname + ",uuid=" + uuid + ",recoveryMillis="
+				+ getRecoveryMillis() + "]";
+	}
+}
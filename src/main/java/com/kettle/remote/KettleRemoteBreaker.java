@@ -0,0 +1,292 @@
+package com.kettle.remote;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kettle.core.KettleVariables;
+import com.kettle.core.instance.KettleMgrEnvironment;
+
+/**
+ * 远端的熔断器,由每次远端调用的结果驱动
+ *
+ * 连续失败达到上限,或累积故障检测的怀疑度(phi)超过阈值时断开,断开期间调用立即失败且不再派发;
+ * 等待时间过后放行一次试探调用(半开),成功则闭合,失败或超过期限仍未反馈则重新断开。
+ * 怀疑度按状态同步(心跳)的到达间隔分布计算距上次成功响应的时间,任何成功的调用都证明远端存活;
+ * 怀疑度只在远程池的状态同步中评估,管理端自身停顿(如GC)的时间不计入远端无响应的时间
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRemoteBreaker {
+
+	/**
+	 * 日志
+	 */
+	private static Logger logger = LoggerFactory.getLogger(KettleRemoteBreaker.class);
+
+	/**
+	 * 保留的心跳间隔数量
+	 */
+	private static final int WINDOW = 100;
+
+	/**
+	 * 计算怀疑度所需的最少心跳间隔数量
+	 */
+	private static final int MIN_SAMPLES = 3;
+
+	/**
+	 * 心跳间隔标准差的下限(毫秒),避免间隔过于规律时误判
+	 */
+	private static final double MIN_STD_DEV = 500;
+
+	/**
+	 * 远端
+	 */
+	private final String hostname;
+
+	private final int failureThreshold;
+
+	private final long openMillis;
+
+	private final long trialMillis;
+
+	private final double phiThreshold;
+
+	private final long pauseMillis;
+
+	/**
+	 * 状态
+	 */
+	private volatile String state = KettleVariables.BREAKER_CLOSED;
+
+	/**
+	 * 连续失败次数
+	 */
+	private int failures = 0;
+
+	/**
+	 * 断开的时间
+	 */
+	private long openedAt = 0;
+
+	/**
+	 * 放行试探调用的时间
+	 */
+	private long trialAt = 0;
+
+	/**
+	 * 心跳的到达间隔(毫秒),环形
+	 */
+	private final long[] intervals = new long[WINDOW];
+
+	private int intervalCount = 0;
+
+	private int intervalIndex = 0;
+
+	/**
+	 * 上次心跳的时间
+	 */
+	private long lastHeartbeat = 0;
+
+	/**
+	 * 上次成功响应的时间
+	 */
+	private long lastAlive = 0;
+
+	/**
+	 * @param hostname
+	 * @param name
+	 *            远端名称,用于读取单个远端的配置
+	 */
+	public KettleRemoteBreaker(String hostname, String name) {
+		this.hostname = hostname;
+		this.failureThreshold = Math.max(1, KettleMgrEnvironment.NVLInt("KETTLE_REMOTE_BREAKER_FAILURES_" + name,
+				KettleMgrEnvironment.KETTLE_REMOTE_BREAKER_FAILURES));
+		this.openMillis = KettleMgrEnvironment.KETTLE_REMOTE_BREAKER_OPEN_SECONDS * 1000L;
+		this.trialMillis = Math.max(1, KettleMgrEnvironment.KETTLE_REMOTE_BREAKER_TRIAL_SECONDS) * 1000L;
+		this.phiThreshold = KettleMgrEnvironment.KETTLE_REMOTE_BREAKER_PHI;
+		this.pauseMillis = KettleMgrEnvironment.KETTLE_REMOTE_BREAKER_PAUSE;
+	}
+
+	/**
+	 * 是否放行调用:闭合时放行;断开超过等待时间后转为半开,放行一次试探调用;
+	 * 试探调用超过期限仍未反馈结果时视为失败,重新断开
+	 *
+	 * @return
+	 */
+	public synchronized boolean allowRequest() {
+		long now = System.currentTimeMillis();
+		if (KettleVariables.BREAKER_CLOSED.equals(state)) {
+			return true;
+		}
+		if (KettleVariables.BREAKER_HALF_OPEN.equals(state) && now - trialAt >= trialMillis) {
+			open("TRIAL_TIMEOUT");
+		}
+		if (KettleVariables.BREAKER_OPEN.equals(state) && now - openedAt >= openMillis) {
+			trialAt = now;
+			change(KettleVariables.BREAKER_HALF_OPEN, "TRIAL");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 放行的调用未到达远端(如本地等待请求额度超时),不计入熔断;试探调用作废,下次调用重新试探
+	 */
+	public synchronized void onAbort() {
+		if (KettleVariables.BREAKER_HALF_OPEN.equals(state)) {
+			openedAt = System.currentTimeMillis() - openMillis;
+			change(KettleVariables.BREAKER_OPEN, "ABORT");
+		}
+	}
+
+	/**
+	 * 是否闭合,断开或半开时不派发
+	 *
+	 * @return
+	 */
+	public boolean isClosed() {
+		return KettleVariables.BREAKER_CLOSED.equals(state);
+	}
+
+	/**
+	 * 调用成功,远端存活
+	 */
+	public synchronized void onSuccess() {
+		failures = 0;
+		lastAlive = System.currentTimeMillis();
+		if (!KettleVariables.BREAKER_CLOSED.equals(state)) {
+			change(KettleVariables.BREAKER_CLOSED, "SUCCESS");
+		}
+	}
+
+	/**
+	 * 调用失败
+	 */
+	public synchronized void onFailure() {
+		failures++;
+		if (KettleVariables.BREAKER_HALF_OPEN.equals(state)
+				|| KettleVariables.BREAKER_CLOSED.equals(state) && failures >= failureThreshold) {
+			open("FAILURE");
+		}
+	}
+
+	/**
+	 * 状态同步成功,记录心跳的到达间隔
+	 */
+	public synchronized void onHeartbeat() {
+		long now = System.currentTimeMillis();
+		if (lastHeartbeat > 0) {
+			intervals[intervalIndex] = now - lastHeartbeat;
+			intervalIndex = (intervalIndex + 1) % WINDOW;
+			if (intervalCount < WINDOW) {
+				intervalCount++;
+			}
+		}
+		lastHeartbeat = now;
+		onSuccess();
+	}
+
+	/**
+	 * 距上次成功响应的怀疑度,按心跳间隔的正态分布估计远端仍存活却迟迟没有响应的概率,取负对数
+	 *
+	 * @param now
+	 * @return
+	 */
+	public synchronized double phi(long now) {
+		if (intervalCount < MIN_SAMPLES || lastAlive == 0) {
+			return 0;
+		}
+		double sum = 0;
+		for (int i = 0; i < intervalCount; i++) {
+			sum += intervals[i];
+		}
+		double mean = sum / intervalCount;
+		double variance = 0;
+		for (int i = 0; i < intervalCount; i++) {
+			variance += (intervals[i] - mean) * (intervals[i] - mean);
+		}
+		double stdDev = Math.max(MIN_STD_DEV, Math.sqrt(variance / intervalCount));
+		double expected = mean + pauseMillis;
+		long elapsed = now - lastAlive;
+		// 正态分布尾部概率的逻辑斯蒂近似
+		double y = (elapsed - expected) / stdDev;
+		double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+		if (elapsed > expected) {
+			return -Math.log10(e / (1.0 + e));
+		}
+		return -Math.log10(1.0 - 1.0 / (1.0 + e));
+	}
+
+	/**
+	 * 评估怀疑度,闭合时超过阈值则断开
+	 *
+	 * @param now
+	 * @param localPause
+	 *            管理端自身的停顿(毫秒),期间收不到任何响应,从无响应的时间中扣除
+	 * @return 是否因此断开
+	 */
+	public synchronized boolean checkPhi(long now, long localPause) {
+		if (localPause > 0) {
+			if (lastAlive > 0) {
+				lastAlive = Math.min(now, lastAlive + localPause);
+			}
+			if (lastHeartbeat > 0) {
+				lastHeartbeat = Math.min(now, lastHeartbeat + localPause);
+			}
+			return false;
+		}
+		if (KettleVariables.BREAKER_CLOSED.equals(state) && phi(now) > phiThreshold) {
+			open("PHI");
+			return true;
+		}
+		return false;
+	}
+
+	private void open(String reason) {
+		openedAt = System.currentTimeMillis();
+		change(KettleVariables.BREAKER_OPEN, reason);
+	}
+
+	private void change(String newState, String reason) {
+		String oldState = state;
+		state = newState;
+		if (KettleVariables.BREAKER_OPEN.equals(newState)) {
+			logger.error("Kettle远端[" + hostname + "]熔断器" + oldState + "->" + newState + ",原因:" + reason
+					+ ",连续失败" + failures + "次");
+		} else {
+			logger.info("Kettle远端[" + hostname + "]熔断器" + oldState + "->" + newState + ",原因:" + reason);
+		}
+	}
+
+	/**
+	 * 当前状态
+	 *
+	 * @return
+	 */
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * 异常是否说明远端不可达(网络或IO异常),业务异常不计入熔断
+	 *
+	 * @param ex
+	 * @return
+	 */
+	public static boolean isRemoteFailure(Throwable ex) {
+		Throwable cause = ex;
+		while (cause != null) {
+			if (cause instanceof IOException) {
+				return true;
+			}
+			if (cause.getCause() == cause) {
+				break;
+			}
+			cause = cause.getCause();
+		}
+		return false;
+	}
+}
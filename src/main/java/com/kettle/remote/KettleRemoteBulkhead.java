@@ -0,0 +1,177 @@
+package com.kettle.remote;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kettle.core.instance.KettleMgrEnvironment;
+
+/**
+ * 远端独占的派发线程(舱壁),唤醒,故障转移等通知在各自远端的线程中执行,阻塞在慢远端上的处理不影响其他远端
+ *
+ * 队列有上限,满时拒绝并计数;同一类通知在执行前重复提交的只保留一个
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRemoteBulkhead {
+
+	/**
+	 * 日志
+	 */
+	private static Logger logger = LoggerFactory.getLogger(KettleRemoteBulkhead.class);
+
+	/**
+	 * 远端
+	 */
+	private final String hostname;
+
+	/**
+	 * 队列上限
+	 */
+	private final int queueMax;
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * 远端独占的Record处理线程,发送,状态和日志等阻塞的远端调用在其中执行,慢远端不占用其他远端的线程
+	 */
+	private final ScheduledThreadPoolExecutor recordExecutor;
+
+	/**
+	 * 已提交尚未执行的通知类别
+	 */
+	private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+
+	private final AtomicLong submittedCount = new AtomicLong(0);
+
+	/**
+	 * 合并的提交数
+	 */
+	private final AtomicLong coalescedCount = new AtomicLong(0);
+
+	/**
+	 * 拒绝的提交数
+	 */
+	private final AtomicLong rejectedCount = new AtomicLong(0);
+
+	/**
+	 * @param hostname
+	 * @param name
+	 *            远端名称,用于读取单个远端的配置
+	 * @param recordThreads
+	 *            Record处理线程数,即远端并发上限的最大值
+	 */
+	public KettleRemoteBulkhead(String hostname, String name, int recordThreads) {
+		this.hostname = hostname;
+		int threads = Math.max(1, KettleMgrEnvironment.NVLInt("KETTLE_REMOTE_BULKHEAD_THREADS_" + name,
+				KettleMgrEnvironment.KETTLE_REMOTE_BULKHEAD_THREADS));
+		this.queueMax = Math.max(1, KettleMgrEnvironment.NVLInt("KETTLE_REMOTE_BULKHEAD_QUEUE_" + name,
+				KettleMgrEnvironment.KETTLE_REMOTE_BULKHEAD_QUEUE));
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueMax), daemonThreads("KettleRemoteBulkhead-" + hostname));
+		this.executor.allowCoreThreadTimeOut(true);
+		this.recordExecutor = new ScheduledThreadPoolExecutor(Math.max(1, recordThreads),
+				daemonThreads("KettleRemoteRecord-" + hostname));
+	}
+
+	/**
+	 * 守护线程,不阻止JVM退出
+	 *
+	 * @param prefix
+	 * @return
+	 */
+	private static ThreadFactory daemonThreads(final String prefix) {
+		final AtomicInteger index = new AtomicInteger(0);
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, prefix + "-" + index.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Record处理线程
+	 *
+	 * @return
+	 */
+	public ScheduledExecutorService getRecordExecutor() {
+		return recordExecutor;
+	}
+
+	/**
+	 * 提交任务,队列满时拒绝
+	 *
+	 * @param task
+	 * @return 是否已提交
+	 */
+	public boolean execute(Runnable task) {
+		try {
+			executor.execute(task);
+			submittedCount.incrementAndGet();
+			return true;
+		} catch (RejectedExecutionException ex) {
+			rejectedCount.incrementAndGet();
+			logger.warn("Kettle远端[" + hostname + "]派发队列已满(" + queueMax + "),任务被拒绝!");
+			return false;
+		}
+	}
+
+	/**
+	 * 提交同一类别的任务,该类别已有任务等待执行时合并
+	 *
+	 * @param key
+	 *            任务类别
+	 * @param task
+	 * @return 是否已提交或已合并
+	 */
+	public boolean executeCoalesced(final String key, final Runnable task) {
+		if (pending.putIfAbsent(key, Boolean.TRUE) != null) {
+			coalescedCount.incrementAndGet();
+			return true;
+		}
+		boolean submitted = execute(new Runnable() {
+			@Override
+			public void run() {
+				// 执行前移除,执行期间的新提交会再执行一次
+				pending.remove(key);
+				task.run();
+			}
+		});
+		if (!submitted) {
+			pending.remove(key);
+		}
+		return submitted;
+	}
+
+	/**
+	 * 派发统计
+	 *
+	 * @return
+	 */
+	public KettleRemoteBulkheadStat getStat() {
+		KettleRemoteBulkheadStat stat = new KettleRemoteBulkheadStat();
+		stat.setHostname(hostname);
+		stat.setSubmittedCount(submittedCount.get());
+		stat.setCoalescedCount(coalescedCount.get());
+		stat.setRejectedCount(rejectedCount.get());
+		stat.setQueued(executor.getQueue().size());
+		stat.setQueueMax(queueMax);
+		stat.setActive(executor.getActiveCount());
+		return stat;
+	}
+}
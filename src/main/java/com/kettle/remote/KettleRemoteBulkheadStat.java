@@ -0,0 +1,106 @@
+package com.kettle.remote;
+
+/**
+ * 远端派发线程(舱壁)的统计,北向
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRemoteBulkheadStat {
+	/**
+	 * 远端
+	 */
+	private String hostname;
+
+	/**
+	 * 提交的任务数
+	 */
+	private long submittedCount;
+
+	/**
+	 * 合并的提交数
+	 */
+	private long coalescedCount;
+
+	/**
+	 * 队列满被拒绝的提交数
+	 */
+	private long rejectedCount;
+
+	/**
+	 * 排队中的任务数
+	 */
+	private int queued;
+
+	/**
+	 * 队列上限
+	 */
+	private int queueMax;
+
+	/**
+	 * 执行中的任务数
+	 */
+	private int active;
+
+	public String getHostname() {
+		return hostname;
+	}
+
+	public void setHostname(String hostname) {
+		this.hostname = hostname;
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount;
+	}
+
+	public void setSubmittedCount(long submittedCount) {
+		this.submittedCount = submittedCount;
+	}
+
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	public void setCoalescedCount(long coalescedCount) {
+		this.coalescedCount = coalescedCount;
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public void setRejectedCount(long rejectedCount) {
+		this.rejectedCount = rejectedCount;
+	}
+
+	public int getQueued() {
+		return queued;
+	}
+
+	public void setQueued(int queued) {
+		this.queued = queued;
+	}
+
+	public int getQueueMax() {
+		return queueMax;
+	}
+
+	public void setQueueMax(int queueMax) {
+		this.queueMax = queueMax;
+	}
+
+	public int getActive() {
+		return active;
+	}
+
+	public void setActive(int active) {
+		this.active = active;
+	}
+
+	@Override
+	public String toString() {
+		return "KettleRemoteBulkheadStat[" + hostname + ",提交" + submittedCount + ",合并" + coalescedCount + ",拒绝"
+				+ rejectedCount + ",排队" + queued + "/" + queueMax + "]";
+	}
+}
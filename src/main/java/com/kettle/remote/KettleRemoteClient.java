@@ -1,5 +1,11 @@
 package com.kettle.remote;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.pentaho.di.cluster.SlaveServer;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogLevel;
@@ -12,9 +18,11 @@ import org.pentaho.di.www.WebResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.kettle.core.KettleEnvDefault;
 import com.kettle.core.KettleVariables;
 import com.kettle.core.instance.KettleMgrEnvironment;
+import com.kettle.core.instance.KettleMgrInstance;
+import com.kettle.core.metrics.KettleLatencyHistogram;
+import com.kettle.core.repo.KettleJobExporter;
 import com.kettle.core.repo.KettleRepositoryClient;
 import com.kettle.record.KettleRecord;
 
@@ -31,11 +39,6 @@ public class KettleRemoteClient {
 	 */
 	private static Logger logger = LoggerFactory.getLogger(KettleRemoteClient.class);
 
-	/**
-	 * 远端状态 -- 初始状态未运行中
-	 */
-	private String remoteStatus = KettleVariables.REMOTE_STATUS_RUNNING;
-
 	/**
 	 * 远程服务
 	 */
@@ -47,10 +50,50 @@ public class KettleRemoteClient {
 	private final KettleRepositoryClient repositoryClient;
 
 	/**
-	 * 最大任务数量
+	 * 初始的最大任务数量,之后由limiter自适应调整
 	 */
 	public final int maxRecord;
 
+	/**
+	 * 自适应并发上限
+	 */
+	private final KettleRemoteLimiter limiter;
+
+	/**
+	 * 熔断器
+	 */
+	private final KettleRemoteBreaker breaker;
+
+	/**
+	 * 与远端通信的长连接
+	 */
+	private final KettleRemoteTransport transport;
+
+	/**
+	 * 远端独占的派发线程
+	 */
+	private final KettleRemoteBulkhead bulkhead;
+
+	/**
+	 * 处理中的任务数量
+	 */
+	private final AtomicInteger inFlightCount = new AtomicInteger(0);
+
+	/**
+	 * 远端状态的快照,由状态同步发布 -- 初始状态为运行中
+	 */
+	private volatile KettleRemoteSnapshot snapshot;
+
+	/**
+	 * 状态同步的耗时
+	 */
+	private final KettleLatencyHistogram probeLatency;
+
+	/**
+	 * 最近一次状态同步得到的远端所有Job的状态
+	 */
+	private volatile JobStatusSnapshot jobStatusSnapshot = null;
+
 	/**
 	 * 构造器
 	 * 
@@ -63,32 +106,219 @@ public class KettleRemoteClient {
 		this.repositoryClient = repositoryClient;
 		this.remoteServer = remoteServer;
 		maxRecord = KettleMgrEnvironment.NVLInt("KETTLE_RECORD_MAX_PER_REMOTE_" + remoteServer.getName(),
-				KettleEnvDefault.KETTLE_RECORD_MAX_PER_REMOTE);
+				KettleMgrEnvironment.KETTLE_RECORD_MAX_PER_REMOTE);
+		limiter = new KettleRemoteLimiter(remoteServer.getHostname(), remoteServer.getName(), maxRecord);
+		breaker = new KettleRemoteBreaker(remoteServer.getHostname(), remoteServer.getName());
+		transport = new KettleRemoteTransport(remoteServer, breaker);
+		bulkhead = new KettleRemoteBulkhead(remoteServer.getHostname(), remoteServer.getName(),
+				limiter.getMaxLimit());
+		probeLatency = new KettleLatencyHistogram("RemoteProbeLatency-" + remoteServer.getHostname());
+		snapshot = new KettleRemoteSnapshot(remoteServer.getHostname(), KettleVariables.REMOTE_STATUS_RUNNING, 0, 0,
+				0, 0, 0, 0, System.currentTimeMillis(), false);
 	}
 
 	/**
-	 * 远端状态
+	 * 发布新的状态快照
 	 * 
+	 * @param status
+	 *            远端状态描述
+	 * @param serverStatus
+	 *            为null时沿用上一次的资源
+	 * @param latency
+	 * @param timedOut
+	 * @return 发布前的失联时间,与发布在同一把锁内读取
+	 */
+	private synchronized long publish(String status, SlaveServerStatus serverStatus, long latency,
+			boolean timedOut) {
+		KettleRemoteSnapshot previous = snapshot;
+		long now = System.currentTimeMillis();
+		long downSince = 0;
+		if (!KettleVariables.REMOTE_STATUS_RUNNING.equals(status) || !breaker.isClosed()) {
+			downSince = previous.getDownSince() > 0 ? previous.getDownSince() : now;
+		}
+		if (serverStatus == null) {
+			snapshot = new KettleRemoteSnapshot(getHostName(), status, previous.getCpuCores(), previous.getLoadAvg(),
+					previous.getMemoryFree(), previous.getMemoryTotal(), downSince, latency, now, timedOut);
+		} else {
+			snapshot = new KettleRemoteSnapshot(getHostName(), status, serverStatus.getCpuCores(),
+					serverStatus.getLoadAvg(), serverStatus.getMemoryFree(), serverStatus.getMemoryTotal(), downSince,
+					latency, now, timedOut);
+		}
+		return previous.getDownSince();
+	}
+
+	/**
+	 * 一次调用获取远端所有Job的状态
+	 * 
+	 * @return Carte中Job的ID(即Record的runID)到状态
+	 * @throws KettleException
+	 */
+	public Map<String, SlaveServerJobStatus> remoteJobStatuses() throws KettleException {
+		SlaveServerStatus status;
+		long start = System.currentTimeMillis();
+		try {
+			status = transport.getStatus();
+			limiter.onLatency(System.currentTimeMillis() - start);
+		} catch (Exception e) {
+			limiter.onFailure("STATUS");
+			throw new KettleException("Kettle远端[" + this.getHostName() + "]查询Job状态列表失败!", e);
+		}
+		KettleRemoteSnapshot previous = snapshot;
+		publish(previous.getStatus(), status, previous.getProbeLatency(), previous.isTimedOut());
+		return updateSnapshot(status, start, null);
+	}
+
+	/**
+	 * 保存远端所有Job的状态快照,并找出与上一次快照相比状态变化的Job:状态描述改变,已从远端移除,或新出现时已结束
+	 *
+	 * @param status
+	 * @param start
+	 *            获取状态的开始时间,此后发送的Job可能不在快照中
+	 * @param transitions
+	 *            状态变化的Job的ID,为null时不比较
+	 * @return Carte中Job的ID(即Record的runID)到状态
+	 */
+	private Map<String, SlaveServerJobStatus> updateSnapshot(SlaveServerStatus status, long start,
+			Set<String> transitions) {
+		Map<String, SlaveServerJobStatus> jobStatuses = new HashMap<String, SlaveServerJobStatus>();
+		if (status.getJobStatusList() != null) {
+			for (SlaveServerJobStatus jobStatus : status.getJobStatusList()) {
+				if (jobStatus.getId() != null) {
+					jobStatuses.put(jobStatus.getId(), jobStatus);
+				}
+			}
+		}
+		JobStatusSnapshot previous = jobStatusSnapshot;
+		if (previous != null && transitions != null) {
+			SlaveServerJobStatus before;
+			for (Map.Entry<String, SlaveServerJobStatus> entry : jobStatuses.entrySet()) {
+				before = previous.jobStatuses.get(entry.getKey());
+				if (before == null ? isJobEnded(entry.getValue())
+						: !String.valueOf(before.getStatusDescription())
+								.equals(String.valueOf(entry.getValue().getStatusDescription()))) {
+					transitions.add(entry.getKey());
+				}
+			}
+			for (String runID : previous.jobStatuses.keySet()) {
+				if (!jobStatuses.containsKey(runID)) {
+					transitions.add(runID);
+				}
+			}
+		}
+		jobStatusSnapshot = new JobStatusSnapshot(jobStatuses, start);
+		return jobStatuses;
+	}
+
+	/**
+	 * 远端的Job是否已结束
+	 *
+	 * @param jobStatus
 	 * @return
 	 */
-	private String fetchRemoteStatus() {
+	private static boolean isJobEnded(SlaveServerJobStatus jobStatus) {
+		String description = jobStatus.getStatusDescription();
+		return description != null
+				&& (description.toUpperCase().contains("ERROR") || "Finished".equalsIgnoreCase(description));
+	}
+
+	/**
+	 * 刷新状态,同时保存远端所有Job的状态快照
+	 *
+	 * @param transitions
+	 *            返回与上一次同步相比状态变化的Job的ID(即Record的runID)
+	 * @return 发布前的失联时间;期限内未返回时期间可能已按不可用发布,迟到的结果以此判断恢复
+	 */
+	public long refreshRemoteStatus(Set<String> transitions) {
+		long start = System.currentTimeMillis();
+		SlaveServerStatus status = null;
 		try {
-			SlaveServerStatus status = remoteServer.getStatus();
-			if (!KettleVariables.REMOTE_STATUS_RUNNING.equals(remoteStatus)) {
+			status = transport.getStatus();
+			breaker.onHeartbeat();
+			updateSnapshot(status, start, transitions);
+			if (!KettleVariables.REMOTE_STATUS_RUNNING.equals(status.getStatusDescription())) {
 				logger.error("Kettle远端[" + getHostName() + "]异常状态:" + status.getStatusDescription());
 			}
-			return status.getStatusDescription();
 		} catch (Exception e) {
 			logger.error("Kettle远端[" + getHostName() + "]查看状态发生异常\n", e);
-			return KettleVariables.REMOTE_STATUS_ERROR;
 		}
+		long latency = System.currentTimeMillis() - start;
+		probeLatency.record(latency);
+		transport.closeIdleConnections();
+		long downSince = publish(status == null ? KettleVariables.REMOTE_STATUS_ERROR : status.getStatusDescription(),
+				status, latency, false);
+		if (isRunning()) {
+			limiter.onLoad(snapshot.getLoadAvg(), snapshot.getCpuCores());
+		}
+		return downSince;
 	}
 
 	/**
-	 * 刷新状态
+	 * 状态同步超过期限仍未返回,按不可用发布;迟到的结果返回后会重新发布
+	 * 
+	 * @param start
+	 *            本轮状态同步的开始时间,此后已发布的快照不覆盖
+	 * @return 发布前的失联时间,结果已在期限后发布时为-1
 	 */
-	public void refreshRemoteStatus() {
-		remoteStatus = fetchRemoteStatus();
+	public synchronized long probeTimeout(long start) {
+		if (snapshot.getProbeTime() >= start) {
+			return -1;
+		}
+		long latency = System.currentTimeMillis() - start;
+		probeLatency.record(latency);
+		return publish(KettleVariables.REMOTE_STATUS_ERROR, null, latency, true);
+	}
+
+	/**
+	 * 评估熔断器的怀疑度,因此断开时重新发布快照
+	 * 
+	 * @param localPause
+	 *            管理端自身的停顿(毫秒)
+	 * @return 发布前的失联时间,未断开时为-1
+	 */
+	public synchronized long checkBreaker(long localPause) {
+		if (breaker.checkPhi(System.currentTimeMillis(), localPause)) {
+			KettleRemoteSnapshot previous = snapshot;
+			return publish(previous.getStatus(), null, previous.getProbeLatency(), previous.isTimedOut());
+		}
+		return -1;
+	}
+
+	/**
+	 * 远端状态的快照
+	 * 
+	 * @return
+	 */
+	public KettleRemoteSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * 状态同步的耗时
+	 * 
+	 * @return
+	 */
+	public KettleLatencyHistogram getProbeLatency() {
+		return probeLatency;
+	}
+
+	/**
+	 * 远端不可用的开始时间(毫秒),可用时为0
+	 * 
+	 * @return
+	 */
+	public long getDownSince() {
+		return snapshot.getDownSince();
+	}
+
+	/**
+	 * 远端是否已不可用超过指定时间
+	 * 
+	 * @param millis
+	 * @return
+	 */
+	public boolean isDownLongerThan(long millis) {
+		long since = snapshot.getDownSince();
+		return since > 0 && System.currentTimeMillis() - since >= millis;
 	}
 
 	/**
@@ -97,17 +327,167 @@ public class KettleRemoteClient {
 	 * @return
 	 */
 	public boolean isRunning() {
-		return KettleVariables.REMOTE_STATUS_RUNNING.equals(remoteStatus);
+		return snapshot.isOnline() && breaker.isClosed();
+	}
+
+	/**
+	 * 占用槽位
+	 * 
+	 * @return 是否成功
+	 */
+	public boolean tryAcquireSlot() {
+		int used;
+		do {
+			used = inFlightCount.get();
+			if (used >= limiter.getLimit()) {
+				return false;
+			}
+		} while (!inFlightCount.compareAndSet(used, used + 1));
+		return true;
+	}
+
+	/**
+	 * 释放槽位
+	 */
+	public void releaseSlot() {
+		inFlightCount.decrementAndGet();
+	}
+
+	/**
+	 * 处理中的任务数量
+	 * 
+	 * @return
+	 */
+	public int getInFlightCount() {
+		return inFlightCount.get();
+	}
+
+	/**
+	 * 空闲槽位数量
+	 * 
+	 * @return
+	 */
+	public int getFreeSlots() {
+		return Math.max(0, limiter.getLimit() - inFlightCount.get());
 	}
 
 	/**
-	 * 远程推送Job
+	 * 处理中的数量是否超过当前上限(上限降低后)
+	 * 
+	 * @return
+	 */
+	public boolean isOverLimit() {
+		return inFlightCount.get() > limiter.getLimit();
+	}
+
+	/**
+	 * 当前的并发上限
+	 * 
+	 * @return
+	 */
+	public int getLimit() {
+		return limiter.getLimit();
+	}
+
+	/**
+	 * @return
+	 */
+	public KettleRemoteLimiter getLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * @return
+	 */
+	public KettleRemoteBreaker getBreaker() {
+		return breaker;
+	}
+
+	/**
+	 * @return
+	 */
+	public KettleRemoteTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * 状态同步的期限(毫秒)
+	 * 
+	 * @return
+	 */
+	public long getProbeTimeout() {
+		return transport.getProbeTimeout();
+	}
+
+	/**
+	 * @return
+	 */
+	public KettleRemoteBulkhead getBulkhead() {
+		return bulkhead;
+	}
+
+	/**
+	 * Record在该远端成功完成
+	 */
+	public void recordSucceeded() {
+		limiter.onSuccess(inFlightCount.get());
+	}
+
+	/**
+	 * Record在该远端异常或超时
+	 * 
+	 * @param reason
+	 */
+	public void recordFailed(String reason) {
+		limiter.onFailure(reason);
+	}
+
+	/**
+	 * 负载评分,越小越空闲:槽位占用率,单核负载与内存占用率的加权
+	 * 
+	 * @return
+	 */
+	public double getLoadScore() {
+		int limit = limiter.getLimit();
+		KettleRemoteSnapshot current = snapshot;
+		double slotUsage = limit < 1 ? 1 : (double) inFlightCount.get() / limit;
+		double cpuLoad = current.getCpuCores() < 1 || current.getLoadAvg() < 0 ? 0
+				: current.getLoadAvg() / current.getCpuCores();
+		double memoryUsage = current.getMemoryTotal() < 1 ? 0
+				: 1 - (double) current.getMemoryFree() / current.getMemoryTotal();
+		return slotUsage * 0.6 + Math.min(cpuLoad, 2) * 0.3 + memoryUsage * 0.1;
+	}
+
+	public int getCpuCores() {
+		return snapshot.getCpuCores();
+	}
+
+	public double getLoadAvg() {
+		return snapshot.getLoadAvg();
+	}
+
+	public long getMemoryFree() {
+		return snapshot.getMemoryFree();
+	}
+
+	public long getMemoryTotal() {
+		return snapshot.getMemoryTotal();
+	}
+
+	/**
+	 * 远程推送Job;REFERENCE方式只发送资源库中的路径,由远端从共享的资源库加载;不在资源库的Job上传其导出包
 	 * 
 	 * @param job
 	 * @return
 	 * @throws KettleException
 	 */
 	public String remoteSendJob(KettleRecord job) throws KettleException {
+		if (job.isInline()) {
+			return remoteSendExport(job);
+		}
+		if ("REFERENCE".equalsIgnoreCase(KettleMgrEnvironment.KETTLE_RECORD_SEND_MODE)) {
+			return remoteExecuteJob(job);
+		}
 		JobExecutionConfiguration jobExecutionConfiguration = new JobExecutionConfiguration();
 		jobExecutionConfiguration.setRemoteServer(remoteServer);
 		jobExecutionConfiguration.setLogLevel(LogLevel.BASIC);
@@ -117,11 +497,129 @@ public class KettleRemoteClient {
 		jobExecutionConfiguration.setRepository(repositoryClient.getRepository());
 		String runID = null;
 		JobMeta jobMeta = repositoryClient.getMainJob(job);
-		runID = Job.sendToSlaveServer(jobMeta, jobExecutionConfiguration, repositoryClient.getRepository(),
-				repositoryClient.getRepository().getMetaStore());
+		if (!breaker.allowRequest()) {
+			throw new KettleException("Kettle远端[" + this.getHostName() + "]已熔断,无法发送Job[" + job.getUuid() + "]!",
+					new KettleRemoteOpenException(this.getHostName()));
+		}
+		long start = System.currentTimeMillis();
+		boolean reported = false;
+		try {
+			runID = Job.sendToSlaveServer(jobMeta, jobExecutionConfiguration, repositoryClient.getRepository(),
+					repositoryClient.getRepository().getMetaStore());
+			breaker.onSuccess();
+			reported = true;
+		} catch (KettleException ex) {
+			limiter.onFailure("SEND");
+			if (KettleRemoteBreaker.isRemoteFailure(ex)) {
+				breaker.onFailure();
+			} else {
+				breaker.onSuccess();
+			}
+			reported = true;
+			throw ex;
+		} finally {
+			// 其他异常及Error计为失败,试探调用不会遗留未反馈
+			if (!reported) {
+				limiter.onFailure("SEND");
+				breaker.onFailure();
+			}
+		}
+		limiter.onSendLatency(System.currentTimeMillis() - start);
+		return runID;
+	}
+
+	/**
+	 * 上传不在资源库的Job的导出包并启动,导出包不在内存时从数据库加载
+	 * 
+	 * @param job
+	 * @return
+	 * @throws KettleException
+	 */
+	private String remoteSendExport(KettleRecord job) throws KettleException {
+		byte[] definition = job.getDefinition();
+		if (definition == null) {
+			definition = KettleMgrInstance.kettleMgrEnvironment.getDbClient().queryRecordDefinition(job.getUuid());
+			if (definition == null) {
+				throw new KettleException("Kettle的Record[" + job.getUuid() + "]不在资源库且没有保存定义,无法发送!");
+			}
+		}
+		String runID = null;
+		long start = System.currentTimeMillis();
+		try {
+			WebResult result = transport.sendExport(definition, KettleJobExporter.mainEntry(job.getName()));
+			if (!WebResult.STRING_OK.equals(result.getResult())) {
+				throw new KettleException("Kettle远端[" + this.getHostName() + "]加载Job[" + job.getUuid() + "]失败!\n"
+						+ result.getMessage());
+			}
+			runID = result.getId();
+			result = transport.startJob(job.getName(), runID);
+			if (!WebResult.STRING_OK.equals(result.getResult())) {
+				throw new KettleException("Kettle远端[" + this.getHostName() + "]启动Job[" + job.getUuid() + "]失败!\n"
+						+ result.getMessage());
+			}
+		} catch (KettleException ex) {
+			limiter.onFailure("SEND");
+			removeLoadedJob(job, runID);
+			throw ex;
+		} catch (Exception ex) {
+			limiter.onFailure("SEND");
+			removeLoadedJob(job, runID);
+			throw new KettleException("Kettle远端[" + this.getHostName() + "]发送Job[" + job.getUuid() + "]失败!", ex);
+		}
+		limiter.onSendLatency(System.currentTimeMillis() - start);
+		// 已在远端,释放导出包
+		job.setDefinition(null);
 		return runID;
 	}
 
+	/**
+	 * 导出包已加载但启动失败时移除远端的Job,重试时不遗留在Carte中
+	 * 
+	 * @param job
+	 * @param runID
+	 *            加载返回的ID,为null时未加载
+	 */
+	private void removeLoadedJob(KettleRecord job, String runID) {
+		if (runID == null) {
+			return;
+		}
+		try {
+			transport.removeJob(job.getName(), runID);
+		} catch (Exception ex) {
+			logger.warn("Kettle远端[" + this.getHostName() + "]移除启动失败的Job[" + job.getUuid() + "]失败!", ex);
+		}
+	}
+
+	/**
+	 * 远端从资源库加载并执行Job,不导出和上传Job的定义
+	 * 
+	 * @param job
+	 * @return
+	 * @throws KettleException
+	 */
+	private String remoteExecuteJob(KettleRecord job) throws KettleException {
+		String jobPath = repositoryClient.getJobPath(job);
+		String repository = KettleMgrEnvironment.KETTLE_RECORD_SEND_REPOSITORY == null
+				? repositoryClient.getRepository().getName() : KettleMgrEnvironment.KETTLE_RECORD_SEND_REPOSITORY;
+		WebResult result = null;
+		long start = System.currentTimeMillis();
+		try {
+			result = transport.executeJob(repository, KettleMgrEnvironment.KETTLE_RECORD_SEND_REPOSITORY_USER,
+					KettleMgrEnvironment.KETTLE_RECORD_SEND_REPOSITORY_PASSWORD, jobPath, LogLevel.BASIC.getCode());
+		} catch (Exception ex) {
+			limiter.onFailure("SEND");
+			throw new KettleException("Kettle远端[" + this.getHostName() + "]执行资源库[" + repository + "]中的Job["
+					+ jobPath + "]失败!", ex);
+		}
+		if (!WebResult.STRING_OK.equals(result.getResult())) {
+			limiter.onFailure("SEND");
+			throw new KettleException("Kettle远端[" + this.getHostName() + "]执行资源库[" + repository + "]中的Job["
+					+ jobPath + "]失败!\n" + result.getMessage());
+		}
+		limiter.onSendLatency(System.currentTimeMillis() - start);
+		return result.getId();
+	}
+
 	/**
 	 * 远程启动,
 	 * 
@@ -131,7 +629,7 @@ public class KettleRemoteClient {
 	public void remoteStartJob(KettleRecord job) throws KettleException {
 		WebResult result;
 		try {
-			result = remoteServer.startJob(job.getName(), job.getRunID());
+			result = transport.startJob(job.getName(), job.getRunID());
 		} catch (Exception e) {
 			throw new KettleException("Kettle远端[" + this.getHostName() + "]启动Job[" + job.getUuid() + "]失败!", e);
 		}
@@ -150,7 +648,7 @@ public class KettleRemoteClient {
 	public void remoteStopJob(KettleRecord job) throws KettleException {
 		WebResult result;
 		try {
-			result = remoteServer.stopJob(job.getName(), job.getRunID());
+			result = transport.stopJob(job.getName(), job.getRunID());
 		} catch (Exception e) {
 			throw new KettleException("Kettle远端[" + this.getHostName() + "]停止Job[" + job.getUuid() + "]失败!", e);
 		}
@@ -174,20 +672,105 @@ public class KettleRemoteClient {
 	}
 
 	/**
-	 * 获取远端的状态
+	 * 获取远端的状态:优先从最近的状态快照中读取;快照之后才发送的Job等待下一次同步;
+	 * 快照过期或快照中没有该Job时单独查询
 	 * 
 	 * @param job
 	 * @throws KettleException
 	 */
 	public void remoteJobStatus(KettleRecord job) throws KettleException {
+		JobStatusSnapshot snapshot = jobStatusSnapshot;
+		if (snapshot != null && job.getRunID() != null && System.currentTimeMillis()
+				- snapshot.start <= KettleMgrEnvironment.KETTLE_REMOTE_STATUS_SYNC_SECONDS * 3000L) {
+			SlaveServerJobStatus jobStatus = snapshot.jobStatuses.get(job.getRunID());
+			if (jobStatus != null) {
+				applyJobStatus(job, jobStatus);
+				return;
+			}
+			if (job.getUpdateTime() != null && job.getUpdateTime().getTime() >= snapshot.start) {
+				return;
+			}
+		}
 		SlaveServerJobStatus jobStatus;
+		long start = System.currentTimeMillis();
 		try {
-			jobStatus = remoteServer.getJobStatus(job.getName(), job.getRunID(), 0);
+			jobStatus = transport.getJobStatus(job.getName(), job.getRunID(), logOffset(job));
+			limiter.onLatency(System.currentTimeMillis() - start);
 		} catch (Exception e) {
+			limiter.onFailure("STATUS");
 			throw new KettleException("Kettle远端[" + this.getHostName() + "]查询Job[" + job.getUuid() + "]失败!", e);
 		}
+		appendJobLog(job, jobStatus);
+		applyJobStatus(job, jobStatus);
+	}
+
+	/**
+	 * 拉取远端日志的增量,从已拉取的行号之后开始,追加到Record本地日志
+	 * 
+	 * @param job
+	 * @throws KettleException
+	 */
+	public void remoteJobLog(KettleRecord job) throws KettleException {
+		SlaveServerJobStatus jobStatus;
+		try {
+			jobStatus = transport.getJobStatus(job.getName(), job.getRunID(), logOffset(job));
+		} catch (Exception e) {
+			throw new KettleException("Kettle远端[" + this.getHostName() + "]拉取Job[" + job.getUuid() + "]日志失败!", e);
+		}
+		appendJobLog(job, jobStatus);
+	}
+
+	/**
+	 * 拉取远端日志的增量
+	 * 
+	 * @param job
+	 */
+	public void remoteJobLogNE(KettleRecord job) {
+		try {
+			remoteJobLog(job);
+		} catch (Exception ex) {
+			logger.warn("Kettle远端[" + this.getHostName() + "]拉取Job[" + job.getUuid() + "]日志失败!", ex);
+		}
+	}
+
+	/**
+	 * 追加日志的增量,并记录远端的行号;远端重启后行号变小,同样以远端为准
+	 * 
+	 * @param job
+	 * @param jobStatus
+	 */
+	private void appendJobLog(KettleRecord job, SlaveServerJobStatus jobStatus) {
+		if (jobStatus == null || jobStatus.getStatusDescription() == null) {
+			return;
+		}
+		KettleMgrInstance.kettleMgrEnvironment.getLogStore().append(job.getUuid(), jobStatus.getLoggingString(),
+				job.getRunID(), jobStatus.getLastLoggingLineNr());
+		job.setLogOffset(jobStatus.getLastLoggingLineNr());
+	}
+
+	/**
+	 * 拉取日志的起始行号:内存中没有时(节点重启,接管)从本地日志保存的行号继续,避免重复拉取
+	 * 
+	 * @param job
+	 * @return
+	 */
+	private int logOffset(KettleRecord job) {
+		if (job.getLogOffset() == 0) {
+			job.setLogOffset(KettleMgrInstance.kettleMgrEnvironment.getLogStore().offset(job.getUuid(), job.getRunID()));
+		}
+		return job.getLogOffset();
+	}
+
+	/**
+	 * 按远端的Job状态设置Record的状态
+	 * 
+	 * @param job
+	 * @param jobStatus
+	 *            远端没有该Job时为null
+	 */
+	public void applyJobStatus(KettleRecord job, SlaveServerJobStatus jobStatus) {
 		logger.debug("Kettle Remote[" + remoteServer.getHostname() + "]同步Job[" + job.getUuid() + "]状态为:"
-				+ jobStatus.getStatusDescription());
+				+ (jobStatus == null ? null : jobStatus.getStatusDescription()));
 		if (jobStatus == null || jobStatus.getStatusDescription() == null) {
 			job.setStatus(KettleVariables.RECORD_STATUS_ERROR);
 			job.setErrMsg("remote[" + this.getHostName() + "]未找到record[" + job.getUuid() + "]信息!");
@@ -210,7 +793,7 @@ public class KettleRemoteClient {
 	public void remoteRemoveJob(KettleRecord job) throws KettleException {
 		WebResult result;
 		try {
-			result = remoteServer.removeJob(job.getName(), job.getRunID());
+			result = transport.removeJob(job.getName(), job.getRunID());
 		} catch (Exception e) {
 			throw new KettleException("Kettle远端[" + this.getHostName() + "]删除Job[" + job.getUuid() + "]失败!", e);
 		}
@@ -241,4 +824,25 @@ public class KettleRemoteClient {
 	public String getHostName() {
 		return this.remoteServer.getHostname();
 	}
+
+	/**
+	 * 远端所有Job的状态快照
+	 */
+	private static class JobStatusSnapshot {
+
+		/**
+		 * Carte中Job的ID(即Record的runID)到状态
+		 */
+		private final Map<String, SlaveServerJobStatus> jobStatuses;
+
+		/**
+		 * 获取状态的开始时间
+		 */
+		private final long start;
+
+		private JobStatusSnapshot(Map<String, SlaveServerJobStatus> jobStatuses, long start) {
+			this.jobStatuses = jobStatuses;
+			this.start = start;
+		}
+	}
 }
@@ -0,0 +1,92 @@
+package com.kettle.remote;
+
+import java.util.Date;
+
+/**
+ * 远端并发上限的一次变化,北向
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRemoteLimitChange {
+	/**
+	 * 远端
+	 */
+	private String hostname;
+
+	/**
+	 * 变化前的上限
+	 */
+	private int oldLimit;
+
+	/**
+	 * 变化后的上限
+	 */
+	private int newLimit;
+
+	/**
+	 * 原因:INIT,INCREASE,LATENCY,LOAD,SEND,STATUS,ERROR,TIMEOUT
+	 */
+	private String reason;
+
+	/**
+	 * 变化时间
+	 */
+	private Date changeTime;
+
+	public KettleRemoteLimitChange() {
+	}
+
+	public KettleRemoteLimitChange(String hostname, int oldLimit, int newLimit, String reason) {
+		this.hostname = hostname;
+		this.oldLimit = oldLimit;
+		this.newLimit = newLimit;
+		this.reason = reason;
+		this.changeTime = new Date();
+	}
+
+	public String getHostname() {
+		return hostname;
+	}
+
+	public void setHostname(String hostname) {
+		this.hostname = hostname;
+	}
+
+	public int getOldLimit() {
+		return oldLimit;
+	}
+
+	public void setOldLimit(int oldLimit) {
+		this.oldLimit = oldLimit;
+	}
+
+	public int getNewLimit() {
+		return newLimit;
+	}
+
+	public void setNewLimit(int newLimit) {
+		this.newLimit = newLimit;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	public void setReason(String reason) {
+		this.reason = reason;
+	}
+
+	public Date getChangeTime() {
+		return changeTime;
+	}
+
+	public void setChangeTime(Date changeTime) {
+		this.changeTime = changeTime;
+	}
+
+	@Override
+	public String toString() {
+		return "KettleRemoteLimitChange[" + hostname + "," + oldLimit + "->" + newLimit + "," + reason + "]";
+	}
+}
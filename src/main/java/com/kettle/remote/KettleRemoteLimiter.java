@@ -0,0 +1,284 @@
+package com.kettle.remote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kettle.core.instance.KettleMgrEnvironment;
+
+/**
+ * 远端的自适应并发上限(AIMD)
+ *
+ * 上限被占满且远端健康(调用时延未明显高于基线,单核负载未超限)时,每完成一个上限数量的Record加1;
+ * Record异常,超时,调用失败,时延或负载过高时乘以退避系数,冷却期内只降低一次
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRemoteLimiter {
+
+	/**
+	 * 日志
+	 */
+	private static Logger logger = LoggerFactory.getLogger(KettleRemoteLimiter.class);
+
+	/**
+	 * 两次降低的最小间隔(毫秒)
+	 */
+	private static final long DECREASE_COOLDOWN = 10000;
+
+	/**
+	 * 保留的上限变化数量
+	 */
+	private static final int HISTORY_MAX = 200;
+
+	/**
+	 * 时延的平滑系数
+	 */
+	private static final double LATENCY_ALPHA = 0.2;
+
+	/**
+	 * 时延基线向上回归的系数,避免基线永远停在历史最小值
+	 */
+	private static final double BASELINE_DRIFT = 0.01;
+
+	/**
+	 * 远端
+	 */
+	private final String hostname;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	/**
+	 * 乘性降低的系数
+	 */
+	private final double backoff;
+
+	/**
+	 * 单核负载上限
+	 */
+	private final double loadMax;
+
+	/**
+	 * 平滑时延与基线之比的上限
+	 */
+	private final double latencyRatio;
+
+	/**
+	 * 当前上限
+	 */
+	private volatile int limit;
+
+	/**
+	 * 本窗口内成功的数量,达到上限时加1
+	 */
+	private int successes = 0;
+
+	/**
+	 * 平滑时延(毫秒)
+	 */
+	private double latency = 0;
+
+	/**
+	 * 时延基线(毫秒)
+	 */
+	private double baseline = 0;
+
+	/**
+	 * 发送的平滑时延(毫秒),包含导出和上传,只做观测,不参与基线和上限的调整
+	 */
+	private double sendLatency = 0;
+
+	/**
+	 * 远端负载是否健康
+	 */
+	private boolean loadHealthy = true;
+
+	/**
+	 * 上次降低的时间
+	 */
+	private long lastDecrease = 0;
+
+	/**
+	 * 上限的变化历史
+	 */
+	private final Queue<KettleRemoteLimitChange> history = new ConcurrentLinkedQueue<KettleRemoteLimitChange>();
+
+	private int historySize = 0;
+
+	/**
+	 * @param hostname
+	 * @param name
+	 *            远端名称,用于读取单个远端的配置
+	 * @param initLimit
+	 *            未配置最大值时同时作为最大值
+	 */
+	public KettleRemoteLimiter(String hostname, String name, int initLimit) {
+		this.hostname = hostname;
+		this.minLimit = Math.max(1, KettleMgrEnvironment.NVLInt("KETTLE_REMOTE_LIMIT_MIN_" + name,
+				KettleMgrEnvironment.KETTLE_REMOTE_LIMIT_MIN));
+		Integer max = KettleMgrEnvironment.NVLInt("KETTLE_REMOTE_LIMIT_MAX_" + name,
+				KettleMgrEnvironment.KETTLE_REMOTE_LIMIT_MAX);
+		this.maxLimit = Math.max(minLimit, max == null ? initLimit : max);
+		this.backoff = KettleMgrEnvironment.KETTLE_REMOTE_LIMIT_BACKOFF;
+		this.loadMax = KettleMgrEnvironment.KETTLE_REMOTE_LIMIT_LOAD_MAX;
+		this.latencyRatio = KettleMgrEnvironment.KETTLE_REMOTE_LIMIT_LATENCY_RATIO;
+		this.limit = Math.min(maxLimit, Math.max(minLimit, initLimit));
+		record(limit, limit, "INIT");
+	}
+
+	/**
+	 * 当前上限
+	 *
+	 * @return
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * 上限的最大值,并行槽位按此数量创建
+	 *
+	 * @return
+	 */
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	/**
+	 * Record成功完成
+	 *
+	 * @param inFlight
+	 *            完成前处理中的数量
+	 */
+	public synchronized void onSuccess(int inFlight) {
+		if (!loadHealthy || baseline > 0 && latency > baseline * latencyRatio) {
+			return;
+		}
+		// 上限未被占满时,成功不能说明远端还能承受更多
+		if (inFlight < limit) {
+			return;
+		}
+		if (++successes >= limit && limit < maxLimit) {
+			successes = 0;
+			change(limit + 1, "INCREASE");
+		}
+	}
+
+	/**
+	 * Record异常,超时或远端调用失败
+	 *
+	 * @param reason
+	 */
+	public synchronized void onFailure(String reason) {
+		decrease(reason);
+	}
+
+	/**
+	 * 远端轻量调用(状态查询)的时延,参与基线与上限的调整
+	 *
+	 * @param millis
+	 */
+	public synchronized void onLatency(long millis) {
+		latency = latency == 0 ? millis : latency + (millis - latency) * LATENCY_ALPHA;
+		if (baseline == 0 || millis < baseline) {
+			baseline = millis;
+		} else {
+			baseline += (millis - baseline) * BASELINE_DRIFT;
+		}
+		if (latency > Math.max(baseline, 1) * latencyRatio) {
+			decrease("LATENCY");
+		}
+	}
+
+	/**
+	 * 发送Job的时延,耗时随Job的大小变化,单独统计,避免拉高平滑时延或压低基线
+	 *
+	 * @param millis
+	 */
+	public synchronized void onSendLatency(long millis) {
+		sendLatency = sendLatency == 0 ? millis : sendLatency + (millis - sendLatency) * LATENCY_ALPHA;
+	}
+
+	/**
+	 * 远端的负载,来自状态同步
+	 *
+	 * @param loadAvg
+	 * @param cpuCores
+	 */
+	public synchronized void onLoad(double loadAvg, int cpuCores) {
+		if (cpuCores < 1 || loadAvg < 0) {
+			loadHealthy = true;
+			return;
+		}
+		loadHealthy = loadAvg / cpuCores <= loadMax;
+		if (!loadHealthy) {
+			decrease("LOAD");
+		}
+	}
+
+	/**
+	 * 乘性降低,冷却期内忽略
+	 *
+	 * @param reason
+	 */
+	private void decrease(String reason) {
+		long now = System.currentTimeMillis();
+		successes = 0;
+		if (now - lastDecrease < DECREASE_COOLDOWN || limit <= minLimit) {
+			return;
+		}
+		lastDecrease = now;
+		change(Math.max(minLimit, (int) (limit * backoff)), reason);
+	}
+
+	private void change(int newLimit, String reason) {
+		int oldLimit = limit;
+		if (newLimit == oldLimit) {
+			return;
+		}
+		limit = newLimit;
+		record(oldLimit, newLimit, reason);
+		logger.info("Kettle远端[" + hostname + "]并发上限" + oldLimit + "->" + newLimit + ",原因:" + reason);
+	}
+
+	private void record(int oldLimit, int newLimit, String reason) {
+		history.offer(new KettleRemoteLimitChange(hostname, oldLimit, newLimit, reason));
+		if (++historySize > HISTORY_MAX && history.poll() != null) {
+			historySize--;
+		}
+	}
+
+	/**
+	 * 上限的变化历史
+	 *
+	 * @return
+	 */
+	public List<KettleRemoteLimitChange> getHistory() {
+		return new ArrayList<KettleRemoteLimitChange>(history);
+	}
+
+	/**
+	 * 平滑时延(毫秒)
+	 *
+	 * @return
+	 */
+	public synchronized long getLatency() {
+		return (long) latency;
+	}
+
+	/**
+	 * 发送的平滑时延(毫秒)
+	 *
+	 * @return
+	 */
+	public synchronized long getSendLatency() {
+		return (long) sendLatency;
+	}
+}
@@ -0,0 +1,27 @@
+package com.kettle.remote;
+
+import java.util.Set;
+
+/**
+ * 监听远端状态
+ * 
+ * @author Administrator
+ *
+ */
+public interface KettleRemoteMonitor {
+	/**
+	 * 远端不可用,每次状态同步都会通知,直到远端恢复
+	 * 
+	 * @param remoteClient
+	 */
+	public void remoteErrorNotify(KettleRemoteClient remoteClient);
+
+	/**
+	 * 状态同步发现远端Job的状态变化
+	 * 
+	 * @param remoteClient
+	 * @param runIDs
+	 *            状态变化的Job的ID,即Record的runID
+	 */
+	public void jobStatusNotify(KettleRemoteClient remoteClient, Set<String> runIDs);
+}
@@ -0,0 +1,18 @@
+package com.kettle.remote;
+
+import java.io.IOException;
+
+/**
+ * 远端已熔断,调用未发出即失败;继承IOException,按重试策略可重试
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRemoteOpenException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public KettleRemoteOpenException(String message) {
+		super(message);
+	}
+}
@@ -1,13 +1,23 @@
 package com.kettle.remote;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.pentaho.di.cluster.SlaveServer;
 import org.pentaho.di.core.logging.LogLevel;
@@ -15,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.kettle.core.KettleVariables;
+import com.kettle.core.instance.KettleMgrEnvironment;
 import com.kettle.core.repo.KettleRepositoryClient;
 
 /**
@@ -44,11 +55,41 @@ public class KettleRemotePool {
 	 */
 	private final ScheduledExecutorService threadPool = Executors.newSingleThreadScheduledExecutor();
 
+	/**
+	 * 状态同步的线程池,各远端并行
+	 */
+	private final ExecutorService probePool = Executors.newCachedThreadPool();
+
+	/**
+	 * 各远端进行中的状态同步,同一远端同时只有一次
+	 */
+	private final Map<String, RemoteProbe> probes = new ConcurrentHashMap<String, RemoteProbe>();
+
 	/**
 	 * 池状态
 	 */
 	private String poolStatus = KettleVariables.RECORD_STATUS_RUNNING;
 
+	/**
+	 * 保留的故障转移事件数量
+	 */
+	private static final int FAILOVER_EVENT_MAX = 1000;
+
+	/**
+	 * 最近的故障转移事件
+	 */
+	private final Queue<KettleFailoverEvent> failoverEvents = new ConcurrentLinkedQueue<KettleFailoverEvent>();
+
+	/**
+	 * 故障转移事件数量
+	 */
+	private final AtomicInteger failoverEventCount = new AtomicInteger(0);
+
+	/**
+	 * 监听者
+	 */
+	private final List<KettleRemoteMonitor> remoteMonitors = new CopyOnWriteArrayList<KettleRemoteMonitor>();
+
 	/**
 	 * @param repositoryClient
 	 * @throws Exception
@@ -61,8 +102,9 @@ public class KettleRemotePool {
 			hostNames.add(server.getHostname());
 		}
 		logger.info("Kettle远程池已经加载Client" + remoteclients.keySet());
-		// 每30秒同步一次状态
-		threadPool.scheduleAtFixedRate(new RemoteDeamon(), 10, 10, TimeUnit.SECONDS);
+		// 定期同步状态,每个远端一次调用
+		int syncSeconds = Math.max(1, KettleMgrEnvironment.KETTLE_REMOTE_STATUS_SYNC_SECONDS);
+		threadPool.scheduleAtFixedRate(new RemoteDeamon(), syncSeconds, syncSeconds, TimeUnit.SECONDS);
 	}
 
 	/**
@@ -79,6 +121,50 @@ public class KettleRemotePool {
 		}
 	}
 
+	/**
+	 * 注册监听器
+	 * 
+	 * @param remoteMonitor
+	 */
+	public void registeRemoteMonitor(KettleRemoteMonitor remoteMonitor) {
+		remoteMonitors.add(remoteMonitor);
+	}
+
+	/**
+	 * 记录故障转移事件
+	 * 
+	 * @param type
+	 * @param remoteClient
+	 * @param uuid
+	 *            远端事件为null
+	 */
+	public void failoverEvent(String type, KettleRemoteClient remoteClient, String uuid) {
+		addFailoverEvent(
+				new KettleFailoverEvent(type, remoteClient.getHostName(), uuid, remoteClient.getDownSince()));
+	}
+
+	/**
+	 * 保存事件,超过数量时丢弃最早的
+	 * 
+	 * @param event
+	 */
+	private void addFailoverEvent(KettleFailoverEvent event) {
+		logger.info("Kettle故障转移:" + event);
+		failoverEvents.offer(event);
+		if (failoverEventCount.incrementAndGet() > FAILOVER_EVENT_MAX && failoverEvents.poll() != null) {
+			failoverEventCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * 最近的故障转移事件
+	 * 
+	 * @return
+	 */
+	public List<KettleFailoverEvent> getFailoverEvents() {
+		return new ArrayList<KettleFailoverEvent>(failoverEvents);
+	}
+
 	/**
 	 * 获取所有Client
 	 * 
@@ -89,18 +175,154 @@ public class KettleRemotePool {
 	}
 
 	/**
-	 * 远程池
+	 * 运行中远端的空闲槽位总数
+	 * 
+	 * @return
+	 */
+	public int getFreeSlots() {
+		int freeSlots = 0;
+		for (KettleRemoteClient remoteClient : remoteclients.values()) {
+			if (remoteClient.isRunning()) {
+				freeSlots += remoteClient.getFreeSlots();
+			}
+		}
+		return freeSlots;
+	}
+
+	/**
+	 * 各远端状态的快照
+	 * 
+	 * @return
+	 */
+	public List<KettleRemoteSnapshot> getRemoteSnapshots() {
+		List<KettleRemoteSnapshot> snapshots = new ArrayList<KettleRemoteSnapshot>(remoteclients.size());
+		for (KettleRemoteClient remoteClient : remoteclients.values()) {
+			snapshots.add(remoteClient.getSnapshot());
+		}
+		return snapshots;
+	}
+
+	/**
+	 * 远端的失联或恢复事件
+	 * 
+	 * @param client
+	 * @param downSince
+	 *            状态同步前的失联时间
+	 */
+	private void remoteEvent(KettleRemoteClient client, long downSince) {
+		if (downSince == 0 && !client.isRunning()) {
+			failoverEvent(KettleVariables.FAILOVER_REMOTE_DOWN, client, null);
+		} else if (downSince > 0 && client.isRunning()) {
+			// 恢复事件的开始时间取失联时间,即恢复耗时
+			addFailoverEvent(
+					new KettleFailoverEvent(KettleVariables.FAILOVER_REMOTE_UP, client.getHostName(), null, downSince));
+		}
+	}
+
+	/**
+	 * 单个远端的状态同步
+	 * 
+	 * @author Administrator
+	 *
+	 */
+	private class RemoteProbe implements Runnable {
+
+		private final KettleRemoteClient client;
+
+		/**
+		 * 发起的时间
+		 */
+		private final long start;
+
+		private volatile Future<?> future;
+
+		/**
+		 * 是否已按超过期限发布
+		 */
+		private boolean expired = false;
+
+		private RemoteProbe(KettleRemoteClient client, long start) {
+			this.client = client;
+			this.start = start;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Set<String> transitions = new HashSet<String>();
+				long downSince = client.refreshRemoteStatus(transitions);
+				if (!transitions.isEmpty()) {
+					jobStatusNotify(client, transitions);
+				}
+				remoteEvent(client, downSince);
+			} catch (Exception ex) {
+				logger.error("Remote[" + client.getHostName() + "]状态同步发生异常!", ex);
+			}
+		}
+
+		private boolean isDone() {
+			return future != null && future.isDone();
+		}
+	}
+
+	/**
+	 * 远程池,各远端的状态同步并行进行,每个都有期限;本轮不等待状态同步返回,
+	 * 上一次仍未返回的远端在之后的轮次中检查期限,挂起的远端不拖慢其他远端
 	 * 
 	 * @author chenkw
 	 *
 	 */
 	private class RemoteDeamon implements Runnable {
 
+		/**
+		 * 上一轮的开始和结束时间
+		 */
+		private long lastStart = 0;
+
+		private long lastEnd = 0;
+
 		@Override
 		public void run() {
 			Collection<KettleRemoteClient> clients = remoteclients.values();
+			long start = System.currentTimeMillis();
+			// 本轮比预期晚开始的时间即管理端自身的停顿,此时所有远端的怀疑度都会同时升高
+			long localPause = 0;
+			if (lastStart > 0) {
+				long syncMillis = Math.max(1, KettleMgrEnvironment.KETTLE_REMOTE_STATUS_SYNC_SECONDS) * 1000L;
+				localPause = start - Math.max(lastStart + syncMillis, lastEnd);
+				if (localPause > KettleMgrEnvironment.KETTLE_REMOTE_BREAKER_PAUSE) {
+					logger.warn("远程池状态同步延迟" + localPause + "ms开始,本轮不评估远端的怀疑度");
+				} else {
+					localPause = 0;
+				}
+			}
+			lastStart = start;
+			RemoteProbe probe;
+			long downSince;
+			for (KettleRemoteClient client : clients) {
+				probe = probes.get(client.getHostName());
+				if (probe != null && !probe.isDone()) {
+					// 上一次仍未返回的不再重复发起,也不等待;超过期限时按不可用发布一次,迟到的结果返回后重新发布
+					if (!probe.expired && start - probe.start >= client.getProbeTimeout()) {
+						probe.expired = true;
+						logger.error("Remote[" + client.getHostName() + "]状态同步超过" + client.getProbeTimeout()
+								+ "ms未返回!");
+						downSince = client.probeTimeout(probe.start);
+						if (downSince >= 0) {
+							remoteEvent(client, downSince);
+						}
+					}
+					continue;
+				}
+				probe = new RemoteProbe(client, start);
+				probes.put(client.getHostName(), probe);
+				probe.future = probePool.submit(probe);
+			}
 			for (KettleRemoteClient client : clients) {
-				client.refreshRemoteStatus();
+				downSince = client.checkBreaker(localPause);
+				if (downSince >= 0) {
+					remoteEvent(client, downSince);
+				}
 			}
 			String status = KettleVariables.REMOTE_STATUS_ERROR;
 			for (KettleRemoteClient client : clients) {
@@ -108,9 +330,34 @@ public class KettleRemotePool {
 					status = KettleVariables.REMOTE_STATUS_RUNNING;
 				} else {
 					logger.error("Remote[" + client.getHostName() + "]异常状态!");
+					for (KettleRemoteMonitor remoteMonitor : remoteMonitors) {
+						try {
+							remoteMonitor.remoteErrorNotify(client);
+						} catch (Exception ex) {
+							logger.error("Remote[" + client.getHostName() + "]故障转移发生异常!", ex);
+						}
+					}
 				}
 			}
 			poolStatus = status;
+			lastEnd = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * 通知远端Job的状态变化
+	 * 
+	 * @param client
+	 * @param transitions
+	 */
+	private void jobStatusNotify(KettleRemoteClient client, Set<String> transitions) {
+		logger.debug("Remote[" + client.getHostName() + "]状态变化的Job数量:" + transitions.size());
+		for (KettleRemoteMonitor remoteMonitor : remoteMonitors) {
+			try {
+				remoteMonitor.jobStatusNotify(client, transitions);
+			} catch (Exception ex) {
+				logger.error("Remote[" + client.getHostName() + "]通知Job状态变化发生异常!", ex);
+			}
 		}
 	}
 
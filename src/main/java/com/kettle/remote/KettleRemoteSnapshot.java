@@ -0,0 +1,130 @@
+package com.kettle.remote;
+
+import com.kettle.core.KettleVariables;
+
+/**
+ * 远端状态的快照,每次状态同步发布一个新的实例,不可变;读取方无需加锁,也不会读到半更新的状态
+ *
+ * @author Administrator
+ *
+ */
+public final class KettleRemoteSnapshot {
+	/**
+	 * 远端
+	 */
+	private final String hostname;
+
+	/**
+	 * 远端状态描述,状态同步失败或超时为ERROR
+	 */
+	private final String status;
+
+	/**
+	 * CPU核数
+	 */
+	private final int cpuCores;
+
+	/**
+	 * 系统负载
+	 */
+	private final double loadAvg;
+
+	/**
+	 * 空闲内存
+	 */
+	private final long memoryFree;
+
+	/**
+	 * 总内存
+	 */
+	private final long memoryTotal;
+
+	/**
+	 * 不可用的开始时间(毫秒),可用时为0
+	 */
+	private final long downSince;
+
+	/**
+	 * 状态同步的耗时(毫秒)
+	 */
+	private final long probeLatency;
+
+	/**
+	 * 发布时间(毫秒)
+	 */
+	private final long probeTime;
+
+	/**
+	 * 状态同步是否超过期限
+	 */
+	private final boolean timedOut;
+
+	public KettleRemoteSnapshot(String hostname, String status, int cpuCores, double loadAvg, long memoryFree,
+			long memoryTotal, long downSince, long probeLatency, long probeTime, boolean timedOut) {
+		this.hostname = hostname;
+		this.status = status;
+		this.cpuCores = cpuCores;
+		this.loadAvg = loadAvg;
+		this.memoryFree = memoryFree;
+		this.memoryTotal = memoryTotal;
+		this.downSince = downSince;
+		this.probeLatency = probeLatency;
+		this.probeTime = probeTime;
+		this.timedOut = timedOut;
+	}
+
+	public String getHostname() {
+		return hostname;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public int getCpuCores() {
+		return cpuCores;
+	}
+
+	public double getLoadAvg() {
+		return loadAvg;
+	}
+
+	public long getMemoryFree() {
+		return memoryFree;
+	}
+
+	public long getMemoryTotal() {
+		return memoryTotal;
+	}
+
+	public long getDownSince() {
+		return downSince;
+	}
+
+	public long getProbeLatency() {
+		return probeLatency;
+	}
+
+	public long getProbeTime() {
+		return probeTime;
+	}
+
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * 远端状态是否正常
+	 *
+	 * @return
+	 */
+	public boolean isOnline() {
+		return KettleVariables.REMOTE_STATUS_RUNNING.equals(status);
+	}
+
+	@Override
+	public String toString() {
+		return "KettleRemoteSnapshot[" + hostname + "," + status + ",负载" + loadAvg + "/" + cpuCores + ",同步耗时"
+				+ probeLatency + "ms" + (timedOut ? ",超时" : "") + "]";
+	}
+}
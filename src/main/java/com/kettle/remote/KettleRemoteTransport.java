@@ -0,0 +1,403 @@
+package com.kettle.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.pentaho.di.cluster.SlaveServer;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.encryption.Encr;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.www.AddExportServlet;
+import org.pentaho.di.www.ExecuteJobServlet;
+import org.pentaho.di.www.GetJobStatusServlet;
+import org.pentaho.di.www.GetStatusServlet;
+import org.pentaho.di.www.RemoveJobServlet;
+import org.pentaho.di.www.SlaveServerJobStatus;
+import org.pentaho.di.www.SlaveServerStatus;
+import org.pentaho.di.www.StartJobServlet;
+import org.pentaho.di.www.StopJobServlet;
+import org.pentaho.di.www.WebResult;
+
+import com.kettle.core.instance.KettleMgrEnvironment;
+
+/**
+ * 与Carte通信的传输层,每个远端一个
+ *
+ * 远端独占长连接池,连接在请求之间保持(keep-alive)并复用;连接超时,读取超时和同时进行的请求数可配置,
+ * 单个远端用KETTLE_REMOTE_HTTP_MAX_IN_FLIGHT_远端名等配置
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRemoteTransport {
+
+	/**
+	 * 空闲连接的关闭时间(毫秒)
+	 */
+	private static final long IDLE_CLOSE_MILLIS = 60000;
+
+	/**
+	 * 时延的平滑系数
+	 */
+	private static final double LATENCY_ALPHA = 0.2;
+
+	/**
+	 * 远端
+	 */
+	private final SlaveServer remoteServer;
+
+	/**
+	 * 熔断器,每次调用的结果都反馈给它
+	 */
+	private final KettleRemoteBreaker breaker;
+
+	/**
+	 * 连接池
+	 */
+	private final CountingConnectionManager connectionManager;
+
+	private final HttpClient httpClient;
+
+	/**
+	 * 同时进行的请求
+	 */
+	private final Semaphore inFlight;
+
+	private final int maxInFlight;
+
+	/**
+	 * 等待请求额度的时间(毫秒)
+	 */
+	private final long acquireTimeout;
+
+	private final AtomicLong requestCount = new AtomicLong(0);
+
+	private final AtomicLong failureCount = new AtomicLong(0);
+
+	/**
+	 * 本地等待请求额度超时的请求数,请求未发出,不计入熔断
+	 */
+	private final AtomicLong rejectedCount = new AtomicLong(0);
+
+	/**
+	 * 新建的连接数
+	 */
+	private final AtomicLong openedCount = new AtomicLong(0);
+
+	/**
+	 * 复用的连接数
+	 */
+	private final AtomicLong reusedCount = new AtomicLong(0);
+
+	/**
+	 * 平滑时延(毫秒)
+	 */
+	private volatile double latency = 0;
+
+	/**
+	 * 状态同步的期限(毫秒)
+	 */
+	private final long probeTimeout;
+
+	/**
+	 * @param remoteServer
+	 * @param breaker
+	 */
+	public KettleRemoteTransport(SlaveServer remoteServer, KettleRemoteBreaker breaker) {
+		this.remoteServer = remoteServer;
+		this.breaker = breaker;
+		String name = remoteServer.getName();
+		int connectTimeout = KettleMgrEnvironment.NVLInt("KETTLE_REMOTE_HTTP_CONNECT_TIMEOUT_" + name,
+				KettleMgrEnvironment.KETTLE_REMOTE_HTTP_CONNECT_TIMEOUT);
+		int readTimeout = KettleMgrEnvironment.NVLInt("KETTLE_REMOTE_HTTP_READ_TIMEOUT_" + name,
+				KettleMgrEnvironment.KETTLE_REMOTE_HTTP_READ_TIMEOUT);
+		maxInFlight = Math.max(1, KettleMgrEnvironment.NVLInt("KETTLE_REMOTE_HTTP_MAX_IN_FLIGHT_" + name,
+				KettleMgrEnvironment.KETTLE_REMOTE_HTTP_MAX_IN_FLIGHT));
+		inFlight = new Semaphore(maxInFlight, true);
+		acquireTimeout = readTimeout;
+		// 默认不短于一次调用的超时,调用本身仍可能成功时不按不可用发布
+		Integer probe = KettleMgrEnvironment.NVLInt("KETTLE_REMOTE_PROBE_TIMEOUT_" + name,
+				KettleMgrEnvironment.KETTLE_REMOTE_PROBE_TIMEOUT);
+		probeTimeout = Math.max(1, probe == null ? (long) connectTimeout + readTimeout : probe);
+		connectionManager = new CountingConnectionManager();
+		HttpConnectionManagerParams params = connectionManager.getParams();
+		// 请求数不超过连接数,连接池不会成为等待点
+		params.setDefaultMaxConnectionsPerHost(maxInFlight);
+		params.setMaxTotalConnections(maxInFlight);
+		params.setConnectionTimeout(connectTimeout);
+		params.setSoTimeout(readTimeout);
+		params.setStaleCheckingEnabled(true);
+		params.setTcpNoDelay(true);
+		httpClient = new HttpClient(connectionManager);
+		httpClient.getParams().setConnectionManagerTimeout(readTimeout);
+		String username = remoteServer.environmentSubstitute(remoteServer.getUsername());
+		if (!Const.isEmpty(username)) {
+			String password = Encr.decryptPasswordOptionallyEncrypted(
+					remoteServer.environmentSubstitute(remoteServer.getPassword()));
+			httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
+			httpClient.getParams().setAuthenticationPreemptive(true);
+		}
+	}
+
+	/**
+	 * 远端状态,包含所有Job的状态
+	 *
+	 * @return
+	 * @throws Exception
+	 */
+	public SlaveServerStatus getStatus() throws Exception {
+		return SlaveServerStatus.fromXML(execService(GetStatusServlet.CONTEXT_PATH + "/?xml=Y"));
+	}
+
+	/**
+	 * Job的状态
+	 *
+	 * @param jobName
+	 * @param carteObjectId
+	 * @param startLogLineNr
+	 * @return
+	 * @throws Exception
+	 */
+	public SlaveServerJobStatus getJobStatus(String jobName, String carteObjectId, int startLogLineNr)
+			throws Exception {
+		return SlaveServerJobStatus.fromXML(execService(GetJobStatusServlet.CONTEXT_PATH + "/?name="
+				+ URLEncoder.encode(jobName, "UTF-8") + "&id=" + Const.NVL(carteObjectId, "") + "&xml=Y&from="
+				+ startLogLineNr));
+	}
+
+	public WebResult startJob(String jobName, String carteObjectId) throws Exception {
+		return jobService(StartJobServlet.CONTEXT_PATH, jobName, carteObjectId);
+	}
+
+	public WebResult stopJob(String jobName, String carteObjectId) throws Exception {
+		return jobService(StopJobServlet.CONTEXT_PATH, jobName, carteObjectId);
+	}
+
+	public WebResult removeJob(String jobName, String carteObjectId) throws Exception {
+		return jobService(RemoveJobServlet.CONTEXT_PATH, jobName, carteObjectId);
+	}
+
+	/**
+	 * 远端从其资源库加载并执行Job,不上传Job的定义
+	 *
+	 * @param repository
+	 *            远端repositories.xml中的资源库名称
+	 * @param user
+	 * @param password
+	 *            可为Encrypted加密,发送前解密
+	 * @param jobPath
+	 *            资源库中的路径(目录/名称)
+	 * @param level
+	 * @return
+	 * @throws Exception
+	 */
+	public WebResult executeJob(String repository, String user, String password, String jobPath, String level)
+			throws Exception {
+		// 参数以表单POST,密码不出现在URL及访问日志中
+		NameValuePair[] form = new NameValuePair[] { new NameValuePair("rep", repository),
+				new NameValuePair("user", Const.NVL(user, "")),
+				new NameValuePair("pass", Const.NVL(Encr.decryptPasswordOptionallyEncrypted(password), "")),
+				new NameValuePair("job", jobPath), new NameValuePair("level", level) };
+		return WebResult.fromXMLString(execService(ExecuteJobServlet.CONTEXT_PATH + "/", null, form));
+	}
+
+	/**
+	 * 上传导出包,远端从包中加载Job;返回的ID用于启动Job
+	 *
+	 * @param export
+	 *            导出包(zip)
+	 * @param load
+	 *            包内核心Job的文件名
+	 * @return
+	 * @throws Exception
+	 */
+	public WebResult sendExport(byte[] export, String load) throws Exception {
+		return WebResult.fromXMLString(execService(AddExportServlet.CONTEXT_PATH + "/?"
+				+ AddExportServlet.PARAMETER_TYPE + "=" + AddExportServlet.TYPE_JOB + "&"
+				+ AddExportServlet.PARAMETER_LOAD + "=" + URLEncoder.encode(load, "UTF-8"), export, null));
+	}
+
+	private WebResult jobService(String contextPath, String jobName, String carteObjectId) throws Exception {
+		return WebResult.fromXMLString(execService(contextPath + "/?name=" + URLEncoder.encode(jobName, "UTF-8")
+				+ "&xml=Y&id=" + Const.NVL(carteObjectId, "")));
+	}
+
+	/**
+	 * 调用远端服务,请求额度已满时等待;远端已熔断时立即失败
+	 *
+	 * @param service
+	 * @return 响应内容
+	 * @throws Exception
+	 */
+	public String execService(String service) throws Exception {
+		return execService(service, null, null);
+	}
+
+	/**
+	 * 调用远端服务,有请求内容或表单参数时POST
+	 *
+	 * @param service
+	 * @param content
+	 * @param form
+	 * @return 响应内容
+	 * @throws Exception
+	 */
+	private String execService(String service, byte[] content, NameValuePair[] form) throws Exception {
+		if (!breaker.allowRequest()) {
+			throw new KettleRemoteOpenException("Kettle远端[" + remoteServer.getHostname() + "]已熔断!");
+		}
+		boolean acquired = false;
+		try {
+			acquired = inFlight.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS);
+		} finally {
+			if (!acquired) {
+				// 本地排队,不是远端故障
+				rejectedCount.incrementAndGet();
+				breaker.onAbort();
+			}
+		}
+		if (!acquired) {
+			throw new KettleException(
+					"Kettle远端[" + remoteServer.getHostname() + "]同时进行的请求已达上限" + maxInFlight + ",等待超时!");
+		}
+		long start = System.currentTimeMillis();
+		HttpMethodBase method = null;
+		boolean reported = false;
+		try {
+			if (content != null) {
+				PostMethod post = new PostMethod(remoteServer.constructUrl(service));
+				post.setRequestEntity(new ByteArrayRequestEntity(content, "binary/zip"));
+				method = post;
+			} else if (form != null) {
+				PostMethod post = new PostMethod(remoteServer.constructUrl(service));
+				post.getParams().setContentCharset("UTF-8");
+				post.setRequestBody(form);
+				method = post;
+			} else {
+				method = new GetMethod(remoteServer.constructUrl(service));
+			}
+			requestCount.incrementAndGet();
+			int result = httpClient.executeMethod(method);
+			String body = readBody(method);
+			// 有响应即存活,服务端错误计为失败
+			reported = true;
+			if (result >= 500) {
+				breaker.onFailure();
+			} else {
+				breaker.onSuccess();
+			}
+			if (result >= 300) {
+				throw new KettleException("Kettle远端[" + remoteServer.getHostname() + "]调用" + service + "返回" + result
+						+ "\n" + body);
+			}
+			long millis = System.currentTimeMillis() - start;
+			latency = latency == 0 ? millis : latency + (millis - latency) * LATENCY_ALPHA;
+			return body;
+		} catch (Exception ex) {
+			failureCount.incrementAndGet();
+			throw ex;
+		} finally {
+			// 未得到响应(包括Error)均计为失败,试探调用不会遗留未反馈
+			if (!reported) {
+				breaker.onFailure();
+			}
+			// 读完响应后释放,连接回到连接池
+			if (method != null) {
+				method.releaseConnection();
+			}
+			inFlight.release();
+		}
+	}
+
+	/**
+	 * 读取响应内容
+	 *
+	 * @param method
+	 * @return
+	 * @throws Exception
+	 */
+	private static String readBody(HttpMethodBase method) throws Exception {
+		InputStream in = method.getResponseBodyAsStream();
+		if (in == null) {
+			return "";
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return out.toString(method.getResponseCharSet());
+	}
+
+	/**
+	 * 状态同步的期限(毫秒)
+	 *
+	 * @return
+	 */
+	public long getProbeTimeout() {
+		return probeTimeout;
+	}
+
+	/**
+	 * 关闭空闲的连接,由状态同步定期调用
+	 */
+	public void closeIdleConnections() {
+		connectionManager.closeIdleConnections(IDLE_CLOSE_MILLIS);
+	}
+
+	/**
+	 * 传输统计
+	 *
+	 * @return
+	 */
+	public KettleRemoteTransportStat getStat() {
+		KettleRemoteTransportStat stat = new KettleRemoteTransportStat();
+		stat.setHostname(remoteServer.getHostname());
+		stat.setRequestCount(requestCount.get());
+		stat.setFailureCount(failureCount.get());
+		stat.setRejectedCount(rejectedCount.get());
+		stat.setOpenedCount(openedCount.get());
+		stat.setReusedCount(reusedCount.get());
+		stat.setInFlight(maxInFlight - inFlight.availablePermits());
+		stat.setMaxInFlight(maxInFlight);
+		stat.setPooledConnections(connectionManager.getConnectionsInPool());
+		stat.setLatency((long) latency);
+		return stat;
+	}
+
+	/**
+	 * 统计新建与复用连接的连接池:取出时已打开的连接即为复用
+	 */
+	private class CountingConnectionManager extends MultiThreadedHttpConnectionManager {
+
+		@Override
+		public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+				throws ConnectionPoolTimeoutException {
+			HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+			if (connection.isOpen()) {
+				reusedCount.incrementAndGet();
+			} else {
+				openedCount.incrementAndGet();
+			}
+			return connection;
+		}
+	}
+}
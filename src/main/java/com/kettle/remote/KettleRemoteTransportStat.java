@@ -0,0 +1,155 @@
+package com.kettle.remote;
+
+/**
+ * 远端传输层的统计,北向
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRemoteTransportStat {
+	/**
+	 * 远端
+	 */
+	private String hostname;
+
+	/**
+	 * 请求数
+	 */
+	private long requestCount;
+
+	/**
+	 * 失败的请求数
+	 */
+	private long failureCount;
+
+	/**
+	 * 本地等待请求额度超时的请求数
+	 */
+	private long rejectedCount;
+
+	/**
+	 * 新建的连接数
+	 */
+	private long openedCount;
+
+	/**
+	 * 复用的连接数
+	 */
+	private long reusedCount;
+
+	/**
+	 * 进行中的请求数
+	 */
+	private int inFlight;
+
+	/**
+	 * 同时进行的请求数上限
+	 */
+	private int maxInFlight;
+
+	/**
+	 * 连接池中的连接数
+	 */
+	private int pooledConnections;
+
+	/**
+	 * 平滑时延(毫秒)
+	 */
+	private long latency;
+
+	public String getHostname() {
+		return hostname;
+	}
+
+	public void setHostname(String hostname) {
+		this.hostname = hostname;
+	}
+
+	public long getRequestCount() {
+		return requestCount;
+	}
+
+	public void setRequestCount(long requestCount) {
+		this.requestCount = requestCount;
+	}
+
+	public long getFailureCount() {
+		return failureCount;
+	}
+
+	public void setFailureCount(long failureCount) {
+		this.failureCount = failureCount;
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public void setRejectedCount(long rejectedCount) {
+		this.rejectedCount = rejectedCount;
+	}
+
+	public long getOpenedCount() {
+		return openedCount;
+	}
+
+	public void setOpenedCount(long openedCount) {
+		this.openedCount = openedCount;
+	}
+
+	public long getReusedCount() {
+		return reusedCount;
+	}
+
+	public void setReusedCount(long reusedCount) {
+		this.reusedCount = reusedCount;
+	}
+
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	public void setInFlight(int inFlight) {
+		this.inFlight = inFlight;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	public int getPooledConnections() {
+		return pooledConnections;
+	}
+
+	public void setPooledConnections(int pooledConnections) {
+		this.pooledConnections = pooledConnections;
+	}
+
+	public long getLatency() {
+		return latency;
+	}
+
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * 连接复用率
+	 *
+	 * @return
+	 */
+	public double getReuseRatio() {
+		long total = openedCount + reusedCount;
+		return total == 0 ? 0 : (double) reusedCount / total;
+	}
+
+	@Override
+	public String toString() {
+		return "KettleRemoteTransportStat[" + hostname + ",请求" + requestCount + ",失败" + failureCount + ",本地拒绝" + rejectedCount + ",新建连接"
+				+ openedCount + ",复用连接" + reusedCount + ",时延" + latency + "ms]";
+	}
+}
@@ -0,0 +1,24 @@
+package com.kettle.remote.dispatch;
+
+import java.util.List;
+
+import com.kettle.record.KettleRecord;
+import com.kettle.remote.KettleRemoteClient;
+
+/**
+ * 远端选择策略
+ * 
+ * @author Administrator
+ *
+ */
+public interface IRemoteSelectPolicy {
+	/**
+	 * 从候选远端中选择处理Record的远端
+	 * 
+	 * @param candidates
+	 *            运行中且有空闲槽位的远端,不为空
+	 * @param record
+	 * @return
+	 */
+	public KettleRemoteClient select(List<KettleRemoteClient> candidates, KettleRecord record);
+}
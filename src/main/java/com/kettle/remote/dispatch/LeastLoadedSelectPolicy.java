@@ -0,0 +1,30 @@
+package com.kettle.remote.dispatch;
+
+import java.util.List;
+
+import com.kettle.record.KettleRecord;
+import com.kettle.remote.KettleRemoteClient;
+
+/**
+ * 最小负载策略
+ * 
+ * @author Administrator
+ *
+ */
+public class LeastLoadedSelectPolicy implements IRemoteSelectPolicy {
+
+	@Override
+	public KettleRemoteClient select(List<KettleRemoteClient> candidates, KettleRecord record) {
+		KettleRemoteClient selected = null;
+		double selectedScore = Double.MAX_VALUE;
+		double score;
+		for (KettleRemoteClient candidate : candidates) {
+			score = candidate.getLoadScore();
+			if (selected == null || score < selectedScore) {
+				selected = candidate;
+				selectedScore = score;
+			}
+		}
+		return selected;
+	}
+}
@@ -0,0 +1,36 @@
+package com.kettle.remote.dispatch;
+
+import java.util.List;
+import java.util.Random;
+
+import com.kettle.record.KettleRecord;
+import com.kettle.remote.KettleRemoteClient;
+
+/**
+ * 随机两选一策略:随机取两个远端,选择负载较小者
+ * 
+ * @author Administrator
+ *
+ */
+public class PowerOfTwoChoicesSelectPolicy implements IRemoteSelectPolicy {
+
+	/**
+	 * 随机数
+	 */
+	private final Random random = new Random();
+
+	@Override
+	public KettleRemoteClient select(List<KettleRemoteClient> candidates, KettleRecord record) {
+		if (candidates.size() == 1) {
+			return candidates.get(0);
+		}
+		int first = random.nextInt(candidates.size());
+		int second = random.nextInt(candidates.size() - 1);
+		if (second >= first) {
+			second++;
+		}
+		KettleRemoteClient a = candidates.get(first);
+		KettleRemoteClient b = candidates.get(second);
+		return a.getLoadScore() <= b.getLoadScore() ? a : b;
+	}
+}
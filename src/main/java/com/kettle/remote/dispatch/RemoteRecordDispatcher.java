@@ -0,0 +1,165 @@
+package com.kettle.remote.dispatch;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kettle.core.instance.KettleMgrInstance;
+import com.kettle.record.KettleRecord;
+import com.kettle.record.pool.KettleRecordPool;
+import com.kettle.remote.KettleRemoteClient;
+import com.kettle.remote.record.RemoteEventLoopRecordHandler;
+import com.kettle.remote.record.RemoteRecordEventLoop;
+
+/**
+ * 全局派发者,逐个Record按远端的实时负载选择目标远端
+ *
+ * 仅用于EVENTLOOP模型;PARALLEL和SERIAL模型由各远端的处理者按自身的并发上限从任务池领取
+ *
+ * @author Administrator
+ *
+ */
+public class RemoteRecordDispatcher {
+
+	/**
+	 * 日志
+	 */
+	private static Logger logger = LoggerFactory.getLogger(RemoteRecordDispatcher.class);
+
+	/**
+	 * 派发事件的key
+	 */
+	private static final String DISPATCH_KEY = "RemoteRecordDispatcher";
+
+	/**
+	 * 任务池
+	 */
+	private final KettleRecordPool recordPool;
+
+	/**
+	 * 事件循环
+	 */
+	private final RemoteRecordEventLoop eventLoop;
+
+	/**
+	 * 选择策略
+	 */
+	private final IRemoteSelectPolicy selectPolicy;
+
+	/**
+	 * 远端的处理者
+	 */
+	private final Map<String, RemoteEventLoopRecordHandler> handlers = new LinkedHashMap<String, RemoteEventLoopRecordHandler>();
+
+	/**
+	 * 派发是否已在排队,合并重复的通知
+	 */
+	private final AtomicBoolean dispatchPending = new AtomicBoolean(false);
+
+	/**
+	 * @param eventLoop
+	 * @param selectPolicy
+	 */
+	public RemoteRecordDispatcher(RemoteRecordEventLoop eventLoop, IRemoteSelectPolicy selectPolicy) {
+		this.eventLoop = eventLoop;
+		this.selectPolicy = selectPolicy;
+		this.recordPool = KettleMgrInstance.kettleMgrEnvironment.getRecordPool();
+		logger.info("Kettle全局派发者使用策略:" + selectPolicy.getClass().getSimpleName());
+	}
+
+	/**
+	 * 根据名称创建策略:LEAST_LOADED,WEIGHTED_ROUND_ROBIN,POWER_OF_TWO,或策略的类名
+	 *
+	 * @param policyName
+	 * @return
+	 */
+	public static IRemoteSelectPolicy createSelectPolicy(String policyName) {
+		if (policyName == null || "LEAST_LOADED".equalsIgnoreCase(policyName)) {
+			return new LeastLoadedSelectPolicy();
+		} else if ("WEIGHTED_ROUND_ROBIN".equalsIgnoreCase(policyName)) {
+			return new WeightedRoundRobinSelectPolicy();
+		} else if ("POWER_OF_TWO".equalsIgnoreCase(policyName)) {
+			return new PowerOfTwoChoicesSelectPolicy();
+		}
+		try {
+			return (IRemoteSelectPolicy) Class.forName(policyName).newInstance();
+		} catch (Exception ex) {
+			logger.error("Kettle全局派发者无法加载策略[" + policyName + "],使用LEAST_LOADED!", ex);
+			return new LeastLoadedSelectPolicy();
+		}
+	}
+
+	/**
+	 * 注册远端的处理者
+	 *
+	 * @param handler
+	 */
+	public synchronized void addHandler(RemoteEventLoopRecordHandler handler) {
+		handlers.put(handler.getRemoteClient().getHostName(), handler);
+	}
+
+	/**
+	 * 异步派发,重复的请求合并为一次
+	 */
+	public void dispatchLater() {
+		if (!dispatchPending.compareAndSet(false, true)) {
+			return;
+		}
+		eventLoop.execute(DISPATCH_KEY, new Runnable() {
+			@Override
+			public void run() {
+				dispatchPending.set(false);
+				dispatch();
+			}
+		});
+	}
+
+	/**
+	 * 派发,直到任务池为空或没有空闲的远端
+	 */
+	private synchronized void dispatch() {
+		List<KettleRemoteClient> candidates = new ArrayList<KettleRemoteClient>(handlers.size());
+		KettleRemoteClient remoteClient;
+		for (RemoteEventLoopRecordHandler handler : handlers.values()) {
+			// 遗留的Record优先
+			handler.tryAwaken();
+			remoteClient = handler.getRemoteClient();
+			if (remoteClient.isRunning() && remoteClient.getFreeSlots() > 0) {
+				candidates.add(remoteClient);
+			}
+		}
+		KettleRecord record = null;
+		KettleRemoteClient target;
+		while (!candidates.isEmpty()) {
+			if (record == null) {
+				record = recordPool.nextRecord();
+				if (record == null) {
+					return;
+				}
+			}
+			target = selectPolicy.select(candidates, record);
+			if (target == null) {
+				break;
+			}
+			if (handlers.get(target.getHostName()).startRecord(record)) {
+				logger.debug("Kettle全局派发者将Record[" + record.getUuid() + "]派发至remote[" + target.getHostName() + "]");
+				record = null;
+			} else {
+				candidates.remove(target);
+				continue;
+			}
+			if (!target.isRunning() || target.getFreeSlots() < 1) {
+				candidates.remove(target);
+			}
+		}
+		if (record != null) {
+			// 没有可用远端,退回任务池原来的位置
+			recordPool.returnRecord(record);
+		}
+	}
+}
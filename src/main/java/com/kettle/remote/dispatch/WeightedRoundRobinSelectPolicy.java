@@ -0,0 +1,44 @@
+package com.kettle.remote.dispatch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.kettle.record.KettleRecord;
+import com.kettle.remote.KettleRemoteClient;
+
+/**
+ * 平滑加权轮询策略,权重为远端当前的并发上限
+ * 
+ * @author Administrator
+ *
+ */
+public class WeightedRoundRobinSelectPolicy implements IRemoteSelectPolicy {
+
+	/**
+	 * 远端的当前权重
+	 */
+	private final Map<String, Integer> currentWeights = new HashMap<String, Integer>();
+
+	@Override
+	public synchronized KettleRemoteClient select(List<KettleRemoteClient> candidates, KettleRecord record) {
+		KettleRemoteClient selected = null;
+		int selectedWeight = 0;
+		int totalWeight = 0;
+		int weight;
+		Integer current;
+		for (KettleRemoteClient candidate : candidates) {
+			weight = Math.max(1, candidate.getLimit());
+			totalWeight += weight;
+			current = currentWeights.get(candidate.getHostName());
+			current = (current == null ? 0 : current) + weight;
+			currentWeights.put(candidate.getHostName(), current);
+			if (selected == null || current > selectedWeight) {
+				selected = candidate;
+				selectedWeight = current;
+			}
+		}
+		currentWeights.put(selected.getHostName(), selectedWeight - totalWeight);
+		return selected;
+	}
+}
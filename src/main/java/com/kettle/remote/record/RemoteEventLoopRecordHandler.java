@@ -0,0 +1,325 @@
+package com.kettle.remote.record;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kettle.record.KettleRecord;
+import com.kettle.remote.KettleRemoteClient;
+import com.kettle.remote.dispatch.RemoteRecordDispatcher;
+
+/**
+ * 远程处理任务,事件驱动,不持有线程
+ *
+ * 每个Record是一个状态机(RecordTask),由RemoteRecordEventLoop驱动;槽位计数在KettleRemoteClient中。
+ * 事件线程只做状态转换,阻塞的远端调用在远端独占的Record处理线程中执行,完成后回到事件线程
+ *
+ * @author Administrator
+ *
+ */
+public class RemoteEventLoopRecordHandler {
+
+	/**
+	 * 日志
+	 */
+	private static Logger logger = LoggerFactory.getLogger(RemoteEventLoopRecordHandler.class);
+
+	/**
+	 * 运行中Record的状态同步间隔(秒)
+	 */
+	private static final long RUNNING_CHECK_SECONDS = 5;
+
+	/**
+	 * 远端
+	 */
+	private final KettleRemoteClient remoteClient;
+
+	/**
+	 * 事件循环
+	 */
+	private final RemoteRecordEventLoop eventLoop;
+
+	/**
+	 * 存放该Remote遗留的Record,即Record的Hostname属性为该remote
+	 */
+	private final Queue<KettleRecord> thisRemoteRecords = new ConcurrentLinkedQueue<KettleRecord>();
+
+	/**
+	 * 处理中的Record
+	 */
+	private final Map<String, RecordTask> inFlightTasks = new ConcurrentHashMap<String, RecordTask>();
+
+	/**
+	 * 全局派发者
+	 */
+	private final RemoteRecordDispatcher dispatcher;
+
+	/**
+	 * @param remoteClient
+	 * @param eventLoop
+	 * @param dispatcher
+	 * @param oldRecords
+	 */
+	public RemoteEventLoopRecordHandler(KettleRemoteClient remoteClient, RemoteRecordEventLoop eventLoop,
+			RemoteRecordDispatcher dispatcher, List<KettleRecord> oldRecords) {
+		this.remoteClient = remoteClient;
+		this.eventLoop = eventLoop;
+		this.dispatcher = dispatcher;
+		if (oldRecords != null && !oldRecords.isEmpty()) {
+			thisRemoteRecords.addAll(oldRecords);
+		}
+	}
+
+	/**
+	 * 尝试唤醒,为空闲的槽位分配该远端遗留的Record;任务池的Record由RemoteRecordDispatcher派发
+	 */
+	public void tryAwaken() {
+		if (!remoteClient.isRunning()) {
+			return;
+		}
+		KettleRecord record = null;
+		while (!thisRemoteRecords.isEmpty() && remoteClient.tryAcquireSlot()) {
+			record = thisRemoteRecords.poll();
+			if (record == null || !startTask(record)) {
+				remoteClient.releaseSlot();
+				if (record != null) {
+					thisRemoteRecords.add(record);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 处理派发来的Record
+	 *
+	 * @param record
+	 * @return 是否受理,没有空闲槽位或远端异常时返回false
+	 */
+	public boolean startRecord(KettleRecord record) {
+		if (!remoteClient.tryAcquireSlot()) {
+			return false;
+		}
+		if (!startTask(record)) {
+			remoteClient.releaseSlot();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 启动Record的状态机,调用前需占用槽位
+	 *
+	 * @param record
+	 * @return
+	 */
+	private boolean startTask(KettleRecord record) {
+		RemoteRecordOperator operator = new RemoteRecordOperator(remoteClient);
+		if (!operator.attachRecord(record)) {
+			return false;
+		}
+		RecordTask task = new RecordTask(operator, record);
+		inFlightTasks.put(record.getUuid(), task);
+		logger.info("remote[" + remoteClient.getHostName() + "]开始处理Record[" + record.getUuid() + "]!");
+		eventLoop.execute(record.getUuid(), task);
+		return true;
+	}
+
+	/**
+	 * 释放槽位,并立即补充
+	 *
+	 * @param task
+	 */
+	private void release(RecordTask task) {
+		if (inFlightTasks.remove(task.uuid) != null) {
+			remoteClient.releaseSlot();
+			tryAwaken();
+			dispatcher.dispatchLater();
+		}
+	}
+
+	/**
+	 * 接管其他节点遗留的运行中Record
+	 *
+	 * @param record
+	 * @return 是否接管,Record不在该远端时返回false
+	 */
+	public boolean adoptRecord(KettleRecord record) {
+		if (!remoteClient.getHostName().equals(record.getHostname())) {
+			return false;
+		}
+		thisRemoteRecords.add(record);
+		tryAwaken();
+		return true;
+	}
+
+	/**
+	 * 尝试停止
+	 *
+	 * @param record
+	 * @return 是否成功
+	 */
+	public boolean tryRemoveRecord(KettleRecord record) {
+		if (record.getHostname() != null && !remoteClient.getHostName().equals(record.getHostname())) {
+			return false;
+		}
+		final RecordTask task = inFlightTasks.get(record.getUuid());
+		if (task == null) {
+			return false;
+		}
+		eventLoop.execute(task.uuid, new Runnable() {
+			@Override
+			public void run() {
+				task.cancel();
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * 处理中的Record数量
+	 *
+	 * @return
+	 */
+	public int getInFlightCount() {
+		return remoteClient.getInFlightCount();
+	}
+
+	/**
+	 * 远端
+	 *
+	 * @return
+	 */
+	public KettleRemoteClient getRemoteClient() {
+		return remoteClient;
+	}
+
+	/**
+	 * Record的状态机: APPLY->RUNNING->FINISHED/ERROR
+	 *
+	 * @author Administrator
+	 *
+	 */
+	private class RecordTask implements Runnable {
+
+		private final RemoteRecordOperator remoteRecordOperator;
+
+		private final String uuid;
+
+		/**
+		 * 已取消,只在事件线程中读写
+		 */
+		private boolean cancelled = false;
+
+		/**
+		 * 远端调用进行中,只在事件线程中读写
+		 */
+		private boolean dealing = false;
+
+		private RecordTask(RemoteRecordOperator remoteRecordOperator, KettleRecord record) {
+			this.remoteRecordOperator = remoteRecordOperator;
+			this.uuid = record.getUuid();
+		}
+
+		@Override
+		public void run() {
+			if (cancelled || dealing) {
+				return;
+			}
+			dealing = true;
+			final Runnable dealt = new Runnable() {
+				@Override
+				public void run() {
+					dealt();
+				}
+			};
+			try {
+				remoteClient.getBulkhead().getRecordExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							remoteRecordOperator.dealRecord();
+						} catch (Exception ex) {
+							logger.error("remote[" + remoteClient.getHostName() + "]处理Record[" + uuid + "]发生错误!", ex);
+						}
+						eventLoop.execute(uuid, dealt);
+					}
+				});
+			} catch (RejectedExecutionException ex) {
+				logger.error("remote[" + remoteClient.getHostName() + "]处理线程拒绝Record[" + uuid + "]!", ex);
+				dealt();
+			}
+		}
+
+		/**
+		 * 远端调用完成,回到事件线程
+		 */
+		private void dealt() {
+			dealing = false;
+			if (cancelled) {
+				// 调用期间被取消
+				stop();
+				return;
+			}
+			if (remoteRecordOperator.isFinished()) {
+				remoteRecordOperator.detachRecord();
+				release(this);
+			} else {
+				// 运行中或远端异常时等待下一次同步
+				eventLoop.schedule(uuid, this, RUNNING_CHECK_SECONDS, TimeUnit.SECONDS);
+			}
+		}
+
+		/**
+		 * 取消,远端停止任务;远端调用进行中时在调用完成后停止
+		 */
+		private void cancel() {
+			if (cancelled) {
+				return;
+			}
+			cancelled = true;
+			if (!dealing) {
+				stop();
+			}
+		}
+
+		/**
+		 * 远端停止任务并释放槽位
+		 */
+		private void stop() {
+			final KettleRecord record = remoteRecordOperator.detachRecord();
+			if (record == null || record.isApply()) {
+				release(this);
+				return;
+			}
+			final RecordTask task = this;
+			try {
+				remoteClient.getBulkhead().getRecordExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						if (remoteClient.isRunning()) {
+							remoteClient.remoteStopJobNE(record);
+							remoteClient.remoteRemoveJobNE(record);
+						}
+						eventLoop.execute(uuid, new Runnable() {
+							@Override
+							public void run() {
+								release(task);
+							}
+						});
+					}
+				});
+			} catch (RejectedExecutionException ex) {
+				logger.error("remote[" + remoteClient.getHostName() + "]处理线程拒绝停止Record[" + uuid + "]!", ex);
+				release(this);
+			}
+		}
+	}
+}
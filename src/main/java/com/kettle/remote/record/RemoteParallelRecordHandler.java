@@ -1,15 +1,19 @@
 package com.kettle.remote.record;
 
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.kettle.core.instance.KettleMgrEnvironment;
 import com.kettle.core.instance.KettleMgrInstance;
 import com.kettle.record.KettleRecord;
 import com.kettle.record.pool.KettleRecordPool;
@@ -17,7 +21,9 @@ import com.kettle.remote.KettleRemoteClient;
 
 /**
  * 远程处理任务,并发单元
- * 
+ *
+ * 槽位依次从遗留Record,本地积压,任务池领取Record;都为空时从其他Remote的积压中窃取APPLY状态的Record
+ *
  * @author Administrator
  *
  */
@@ -28,6 +34,11 @@ public class RemoteParallelRecordHandler {
 	 */
 	private static Logger logger = LoggerFactory.getLogger(RemoteParallelRecordHandler.class);
 
+	/**
+	 * 运行中Record的状态同步间隔(秒),状态读取自远端的状态快照,不调用远端
+	 */
+	private static final long RUNNING_CHECK_SECONDS = 5;
+
 	/**
 	 * 远端
 	 */
@@ -39,73 +50,167 @@ public class RemoteParallelRecordHandler {
 	private final KettleRecordPool recordPool;
 
 	/**
-	 * records,存放改Remote处理的Record,即Record的Hostname属性为该remote
+	 * records,存放改Remote处理的Record,即Record的Hostname属性为该remote;运行中的Record只能由该Remote处理
+	 */
+	private final Queue<KettleRecord> thisRemoteRecords = new ConcurrentLinkedQueue<KettleRecord>();
+
+	/**
+	 * 本地积压的APPLY状态Record,尚未发送到远端,其他Remote空闲时可以窃取
+	 */
+	private final Queue<KettleRecord> applyBacklog = new ConcurrentLinkedQueue<KettleRecord>();
+
+	/**
+	 * 本地积压的数量
 	 */
-	private List<KettleRecord> thisRemoteRecords = new LinkedList<KettleRecord>();
+	private final AtomicInteger backlogSize = new AtomicInteger(0);
 
 	/**
-	 * 线程池
+	 * 被本Remote窃取的Record数量
+	 */
+	private final AtomicLong stolenCount = new AtomicLong(0);
+
+	/**
+	 * 其他Remote的处理者,用于窃取
+	 */
+	private volatile List<RemoteParallelRecordHandler> peers = Collections.emptyList();
+
+	/**
+	 * 远端不可用时处理遗留Record
+	 */
+	private final RemoteRecordOperator failoverOperator;
+
+	/**
+	 * 线程池,远端舱壁中的Record处理线程,阻塞在慢远端上的调用不占用其他远端的线程
 	 */
 	private final ScheduledExecutorService threadPool;
 
 	/**
-	 * 并行线程
+	 * 并行槽位
 	 */
-	private RecordOperatorThread[] remoteRecordThreads;
+	private RecordOperatorSlot[] remoteRecordSlots;
 
 	/**
 	 * @param remoteClient
 	 * @param oldRecords
 	 */
 	public RemoteParallelRecordHandler(KettleRemoteClient remoteClient, List<KettleRecord> oldRecords) {
-		threadPool = Executors.newScheduledThreadPool(KettleMgrEnvironment.KETTLE_RECORD_MAX_PER_REMOTE);
-		remoteRecordThreads = new RecordOperatorThread[KettleMgrEnvironment.KETTLE_RECORD_MAX_PER_REMOTE];
-		for (int i = 0; i < remoteRecordThreads.length; i++) {
-			remoteRecordThreads[i] = new RecordOperatorThread();
-			remoteRecordThreads[i].remoteRecordOperator = new RemoteRecordOperator(remoteClient);
+		// 槽位按并发上限的最大值创建,同时运行的数量由远端的自适应上限控制
+		int maxLimit = remoteClient.getLimiter().getMaxLimit();
+		threadPool = remoteClient.getBulkhead().getRecordExecutor();
+		remoteRecordSlots = new RecordOperatorSlot[maxLimit];
+		for (int i = 0; i < remoteRecordSlots.length; i++) {
+			remoteRecordSlots[i] = new RecordOperatorSlot(new RemoteRecordOperator(remoteClient));
 		}
 		this.remoteClient = remoteClient;
+		this.failoverOperator = new RemoteRecordOperator(remoteClient);
 		recordPool = KettleMgrInstance.kettleMgrEnvironment.getRecordPool();
 		if (oldRecords != null && !oldRecords.isEmpty()) {
 			thisRemoteRecords.addAll(oldRecords);
 		}
-		tryAwaken();
+		requestAwaken();
 	}
 
 	/**
-	 * 尝试唤醒
+	 * 在远端的派发线程中唤醒,等待中的唤醒合并为一次
+	 */
+	public void requestAwaken() {
+		remoteClient.getBulkhead().executeCoalesced("AWAKEN", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tryAwaken();
+				} catch (Exception ex) {
+					logger.error("remote[" + remoteClient.getHostName() + "]唤醒发生错误!", ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * 在远端的派发线程中故障转移,等待中的故障转移合并为一次
+	 */
+	public void requestFailover() {
+		remoteClient.getBulkhead().executeCoalesced("FAILOVER", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					failover();
+				} catch (Exception ex) {
+					logger.error("remote[" + remoteClient.getHostName() + "]故障转移发生错误!", ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * 尝试唤醒,为空闲的槽位分配Record
 	 */
 	public void tryAwaken() {
 		if (!remoteClient.isRunning()) {
 			return;
 		}
-		if (thisRemoteRecords.isEmpty()) {
-			attackRecords();
+		attachRecords();
+	}
+
+	/**
+	 * 远端不可用时的故障转移:积压的Record立即交回任务池,遗留的运行中Record由RemoteRecordOperator按宽限期处理;
+	 * 槽位中的Record在各自的状态同步中处理
+	 */
+	public synchronized void failover() {
+		if (remoteClient.isRunning()) {
+			return;
+		}
+		KettleRecord record;
+		int size = thisRemoteRecords.size();
+		for (int i = 0; i < size && (record = thisRemoteRecords.poll()) != null; i++) {
+			failover(record);
+		}
+		while ((record = pollBacklog()) != null) {
+			failover(record);
+		}
+	}
+
+	/**
+	 * @param record
+	 */
+	private void failover(KettleRecord record) {
+		boolean released = false;
+		try {
+			failoverOperator.attachRecordForce(record);
+			failoverOperator.dealRecord();
+		} catch (Exception ex) {
+			logger.error("remote[" + remoteClient.getHostName() + "]故障转移Record[" + record.getUuid() + "]发生错误!", ex);
+		} finally {
+			released = failoverOperator.isFinished();
+			failoverOperator.detachRecord();
+		}
+		if (!released) {
+			// 宽限期内,等待远端恢复
+			thisRemoteRecords.add(record);
 		}
 	}
 
+	/**
+	 * 设置可以互相窃取的处理者
+	 *
+	 * @param peers
+	 */
+	public void setPeers(List<RemoteParallelRecordHandler> peers) {
+		this.peers = peers;
+	}
+
 	/**
 	 * 尝试停止
-	 * 
+	 *
 	 * @param record
 	 * @return 是否成功
 	 */
-	@SuppressWarnings("deprecation")
 	public boolean tryRemoveRecord(KettleRecord record) {
-		KettleRecord remoteRecord = null;
 		if (record.getHostname() != null && !remoteClient.getHostName().equals(record.getHostname())) {
 			return false;
 		}
-		for (RecordOperatorThread thread : remoteRecordThreads) {
-			remoteRecord = thread.remoteRecordOperator.getRecord();
-			if (thread.isRunning && remoteRecord.getUuid().equals(record.getUuid())) {
-				thread.stop();
-				if (remoteClient.isRunning()) {
-					remoteClient.remoteStopJobNE(remoteRecord);
-					remoteClient.remoteRemoveJobNE(remoteRecord);
-				}
-				thread.remoteRecordOperator.detachRecord();
-				thread.isRunning = false;
+		for (RecordOperatorSlot slot : remoteRecordSlots) {
+			if (slot.tryRemove(record)) {
 				return true;
 			}
 		}
@@ -113,96 +218,315 @@ public class RemoteParallelRecordHandler {
 	}
 
 	/**
-	 * 获取记录
-	 * 
+	 * 接管其他节点遗留的运行中Record
+	 *
+	 * @param record
+	 * @return 是否接管,Record不在该远端时返回false
+	 */
+	public boolean adoptRecord(KettleRecord record) {
+		if (!remoteClient.getHostName().equals(record.getHostname())) {
+			return false;
+		}
+		thisRemoteRecords.add(record);
+		requestAwaken();
+		return true;
+	}
+
+	/**
+	 * 远端Job的状态变化,对应的槽位立即同步,不等待下一个周期
+	 *
+	 * @param runIDs
+	 */
+	public void jobStatusChanged(Set<String> runIDs) {
+		for (RecordOperatorSlot slot : remoteRecordSlots) {
+			if (slot.isWatching(runIDs)) {
+				threadPool.execute(slot);
+			}
+		}
+	}
+
+	/**
+	 * 为空闲的槽位分配Record
+	 *
 	 * @return
 	 */
-	private synchronized void attackRecords() {
+	private synchronized void attachRecords() {
 		KettleRecord recordTMP = null;
-		for (RecordOperatorThread operatorThread : remoteRecordThreads) {
-			if (!operatorThread.isRunning) {
-				recordTMP = getNextRecord();
-				if (recordTMP == null) {
-					return;
-				}
-				if (operatorThread.remoteRecordOperator.attachRecord(recordTMP)) {
-					logger.info("remote[" + remoteClient.getHostName() + "]开始处理Record[" + recordTMP.getUuid() + "]!");
-					operatorThread.isRunning = true;
-					threadPool.scheduleAtFixedRate(operatorThread, 1, 5, TimeUnit.SECONDS);
-				} else {
-					callBackRecord(recordTMP);
-					break;
-				}
+		for (RecordOperatorSlot slot : remoteRecordSlots) {
+			if (slot.isRunning) {
+				continue;
+			}
+			if (!remoteClient.tryAcquireSlot()) {
+				return;
+			}
+			recordTMP = getNextRecord();
+			if (recordTMP == null) {
+				remoteClient.releaseSlot();
+				return;
+			}
+			if (!slot.start(recordTMP)) {
+				remoteClient.releaseSlot();
+				callBackRecord(recordTMP);
+				return;
 			}
 		}
 	}
 
 	/**
 	 * 获取下一个任务
-	 * 
+	 *
 	 * @return
 	 */
-	private synchronized KettleRecord getNextRecord() {
-		if (thisRemoteRecords.isEmpty()) {
-			return recordPool.nextRecord();
+	private KettleRecord getNextRecord() {
+		KettleRecord record = thisRemoteRecords.poll();
+		if (record == null) {
+			record = pollBacklog();
 		}
-		return thisRemoteRecords.remove(0);
+		if (record == null) {
+			record = recordPool.nextRecord();
+		}
+		if (record == null) {
+			record = stealRecord();
+		}
+		return record;
 	}
 
 	/**
-	 * 获取下一个任务
-	 * @param record
+	 * 取出一个本地积压的Record,供本Remote或窃取者使用
+	 *
+	 * @return
+	 */
+	private KettleRecord pollBacklog() {
+		KettleRecord record = applyBacklog.poll();
+		if (record != null) {
+			backlogSize.decrementAndGet();
+		}
+		return record;
+	}
+
+	/**
+	 * 从积压最多的其他Remote窃取
+	 *
+	 * @return
+	 */
+	private KettleRecord stealRecord() {
+		if (!remoteClient.isRunning()) {
+			return null;
+		}
+		RemoteParallelRecordHandler victim = null;
+		int max = 0;
+		for (RemoteParallelRecordHandler peer : peers) {
+			if (peer != this && peer.backlogSize.get() > max) {
+				victim = peer;
+				max = peer.backlogSize.get();
+			}
+		}
+		if (victim == null) {
+			return null;
+		}
+		KettleRecord record = victim.pollBacklog();
+		if (record != null) {
+			stolenCount.incrementAndGet();
+			logger.debug("remote[" + remoteClient.getHostName() + "]从remote[" + victim.remoteClient.getHostName()
+					+ "]窃取Record[" + record.getUuid() + "]!");
+		}
+		return record;
+	}
+
+	/**
+	 * 其他Remote是否有可窃取的Record
+	 *
 	 * @return
 	 */
-	private synchronized void callBackRecord(KettleRecord record) {
+	private boolean hasStealable() {
+		for (RemoteParallelRecordHandler peer : peers) {
+			if (peer != this && peer.backlogSize.get() > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 退回槽位无法加载的Record:未分配远端的退回任务池,APPLY状态的进入本地积压并唤醒其他Remote窃取,
+	 * 其余(运行中)的放回遗留Record
+	 *
+	 * @param record
+	 */
+	private void callBackRecord(KettleRecord record) {
 		if (record == null) {
 			return;
 		}
-		if (record.getHostname() != null) {
-			thisRemoteRecords.add(record);
+		if (record.getHostname() == null) {
+			recordPool.returnRecord(record);
+		} else if (record.isApply()) {
+			applyBacklog.offer(record);
+			backlogSize.incrementAndGet();
+			// 本Remote可能无法处理,唤醒其他Remote窃取
+			for (RemoteParallelRecordHandler peer : peers) {
+				if (peer != this) {
+					peer.awakenLater();
+				}
+			}
 		} else {
-			recordPool.addPrioritizeRecord(record);
+			thisRemoteRecords.add(record);
 		}
 	}
 
 	/**
+	 * 本地积压的数量
+	 *
+	 * @return
+	 */
+	public int getBacklogSize() {
+		return backlogSize.get();
+	}
+
+	/**
+	 * 被本Remote窃取的Record数量
+	 *
+	 * @return
+	 */
+	public long getStolenCount() {
+		return stolenCount.get();
+	}
+
+	/**
+	 * 远端
+	 *
+	 * @return
+	 */
+	public KettleRemoteClient getRemoteClient() {
+		return remoteClient;
+	}
+
+	/**
+	 * 异步唤醒,避免在槽位锁内分配Record
+	 */
+	private void awakenLater() {
+		requestAwaken();
+	}
+
+	/**
+	 * 处理槽位,Record结束后立即领取下一个Record;空闲时不占用调度
+	 *
 	 * @author Administrator
 	 *
 	 */
-	private class RecordOperatorThread extends Thread {
+	private class RecordOperatorSlot implements Runnable {
 
-		private boolean isRunning = false;
+		private volatile boolean isRunning = false;
 
-		private RemoteRecordOperator remoteRecordOperator;
+		private final RemoteRecordOperator remoteRecordOperator;
 
-		@SuppressWarnings("deprecation")
-		@Override
-		public void run() {
+		/**
+		 * 状态同步的调度
+		 */
+		private ScheduledFuture<?> future;
+
+		private RecordOperatorSlot(RemoteRecordOperator remoteRecordOperator) {
+			this.remoteRecordOperator = remoteRecordOperator;
+		}
+
+		/**
+		 * 加载Record并立即处理
+		 *
+		 * @param record
+		 * @return
+		 */
+		private synchronized boolean start(KettleRecord record) {
+			if (isRunning || !remoteRecordOperator.attachRecord(record)) {
+				return false;
+			}
+			logger.info("remote[" + remoteClient.getHostName() + "]开始处理Record[" + record.getUuid() + "]!");
 			isRunning = true;
+			future = threadPool.scheduleWithFixedDelay(this, 0, RUNNING_CHECK_SECONDS, TimeUnit.SECONDS);
+			return true;
+		}
+
+		/**
+		 * 空闲,归还远端的并发额度
+		 */
+		private void idle() {
+			if (isRunning) {
+				remoteClient.releaseSlot();
+			}
+			isRunning = false;
+			if (future != null) {
+				future.cancel(false);
+				future = null;
+			}
+		}
+
+		/**
+		 * 尝试移除Record
+		 *
+		 * @param record
+		 * @return
+		 */
+		private synchronized boolean tryRemove(KettleRecord record) {
+			KettleRecord remoteRecord = remoteRecordOperator.getRecord();
+			if (!isRunning || remoteRecord == null || !remoteRecord.getUuid().equals(record.getUuid())) {
+				return false;
+			}
+			if (remoteClient.isRunning()) {
+				remoteClient.remoteStopJobNE(remoteRecord);
+				remoteClient.remoteRemoveJobNE(remoteRecord);
+			}
+			remoteRecordOperator.detachRecord();
+			idle();
+			// 空出的槽位立即补充
+			awakenLater();
+			return true;
+		}
+
+		/**
+		 * 槽位中的Record是否在其中
+		 *
+		 * @param runIDs
+		 * @return
+		 */
+		private boolean isWatching(Set<String> runIDs) {
+			KettleRecord record = remoteRecordOperator.getRecord();
+			return isRunning && record != null && record.getRunID() != null && runIDs.contains(record.getRunID());
+		}
+
+		@Override
+		public synchronized void run() {
+			if (!isRunning) {
+				return;
+			}
 			try {
 				remoteRecordOperator.dealRecord();
-				if (remoteRecordOperator.isFinished()) {
+				// 完成或异常时,槽位直接领取下一个Record,不等待下一个周期
+				while (remoteRecordOperator.isFinished()) {
 					remoteRecordOperator.detachRecord();
+					if (!remoteClient.isRunning() || remoteClient.isOverLimit()) {
+						// 远端不可用或并发上限已降低,不再领取
+						idle();
+						return;
+					}
 					KettleRecord recordTMP = getNextRecord();
-					if (recordTMP == null) { // 如果没有后续任务,直接停止进程
-						isRunning = false;
-						this.stop();
+					if (recordTMP == null) { // 如果没有后续任务,槽位空闲
+						idle();
+						// 空闲前刚入池的Record可能错过了唤醒
+						if (recordPool.size() > 0 || hasStealable()) {
+							awakenLater();
+						}
 						return;
 					}
-					if (remoteRecordOperator.attachRecord(recordTMP)) {
-						logger.info("remote[" + remoteClient.getHostName() + "]开始处理下一个Record[" + recordTMP.getUuid()
-								+ "]!");
-						remoteRecordOperator.dealRecord();
-					} else {
+					if (!remoteRecordOperator.attachRecord(recordTMP)) {
 						callBackRecord(recordTMP);
-						isRunning = false;
-						this.stop();
+						idle();
+						return;
 					}
+					logger.info("remote[" + remoteClient.getHostName() + "]开始处理下一个Record[" + recordTMP.getUuid()
+							+ "]!");
+					remoteRecordOperator.dealRecord();
 				}
 			} catch (Exception e) {
 				logger.error("remote[" + remoteClient.getHostName() + "]处理进程发生错误!", e);
 			}
 		}
-
 	}
 }
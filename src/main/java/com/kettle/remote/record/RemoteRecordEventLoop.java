@@ -0,0 +1,116 @@
+package com.kettle.remote.record;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 事件循环,固定数量的线程驱动所有远端的Record
+ *
+ * 同一个key的事件总在同一线程中执行,因此单个Record的状态无需加锁
+ *
+ * @author Administrator
+ *
+ */
+public class RemoteRecordEventLoop {
+
+	/**
+	 * 日志
+	 */
+	private static Logger logger = LoggerFactory.getLogger(RemoteRecordEventLoop.class);
+
+	/**
+	 * 事件线程
+	 */
+	private final ScheduledExecutorService[] loops;
+
+	/**
+	 * @param threads
+	 */
+	public RemoteRecordEventLoop(int threads) {
+		loops = new ScheduledExecutorService[threads < 1 ? 1 : threads];
+		final AtomicInteger index = new AtomicInteger(0);
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "KettleRecordEventLoop-" + index.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		logger.info("Kettle事件循环启动完成,线程数:" + loops.length);
+	}
+
+	/**
+	 * 按key选择事件线程
+	 *
+	 * @param key
+	 * @return
+	 */
+	private ScheduledExecutorService loopOf(String key) {
+		int hash = key == null ? 0 : key.hashCode();
+		return loops[(hash & Integer.MAX_VALUE) % loops.length];
+	}
+
+	/**
+	 * 立即执行
+	 *
+	 * @param key
+	 * @param event
+	 */
+	public void execute(String key, Runnable event) {
+		loopOf(key).execute(new SafeEvent(event));
+	}
+
+	/**
+	 * 延迟执行
+	 *
+	 * @param key
+	 * @param event
+	 * @param delay
+	 * @param unit
+	 */
+	public void schedule(String key, Runnable event, long delay, TimeUnit unit) {
+		loopOf(key).schedule(new SafeEvent(event), delay, unit);
+	}
+
+	/**
+	 * 线程数
+	 *
+	 * @return
+	 */
+	public int size() {
+		return loops.length;
+	}
+
+	/**
+	 * 异常不能终止事件线程
+	 *
+	 * @author Administrator
+	 *
+	 */
+	private static class SafeEvent implements Runnable {
+
+		private final Runnable event;
+
+		private SafeEvent(Runnable event) {
+			this.event = event;
+		}
+
+		@Override
+		public void run() {
+			try {
+				event.run();
+			} catch (Throwable ex) {
+				logger.error("Kettle事件循环处理事件发生异常!", ex);
+			}
+		}
+	}
+}
@@ -5,10 +5,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.kettle.core.KettleVariables;
+import com.kettle.core.db.KettleRecordLeaseLostException;
 import com.kettle.core.instance.KettleMgrEnvironment;
+import com.kettle.core.instance.KettleMgrInstance;
 import com.kettle.record.KettleRecord;
 import com.kettle.record.operation.BaseRecordOperator;
+import com.kettle.record.pool.KettleRecordRetryPolicy;
 import com.kettle.remote.KettleRemoteClient;
+import com.kettle.remote.KettleRemotePool;
 
 public class RemoteRecordOperator extends BaseRecordOperator {
 
@@ -22,11 +26,22 @@ public class RemoteRecordOperator extends BaseRecordOperator {
 	 */
 	private final KettleRemoteClient remoteClient;
 
+	/**
+	 * 远程池,记录故障转移事件
+	 */
+	private final KettleRemotePool remotePool;
+
+	/**
+	 * Record已交回任务池(重试或故障转移)
+	 */
+	private boolean released = false;
+
 	/**
 	 * @param remoteClient
 	 */
 	public RemoteRecordOperator(KettleRemoteClient remoteClient) {
 		this.remoteClient = remoteClient;
+		this.remotePool = KettleMgrInstance.kettleMgrEnvironment.getRemotePool();
 	}
 
 	@Override
@@ -37,6 +52,20 @@ public class RemoteRecordOperator extends BaseRecordOperator {
 		return false;
 	}
 
+	@Override
+	public KettleRecord detachRecord() {
+		released = false;
+		return super.detachRecord();
+	}
+
+	/**
+	 * 完成,异常或已交回任务池重试,处理者可以释放该Record
+	 */
+	@Override
+	public boolean isFinished() {
+		return released || super.isFinished();
+	}
+
 	/**
 	 * 强制加载,无视远端状态
 	 * 
@@ -55,8 +84,8 @@ public class RemoteRecordOperator extends BaseRecordOperator {
 		if (isAttached()) {
 			if (remoteClient.isRunning()) {
 				super.dealRecord();
-			} else if (!record.isApply()) {
-				dealErrorRemoteRecord();
+			} else {
+				failover();
 			}
 		}
 	}
@@ -65,30 +94,101 @@ public class RemoteRecordOperator extends BaseRecordOperator {
 	 * @throws KettleException
 	 */
 	private void updateRecord() throws KettleException {
+		if (!persist()) {
+			return;
+		}
+		if (record.isError()) {
+			recordCompleted();
+		}
+	}
+
+	/**
+	 * 持久化状态
+	 * 
+	 * @return 是否成功,本节点已失去租约时释放Record并返回false
+	 * @throws KettleException
+	 */
+	private boolean persist() throws KettleException {
 		try {
 			dbClient.updateRecordStatus(record);
+			return true;
+		} catch (KettleRecordLeaseLostException ex) {
+			leaseLost();
+			return false;
 		} catch (Exception ex) {
 			throw new KettleException("remote[" + remoteClient.getHostName() + "]持久化更新Job[" + record.getUuid() + "]失败!",
 					ex);
 		}
 	}
 
+	/**
+	 * Record已被其他节点接管:不再处理,从任务池(含退避和等待上游)中移除,处理者随即释放
+	 */
+	private void leaseLost() {
+		logger.warn("Record[" + record.getUuid() + "]已被其他节点接管,remote[" + remoteClient.getHostName() + "]停止处理!");
+		recordPool.deleteRecord(record.getUuid());
+		released = true;
+	}
+
 	@Override
 	public void dealApply() throws KettleException {
 		String runID = null;
+		// 发送前确认仍持有该Record,避免租约过期后与接管的节点重复发送
+		try {
+			if (!dbClient.fenceRecord(record)) {
+				leaseLost();
+				return;
+			}
+		} catch (Exception ex) {
+			throw new KettleException("remote[" + remoteClient.getHostName() + "]确认Job[" + record.getUuid() + "]的租约失败!",
+					ex);
+		}
 		try {
 			runID = remoteClient.remoteSendJob(record);
 			record.setRunID(runID);
 			record.setStatus(KettleVariables.RECORD_STATUS_RUNNING);
+			// 新的运行,远端日志从头拉取
+			record.setLogOffset(0);
+			record.setNextLogTime(0);
+			KettleMgrInstance.kettleMgrEnvironment.getLogStore().append(record.getUuid(),
+					"==== remote[" + remoteClient.getHostName() + "] runID[" + runID + "] ====");
 		} catch (Exception ex) {
+			logger.error("remote[" + remoteClient.getHostName() + "]发送Job[" + record.getUuid() + "]发生异常!", ex);
+			if (retryApply(ex)) {
+				return;
+			}
 			record.setStatus(KettleVariables.RECORD_STATUS_ERROR);
 			record.setErrMsg("remote[" + remoteClient.getHostName() + "]发送Job[" + record.getUuid() + "]发生异常");
-			logger.error("remote[" + remoteClient.getHostName() + "]发送Job[" + record.getUuid() + "]发生异常!", ex);
 		}
 		record.setHostname(remoteClient.getHostName());
 		updateRecord();
 	}
 
+	/**
+	 * 按重试策略将发送失败的Record交回任务池,退避后由任意远端重新发送,无需重新注册
+	 *
+	 * @param ex
+	 * @return 是否重试
+	 * @throws KettleException
+	 */
+	private boolean retryApply(Exception ex) throws KettleException {
+		KettleRecordRetryPolicy policy = KettleRecordRetryPolicy.of(record);
+		if (!policy.canRetry(record, ex)) {
+			return false;
+		}
+		record.setRetryCount(record.getRetryCount() + 1);
+		long delay = policy.backoffMillis(record.getRetryCount());
+		record.setRunID(null);
+		record.setHostname(null);
+		record.setErrMsg("remote[" + remoteClient.getHostName() + "]发送Job[" + record.getUuid() + "]发生异常,第"
+				+ record.getRetryCount() + "次重试将在" + delay + "ms后进行");
+		updateRecord();
+		recordPool.retryRecord(record, delay);
+		released = true;
+		logger.warn("Record[" + record.getUuid() + "]将在" + delay + "ms后第" + record.getRetryCount() + "次重试!");
+		return true;
+	}
+
 	@Override
 	public void dealRegiste() throws KettleException {
 		throw new KettleException("Record[" + record.getUuid() + "] 状态为[Registe],无法远程执行!");
@@ -98,27 +198,56 @@ public class RemoteRecordOperator extends BaseRecordOperator {
 	public void dealError() throws KettleException {
 		try {
 			dbClient.updateRecordStatus(record);
+		} catch (KettleRecordLeaseLostException e) {
+			leaseLost();
+			return;
 		} catch (Exception e) {
 			throw new KettleException("Record[" + record.getUuid() + "] 状态为[Error],数据库发生异常!", e);
 		}
+		recordCompleted();
 	}
 
 	@Override
 	public void dealFinished() throws KettleException {
 		try {
 			dbClient.updateRecordStatus(record);
-			remoteClient.remoteRemoveJobNE(record);
+		} catch (KettleRecordLeaseLostException e) {
+			leaseLost();
+			return;
 		} catch (Exception e) {
 			throw new KettleException("Record[" + record.getUuid() + "] 状态为[Finished],数据库发生异常!", e);
 		}
+		remoteClient.remoteRemoveJobNE(record);
+		remoteClient.recordSucceeded();
+		recordCompleted();
 	}
 
 	@Override
 	public void dealRunning() throws KettleException {
+		if (record.getNextRetryTime() > System.currentTimeMillis()) {
+			// 状态同步退避中
+			return;
+		}
 		try {
 			remoteClient.remoteJobStatus(record);
+			record.setStatusFailures(0);
+			record.setNextRetryTime(0);
+			if (record.isError()) {
+				remoteClient.recordFailed("ERROR");
+			}
 			checkJobRunOvertime();
+			syncJobLog();
 		} catch (Exception e) {
+			KettleRecordRetryPolicy policy = KettleRecordRetryPolicy.of(record);
+			if (policy.canRetry(record, record.getStatusFailures(), e)) {
+				// 远端的Job可能仍在运行,不重新发送,仅推迟下一次同步;使用独立的连续失败计数,不占用发送的重试次数
+				record.setStatusFailures(record.getStatusFailures() + 1);
+				long delay = policy.backoffMillis(record.getStatusFailures());
+				record.setNextRetryTime(System.currentTimeMillis() + delay);
+				logger.warn("Record[" + record.getUuid() + "] 在Remote[" + remoteClient.getHostName() + "]中同步状态发生异常,将在"
+						+ delay + "ms后第" + record.getStatusFailures() + "次重试!", e);
+				return;
+			}
 			record.setStatus(KettleVariables.RECORD_STATUS_ERROR);
 			record.setErrMsg("Record[" + record.getUuid() + "] 在Remote[" + remoteClient.getHostName() + "]中同步状态发生异常!");
 			logger.error("Record[" + record.getUuid() + "] 在Remote[" + remoteClient.getHostName() + "]中同步状态发生异常!", e);
@@ -130,6 +259,50 @@ public class RemoteRecordOperator extends BaseRecordOperator {
 		}
 	}
 
+	/**
+	 * 远端不可用时的故障转移:未发送的Record立即交回任务池;运行中的Record在宽限期内等待远端恢复,
+	 * 超过宽限期后幂等的重新派发,否则置为异常
+	 * 
+	 * @throws KettleException
+	 */
+	private void failover() throws KettleException {
+		if (record.isApply()) {
+			record.setHostname(null);
+			// 取自任务池,退回所属类别的队首,由其他Remote领取
+			released = recordPool.returnRecord(record, true);
+			if (released) {
+				remotePool.failoverEvent(KettleVariables.FAILOVER_RECORD_MOVED, remoteClient, record.getUuid());
+			} else {
+				logger.warn("Record[" + record.getUuid() + "]已在任务池中,无法从Remote[" + remoteClient.getHostName() + "]转移!");
+			}
+			return;
+		}
+		if (!record.isRunning()) {
+			dealErrorRemoteRecord();
+			return;
+		}
+		if (!remoteClient.isDownLongerThan(KettleMgrEnvironment.KETTLE_REMOTE_FAILOVER_GRACE * 1000L)) {
+			return;
+		}
+		if (!record.isIdempotent()) {
+			dealErrorRemoteRecord();
+			remotePool.failoverEvent(KettleVariables.FAILOVER_RECORD_ABANDONED, remoteClient, record.getUuid());
+			return;
+		}
+		record.setStatus(KettleVariables.RECORD_STATUS_APPLY);
+		record.setRunID(null);
+		record.setHostname(null);
+		record.setErrMsg("Remote[" + remoteClient.getHostName() + "]超过宽限期无法连接,Record[" + record.getUuid() + "]重新派发");
+		updateRecord();
+		// 进入所属类别,不越过公平调度
+		released = recordPool.requeueRecord(record);
+		if (released) {
+			remotePool.failoverEvent(KettleVariables.FAILOVER_RECORD_REDISPATCHED, remoteClient, record.getUuid());
+		} else {
+			logger.warn("Record[" + record.getUuid() + "]已在任务池中,无法从Remote[" + remoteClient.getHostName() + "]重新派发!");
+		}
+	}
+
 	/**
 	 * 处理远端无法连接的记录
 	 * 
@@ -141,6 +314,19 @@ public class RemoteRecordOperator extends BaseRecordOperator {
 		updateRecord();
 	}
 
+	/**
+	 * 拉取远端日志的增量:Record结束时拉取,运行中每KETTLE_RECORD_LOG_SYNC_SECONDS秒拉取一次
+	 */
+	private void syncJobLog() {
+		long now = System.currentTimeMillis();
+		int interval = KettleMgrEnvironment.KETTLE_RECORD_LOG_SYNC_SECONDS;
+		if (record.isRunning() && (interval <= 0 || record.getNextLogTime() > now)) {
+			return;
+		}
+		record.setNextLogTime(now + interval * 1000L);
+		remoteClient.remoteJobLogNE(record);
+	}
+
 	/**
 	 * 是否超时
 	 * 
@@ -151,6 +337,7 @@ public class RemoteRecordOperator extends BaseRecordOperator {
 			if ((System.currentTimeMillis() - record.getUpdateTime().getTime()) / 1000
 					/ 60 > KettleMgrEnvironment.KETTLE_RECORD_RUNNING_TIMEOUT) {
 				remoteClient.remoteStopJobNE(record);
+				remoteClient.recordFailed("TIMEOUT");
 				record.setStatus(KettleVariables.RECORD_STATUS_ERROR);
 				record.setErrMsg("Record[" + record.getUuid() + "]执行超时,异常状态!");
 			}
@@ -7,8 +7,6 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.kettle.core.KettleVariables;
-import com.kettle.core.instance.KettleMgrEnvironment;
 import com.kettle.core.instance.KettleMgrInstance;
 import com.kettle.record.KettleRecord;
 import com.kettle.record.pool.KettleRecordPool;
@@ -43,10 +41,15 @@ public class RemoteSerialRecordHandler implements Runnable {
 	private final RemoteRecordOperator remoteRecordOperator;
 
 	/**
-	 * 保存遗留的任务
+	 * 处理中的任务,每个占用远端的一个槽位
 	 */
 	private List<KettleRecord> kettleRecords = new LinkedList<KettleRecord>();
 
+	/**
+	 * 遗留或接管的任务,占用槽位后进入处理,优先于任务池
+	 */
+	private List<KettleRecord> pendingRecords = new LinkedList<KettleRecord>();
+
 	/**
 	 * @param client
 	 */
@@ -55,12 +58,12 @@ public class RemoteSerialRecordHandler implements Runnable {
 		this.remoteRecordOperator = new RemoteRecordOperator(remoteClient);
 		recordPool = KettleMgrInstance.kettleMgrEnvironment.getRecordPool();
 		if (oldRecords != null && !oldRecords.isEmpty()) {
-			this.kettleRecords.addAll(oldRecords);
+			this.pendingRecords.addAll(oldRecords);
 		}
 	}
 
 	/**
-	 * 获取记录
+	 * 获取记录,与其他处理模型相同,每个Record先占用远端的槽位
 	 * 
 	 * @return
 	 */
@@ -69,9 +72,10 @@ public class RemoteSerialRecordHandler implements Runnable {
 		if (!remoteClient.isRunning()) {
 			dealRemoteErrorRecords();
 		} else {
-			while (kettleRecords.size() < KettleMgrEnvironment.KETTLE_RECORD_MAX_PER_REMOTE) {
-				recordTMP = recordPool.nextRecord();
+			while (remoteClient.tryAcquireSlot()) {
+				recordTMP = pendingRecords.isEmpty() ? recordPool.nextRecord() : pendingRecords.remove(0);
 				if (recordTMP == null) {
+					remoteClient.releaseSlot();
 					break;
 				} else {
 					kettleRecords.add(recordTMP);
@@ -81,7 +85,7 @@ public class RemoteSerialRecordHandler implements Runnable {
 	}
 
 	/**
-	 * 远程错误是对Record的处理
+	 * 远程错误是对Record的处理:未发送的立即转移到其他远端,运行中的由RemoteRecordOperator按宽限期处理
 	 */
 	private synchronized void dealRemoteErrorRecords() {
 		KettleRecord recordTMP = null;
@@ -91,22 +95,17 @@ public class RemoteSerialRecordHandler implements Runnable {
 		for (Iterator<KettleRecord> it = kettleRecords.iterator(); it.hasNext();) {
 			recordTMP = it.next();
 			if (recordTMP != null && recordTMP.isApply()) {
-				recordPool.addPrioritizeRecord(recordTMP);
-				it.remove();
-			}
-			if (recordTMP.isRunning()
-					&& (System.currentTimeMillis() - recordTMP.getUpdateTime().getTime()) / 1000 > 5) {
 				try {
-					recordTMP.setStatus(KettleVariables.RECORD_STATUS_ERROR);
-					recordTMP.setErrMsg("Remote[" + remoteClient.getHostName() + "]长时间无法连接!");
 					remoteRecordOperator.attachRecordForce(recordTMP);
 					remoteRecordOperator.dealRecord();
-					remoteRecordOperator.detachRecord();
 				} catch (Exception ex) {
-					logger.error("Remote[" + remoteClient.getHostName() + "]无法连接,对运行的的Record[" + recordTMP.getUuid()
-							+ "]处理发生异常!", ex);
+					logger.error("Remote[" + remoteClient.getHostName() + "]无法连接,转移Record[" + recordTMP.getUuid()
+							+ "]发生异常!", ex);
+				} finally {
+					remoteRecordOperator.detachRecord();
 				}
 				it.remove();
+				remoteClient.releaseSlot();
 			}
 		}
 	}
@@ -114,24 +113,45 @@ public class RemoteSerialRecordHandler implements Runnable {
 	/**
 	 * 获取记录
 	 * @param index
-	 * @return
+	 * @return 是否已从处理中移除
 	 */
-	private synchronized void dealRecord(int index) {
+	private synchronized boolean dealRecord(int index) {
 		KettleRecord record = kettleRecords.get(index);
 		if (record == null) {
-			return;
+			// 已删除,槽位已在删除时归还
+			kettleRecords.remove(index);
+			return true;
 		}
+		// 完成,异常或交回任务池
+		boolean released = false;
 		try {
-			remoteRecordOperator.attachRecord(record);
+			remoteRecordOperator.attachRecordForce(record);
 			remoteRecordOperator.dealRecord();
 		} catch (Exception ex) {
 			logger.error("Kettle远端[" + remoteClient.getHostName() + "]处理record[" + record.getUuid() + "]发生异常!", ex);
 		} finally {
+			released = remoteRecordOperator.isFinished();
 			remoteRecordOperator.detachRecord();
 		}
-		if (record.isError() || record.isFinished()) {
+		if (released) {
 			kettleRecords.remove(index);
+			remoteClient.releaseSlot();
+		}
+		return released;
+	}
+
+	/**
+	 * 接管其他节点遗留的运行中Record
+	 * 
+	 * @param record
+	 * @return 是否接管,Record不在该远端时返回false
+	 */
+	public synchronized boolean adoptRecord(KettleRecord record) {
+		if (!remoteClient.getHostName().equals(record.getHostname())) {
+			return false;
 		}
+		pendingRecords.add(record);
+		return true;
 	}
 
 	/**
@@ -145,6 +165,17 @@ public class RemoteSerialRecordHandler implements Runnable {
 			return false;
 		}
 		KettleRecord remoteRecord = null;
+		for (Iterator<KettleRecord> it = pendingRecords.iterator(); it.hasNext();) {
+			remoteRecord = it.next();
+			if (remoteRecord.getUuid().equals(record.getUuid())) {
+				if (!remoteRecord.isApply() && remoteClient.isRunning()) {
+					remoteClient.remoteStopJobNE(remoteRecord);
+					remoteClient.remoteRemoveJobNE(remoteRecord);
+				}
+				it.remove();
+				return true;
+			}
+		}
 		for (int i = 0; i < kettleRecords.size(); i++) {
 			remoteRecord = kettleRecords.get(i);
 			if (remoteRecord != null && remoteRecord.getUuid().equals(record.getUuid())) {
@@ -154,7 +185,8 @@ public class RemoteSerialRecordHandler implements Runnable {
 				}
 				kettleRecords.remove(i);
 				kettleRecords.add(i, null);
-				// 设置为空
+				// 设置为空,归还槽位
+				remoteClient.releaseSlot();
 				return true;
 			}
 		}
@@ -167,10 +199,10 @@ public class RemoteSerialRecordHandler implements Runnable {
 		try {
 			fetchRecord();
 			int index = 0;
-			int size = kettleRecords.size();
-			while (index < size) {
-				dealRecord(index);
-				index++;
+			while (index < kettleRecords.size()) {
+				if (!dealRecord(index)) {
+					index++;
+				}
 			}
 		} catch (Exception ex) {
 			logger.error("Kettle远端[" + remoteClient.getHostName() + "]守护进程结束!", ex);
@@ -0,0 +1,147 @@
+package com.kettle.remote.record.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kettle.core.instance.KettleMgrEnvironment;
+import com.kettle.core.instance.KettleMgrInstance;
+import com.kettle.record.KettleRecord;
+import com.kettle.record.pool.KettleRecordPoolMonitor;
+import com.kettle.record.service.RecordService;
+import com.kettle.remote.KettleRemoteClient;
+import com.kettle.remote.KettleRemotePool;
+import com.kettle.remote.dispatch.RemoteRecordDispatcher;
+import com.kettle.remote.record.RemoteEventLoopRecordHandler;
+import com.kettle.remote.record.RemoteRecordEventLoop;
+
+/**
+ * Kettle远程事件驱动服务,固定数量的线程驱动所有远端的Record,由全局派发者按负载选择远端
+ *
+ * @author Administrator
+ *
+ */
+public class RemoteEventLoopRecordService extends RecordService implements KettleRecordPoolMonitor {
+
+	/**
+	 * 日志
+	 */
+	private static Logger logger = LoggerFactory.getLogger(RemoteEventLoopRecordService.class);
+
+	/**
+	 * 定时唤醒事件的key
+	 */
+	private static final String AWAKEN_KEY = "RemoteEventLoopRecordService";
+
+	/**
+	 * 定时唤醒的间隔(秒),远端恢复后可重新领取Record
+	 */
+	private static final long AWAKEN_PERIOD_SECONDS = 10;
+
+	/**
+	 * 远程处理者
+	 */
+	private final List<RemoteEventLoopRecordHandler> handlers = new ArrayList<RemoteEventLoopRecordHandler>();
+
+	/**
+	 * 事件循环
+	 */
+	private final RemoteRecordEventLoop eventLoop;
+
+	/**
+	 * 全局派发者
+	 */
+	private final RemoteRecordDispatcher dispatcher;
+
+	/**
+	 * 构造器
+	 */
+	public RemoteEventLoopRecordService() {
+		super();
+		eventLoop = new RemoteRecordEventLoop(KettleMgrEnvironment.KETTLE_RECORD_EVENT_LOOP_THREADS);
+		dispatcher = new RemoteRecordDispatcher(eventLoop,
+				RemoteRecordDispatcher.createSelectPolicy(KettleMgrEnvironment.KETTLE_RECORD_DISPATCH_POLICY));
+		KettleRemotePool remotePool = KettleMgrInstance.kettleMgrEnvironment.getRemotePool();
+		List<KettleRecord> oldRecords = super.getHandleRecords();
+		List<KettleRecord> runningRecords = new LinkedList<KettleRecord>();
+		KettleRecord recordIndex = null;
+		// 分类,并将apply状态的留在oldRecords中
+		for (Iterator<KettleRecord> it = oldRecords.iterator(); it.hasNext();) {
+			recordIndex = it.next();
+			if (recordIndex == null) {
+				it.remove();
+				continue;
+			}
+			if (recordIndex.isRunning()) {
+				runningRecords.add(recordIndex);
+				it.remove();
+			}
+		}
+		RemoteEventLoopRecordHandler handler = null;
+		for (KettleRemoteClient remoteClient : remotePool.getRemoteclients()) {
+			handler = new RemoteEventLoopRecordHandler(remoteClient, eventLoop, dispatcher, null);
+			handlers.add(handler);
+			dispatcher.addHandler(handler);
+		}
+		logger.info("Kettle远程事件驱动服务启动完成,远端个数:" + handlers.size());
+		for (KettleRecord record : oldRecords) {
+			super.recordPool.addPrioritizeRecord(record);
+		}
+		// 注册监听
+		recordPool.registePoolMonitor(this);
+		// 申请
+		addRecordNotify();
+		eventLoop.schedule(AWAKEN_KEY, new AwakenDaemon(), AWAKEN_PERIOD_SECONDS, TimeUnit.SECONDS);
+		// 后台核对遗留的运行中Record
+		recoverRunningRecords(runningRecords);
+	}
+
+	@Override
+	public void addRecordNotify() {
+		dispatcher.dispatchLater();
+	}
+
+	/**
+	 * 定时唤醒
+	 *
+	 * @author Administrator
+	 *
+	 */
+	private class AwakenDaemon implements Runnable {
+		@Override
+		public void run() {
+			try {
+				addRecordNotify();
+			} finally {
+				eventLoop.schedule(AWAKEN_KEY, this, AWAKEN_PERIOD_SECONDS, TimeUnit.SECONDS);
+			}
+		}
+	}
+
+	@Override
+	protected void jobMustDie(KettleRecord record) throws KettleException {
+		for (RemoteEventLoopRecordHandler handler : handlers) {
+			if (handler.tryRemoveRecord(record)) {
+				break;
+			}
+		}
+		// 直接清除
+		dbClient.deleteRecord(record.getUuid());
+	}
+
+	@Override
+	protected boolean adoptRunningRecord(KettleRecord record) {
+		for (RemoteEventLoopRecordHandler handler : handlers) {
+			if (handler.adoptRecord(record)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,13 +1,11 @@
 package com.kettle.remote.record.service;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
 
 import org.pentaho.di.core.exception.KettleException;
 import org.slf4j.Logger;
@@ -18,6 +16,7 @@ import com.kettle.record.KettleRecord;
 import com.kettle.record.pool.KettleRecordPoolMonitor;
 import com.kettle.record.service.RecordService;
 import com.kettle.remote.KettleRemoteClient;
+import com.kettle.remote.KettleRemoteMonitor;
 import com.kettle.remote.KettleRemotePool;
 import com.kettle.remote.record.RemoteParallelRecordHandler;
 
@@ -27,7 +26,8 @@ import com.kettle.remote.record.RemoteParallelRecordHandler;
  * @author Administrator
  *
  */
-public class RemoteParallelRecordService extends RecordService implements KettleRecordPoolMonitor {
+public class RemoteParallelRecordService extends RecordService
+		implements KettleRecordPoolMonitor, KettleRemoteMonitor {
 
 	/**
 	 * 日志
@@ -38,11 +38,6 @@ public class RemoteParallelRecordService extends RecordService implements Kettle
 	 */
 	private final List<RemoteParallelRecordHandler> handlers = new ArrayList<RemoteParallelRecordHandler>();
 
-	/**
-	 * 线程池
-	 */
-	private final ExecutorService threadPool = Executors.newSingleThreadExecutor();
-
 	/**
 	 * 构造器
 	 */
@@ -50,7 +45,7 @@ public class RemoteParallelRecordService extends RecordService implements Kettle
 		super();
 		KettleRemotePool remotePool = KettleMgrInstance.kettleMgrEnvironment.getRemotePool();
 		List<KettleRecord> oldRecords = super.getHandleRecords();
-		Map<String, List<KettleRecord>> oldRecordMap = new HashMap<String, List<KettleRecord>>();
+		List<KettleRecord> runningRecords = new LinkedList<KettleRecord>();
 		KettleRecord recordIndex = null;
 		// 分类,并将apply状态的留在oldRecords中
 		for (Iterator<KettleRecord> it = oldRecords.iterator(); it.hasNext();) {
@@ -59,40 +54,54 @@ public class RemoteParallelRecordService extends RecordService implements Kettle
 				it.remove();
 				continue;
 			}
-			if (recordIndex.isRunning() && recordIndex.getHostname() != null) {
-				if (!oldRecordMap.containsKey(recordIndex.getHostname())) {
-					oldRecordMap.put(recordIndex.getHostname(), new LinkedList<KettleRecord>());
-				}
-				oldRecordMap.get(recordIndex.getHostname()).add(recordIndex);
+			if (recordIndex.isRunning()) {
+				runningRecords.add(recordIndex);
 				it.remove();
 			}
 		}
 		for (KettleRemoteClient remoteClient : remotePool.getRemoteclients()) {
-			handlers.add(new RemoteParallelRecordHandler(remoteClient, oldRecordMap.get(remoteClient.getHostName())));
+			handlers.add(new RemoteParallelRecordHandler(remoteClient, null));
+		}
+		// 互相窃取
+		List<RemoteParallelRecordHandler> peers = Collections.unmodifiableList(handlers);
+		for (RemoteParallelRecordHandler handler : handlers) {
+			handler.setPeers(peers);
 		}
 		for (KettleRecord record : oldRecords) {
 			super.recordPool.addPrioritizeRecord(record);
 		}
 		// 注册监听
 		recordPool.registePoolMonitor(this);
+		remotePool.registeRemoteMonitor(this);
 		// 申请
 		addRecordNotify();
+		// 后台核对遗留的运行中Record
+		recoverRunningRecords(runningRecords);
 	}
 
 	@Override
 	public void addRecordNotify() {
-		for (final RemoteParallelRecordHandler handler : handlers) {
-			// 尝试唤醒
-			threadPool.execute(new Runnable() {
-				@Override
-				public void run() {
-					try {
-						handler.tryAwaken();
-					} catch (Exception ex) {
-						logger.error("RemoteParallelRecordService发生异常!\n", ex);
-					}
-				}
-			});
+		// 各远端在自己的派发线程中唤醒,慢远端不影响其他远端
+		for (RemoteParallelRecordHandler handler : handlers) {
+			handler.requestAwaken();
+		}
+	}
+
+	@Override
+	public void remoteErrorNotify(KettleRemoteClient remoteClient) {
+		for (RemoteParallelRecordHandler handler : handlers) {
+			if (handler.getRemoteClient() == remoteClient) {
+				handler.requestFailover();
+			}
+		}
+	}
+
+	@Override
+	public void jobStatusNotify(KettleRemoteClient remoteClient, Set<String> runIDs) {
+		for (RemoteParallelRecordHandler handler : handlers) {
+			if (handler.getRemoteClient() == remoteClient) {
+				handler.jobStatusChanged(runIDs);
+			}
 		}
 	}
 
@@ -106,4 +115,14 @@ public class RemoteParallelRecordService extends RecordService implements Kettle
 		// 直接清除
 		dbClient.deleteRecord(record.getUuid());
 	}
+
+	@Override
+	protected boolean adoptRunningRecord(KettleRecord record) {
+		for (RemoteParallelRecordHandler handler : handlers) {
+			if (handler.adoptRecord(record)) {
+				return true;
+			}
+		}
+		return false;
+	}
 }
@@ -1,9 +1,7 @@
 package com.kettle.remote.record.service;
 
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -53,26 +51,25 @@ public class RemoteSerialRecordService extends RecordService {
 		KettleRemotePool remotePool = KettleMgrInstance.kettleMgrEnvironment.getRemotePool();
 		threadPool = Executors.newScheduledThreadPool(remotePool.getRemoteclients().size());
 		List<KettleRecord> oldRecords = super.getHandleRecords();
-		Map<String, List<KettleRecord>> oldRecordMap = new HashMap<String, List<KettleRecord>>();
+		List<KettleRecord> runningRecords = new LinkedList<KettleRecord>();
 		for (KettleRecord record : oldRecords) {
 			if (record == null) {
 				continue;
 			}
 			if (record.isApply()) {
 				super.recordPool.addPrioritizeRecord(record);
-			} else if (record.getHostname() != null) {
-				if (!oldRecordMap.containsKey(record.getHostname())) {
-					oldRecordMap.put(record.getHostname(), new LinkedList<KettleRecord>());
-				}
-				oldRecordMap.get(record.getHostname()).add(record);
+			} else {
+				runningRecords.add(record);
 			}
 		}
 		RemoteSerialRecordHandler recordHandler = null;
 		for (KettleRemoteClient remoteClient : remotePool.getRemoteclients()) {
-			recordHandler = new RemoteSerialRecordHandler(remoteClient, oldRecordMap.get(remoteClient.getHostName()));
+			recordHandler = new RemoteSerialRecordHandler(remoteClient, null);
 			handlers.add(recordHandler);
 		}
 		start();
+		// 后台核对遗留的运行中Record
+		recoverRunningRecords(runningRecords);
 	}
 
 	/**
@@ -101,4 +98,14 @@ public class RemoteSerialRecordService extends RecordService {
 		// 直接清除
 		dbClient.deleteRecord(record.getUuid());
 	}
+
+	@Override
+	protected boolean adoptRunningRecord(KettleRecord record) {
+		for (RemoteSerialRecordHandler handler : handlers) {
+			if (handler.adoptRecord(record)) {
+				return true;
+			}
+		}
+		return false;
+	}
 }
@@ -0,0 +1,149 @@
+package com.kettle.main.pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.kettle.core.KettleVariables;
+import com.kettle.record.KettleRecord;
+import com.kettle.record.pool.KettleRecordPool;
+
+/**
+ * KettleRecordPool的竞争压测:addRecord,nextRecord,deleteRecord
+ *
+ * 生产者线程数依次为1,2,4,8,16,消费者与删除者线程数固定,输出每秒操作数;删除只统计确实删除了Record的次数
+ *
+ * @author Administrator
+ *
+ */
+public class KettleRecordPoolBenchmark {
+
+	/**
+	 * 每轮时长
+	 */
+	private static final long ROUND_MILLIS = 3000;
+
+	/**
+	 * 消费者线程数
+	 */
+	private static final int CONSUMERS = 2;
+
+	/**
+	 * 删除者线程数
+	 */
+	private static final int DELETERS = 1;
+
+	public static void main(String[] args) throws Exception {
+		KettleRecordPool pool = new KettleRecordPool();
+		System.out.println("producers\tadd/s\tnext/s\tdelete/s\ttotal/s");
+		for (int producers = 1; producers <= 16; producers *= 2) {
+			// 预热
+			round(pool, producers, ROUND_MILLIS / 3);
+			long[] ops = round(pool, producers, ROUND_MILLIS);
+			long seconds = ROUND_MILLIS / 1000;
+			System.out.println(producers + "\t\t" + ops[0] / seconds + "\t" + ops[1] / seconds + "\t"
+					+ ops[2] / seconds + "\t\t" + (ops[0] + ops[1] + ops[2]) / seconds);
+			while (pool.nextRecord() != null) {
+			}
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * 一轮压测
+	 *
+	 * @param pool
+	 * @param producers
+	 * @param millis
+	 * @return add,next,delete的操作数
+	 * @throws InterruptedException
+	 */
+	private static long[] round(final KettleRecordPool pool, int producers, long millis) throws InterruptedException {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong adds = new AtomicLong(0);
+		final AtomicLong nexts = new AtomicLong(0);
+		final AtomicLong deletes = new AtomicLong(0);
+		final AtomicLong sequence = new AtomicLong(0);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < producers; i++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					await(start);
+					long count = 0;
+					KettleRecord record;
+					while (running.get()) {
+						record = new KettleRecord();
+						record.setUuid(Long.toString(sequence.getAndIncrement()));
+						record.setStatus(KettleVariables.RECORD_STATUS_APPLY);
+						try {
+							if (pool.addRecord(record)) {
+								count++;
+							}
+						} catch (Exception ex) {
+							// 任务池已满
+						}
+					}
+					adds.addAndGet(count);
+				}
+			}));
+		}
+		for (int i = 0; i < CONSUMERS; i++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					await(start);
+					long count = 0;
+					while (running.get()) {
+						if (pool.nextRecord() != null) {
+							count++;
+						}
+					}
+					nexts.addAndGet(count);
+				}
+			}));
+		}
+		for (int i = 0; i < DELETERS; i++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					await(start);
+					Random random = new Random();
+					long count = 0;
+					long bound;
+					while (running.get()) {
+						bound = sequence.get();
+						if (bound > 0) {
+							if (pool.deleteRecord(Long.toString((long) (random.nextDouble() * bound)))) {
+								count++;
+							}
+						}
+					}
+					deletes.addAndGet(count);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		Thread.sleep(millis);
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return new long[] { adds.get(), nexts.get(), deletes.get() };
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.kettle.main.sync.tables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.kettle.core.bean.KettleJobEntireDefine;
+import com.kettle.core.bean.KettleResult;
+import com.kettle.core.instance.KettleMgrInstance;
+import com.kettle.core.metas.KettleTableMeta;
+import com.kettle.core.metas.builder.SyncTablesDatasBuilder;
+
+public class RemoteBatchMain {
+	/**
+	 * 与RemoteMain相同的26张表,一次批量申请执行,并与逐个申请执行比较耗时(同一操作,仅批量与否不同)
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		System.out.println("------------------------------");
+		KettleMgrInstance.getInstance();
+		List<String> flags = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "o",
+				"p", "q", "r", "s", "t", "u", "v", "w", "x", "y", "z");
+		List<KettleJobEntireDefine> batch = new ArrayList<KettleJobEntireDefine>(flags.size());
+		List<KettleJobEntireDefine> singles = new ArrayList<KettleJobEntireDefine>(flags.size());
+		for (String flag : flags) {
+			batch.add(SyncTablesDatasBuilder.newBuilder().source(source(flag)).target(target(flag)).createJob());
+			singles.add(SyncTablesDatasBuilder.newBuilder().source(source(flag)).target(target(flag)).createJob());
+		}
+		long now = System.currentTimeMillis();
+		List<KettleResult> singleResults = new ArrayList<KettleResult>(singles.size());
+		for (KettleJobEntireDefine kjed : singles) {
+			singleResults.add(KettleMgrInstance.getInstance().excuteJobDirectly(kjed));
+		}
+		System.out.println("==>excute one by one used: " + (System.currentTimeMillis() - now));
+		now = System.currentTimeMillis();
+		List<KettleResult> results = KettleMgrInstance.getInstance().excuteJobsDirectly(batch);
+		System.out.println("==>excute batch used: " + (System.currentTimeMillis() - now));
+		for (KettleResult result : singleResults) {
+			System.out.println("==>[" + result.getUuid() + "]状态: " + result.getStatus());
+		}
+		for (KettleResult result : results) {
+			System.out.println("==>[" + result.getUuid() + "]状态: " + result.getStatus());
+		}
+	}
+
+	private static KettleTableMeta source(String flag) {
+		KettleTableMeta source = new KettleTableMeta();
+		source.setType("MySQL");
+		source.setHost("192.168.80.138");
+		source.setPort("3306");
+		source.setDatabase("employees");
+		source.setUser("root");
+		source.setPasswd("123456");
+		source.setSql(
+				"SELECT employees.emp_no, dept_emp.dept_no, employees.first_name, employees.last_name, employees.birth_date "
+						+ "FROM employees, dept_emp WHERE employees.emp_no = dept_emp.emp_no AND first_name LIKE '"
+						+ flag + "%'");
+		source.setColumns(Arrays.asList("emp_no", "dept_no", "first_name", "last_name", "birth_date"));
+		source.setPkcolumns(Arrays.asList("emp_no", "dept_no"));
+		return source;
+	}
+
+	private static KettleTableMeta target(String flag) {
+		KettleTableMeta target = new KettleTableMeta();
+		target.setType("MySQL");
+		target.setHost("192.168.80.138");
+		target.setPort("3306");
+		target.setDatabase("person");
+		target.setUser("root");
+		target.setPasswd("123456");
+		target.setColumns(Arrays.asList("empID", "deptID", "firstName", "lastName", "born"));
+		target.setPkcolumns(Arrays.asList("empID", "deptID"));
+		target.setSql("SELECT empID, deptID, firstName, lastName, born FROM target_employees_" + flag);
+		target.setTableName("target_employees_" + flag);
+		return target;
+	}
+}